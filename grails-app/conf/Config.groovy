@@ -14,6 +14,29 @@
     numberOfParallelJobsPerNode = 100
 
     dataDirectoryIndependentOfVersion = false
+    //write the results of a run into one segment file instead of one file per path, period, field and collector
+    packedResultStorage = false
+    //default for new simulations: encode results for the grid transfer and the result files (see ResultSeriesCodec)
+    compressResults = false
+    //default for new simulations: calculate the key figures from quantile sketches collected during the simulation (see ResultSketch)
+    approximateKeyFigures = false
+    //number of results queued on the master node before the result transfer listener is blocked (see AsyncResultWriter)
+    resultWriterQueueSize = 1000
+    //memory in MB used to cache sorted result values for key figures which are not pre-calculated (see SortedValuesCache)
+    sortedValuesCacheSize = 64
+    //number of runs whose post simulation calculations are cached for the result views (see KeyFigureCache)
+    keyFigureCacheRuns = 4
+    //threads of a simulation run without grid, e.g. by the command line (see ParallelSimulationRunner)
+    localSimulationThreads = Runtime.runtime.availableProcessors()
+    //threads encoding result files for the csv export (see CsvResultExporter)
+    csvExportThreads = Runtime.runtime.availableProcessors()
+    //threads calculating the key figures after a simulation, 1 calculates all series in the simulation thread (see Calculator)
+    postSimulationCalculationParallelism = Runtime.runtime.availableProcessors()
+    //calculate the key figures of a series as soon as all jobs sent their results of it, not with packed result storage (see PipelinedCalculation)
+    pipelinedPostSimulationCalculation = false
+    //rows per batch and insert on a background thread if calculationBulkInsert = JdbcCalculationsBulkInsert (not for oracle)
+    calculationBulkInsertBatchSize = 1000
+    calculationBulkInsertAsyncCommit = true
 
     transactionServiceUrl = "rmi://localhost:1099/TransactionService"
     resultServiceRegistryPort = 1099
@@ -34,6 +34,7 @@ public class ArgumentParser {
     public static final String SIMULATION_NAME_OPTION = "name";
     public static final String SEED_OPTION = "seed";
     public static final String COMMENT_OPTION = "comment";
+    public static final String THREADS_OPTION = "threads";
 
     private Options options;
 
@@ -48,6 +49,7 @@ public ArgumentParser() {
         options.addOption(OptionBuilder.withArgName("name").hasArg().withDescription("name of the simulation").create(SIMULATION_NAME_OPTION));
         options.addOption(OptionBuilder.withArgName("comment").hasArg().withDescription("simulation comment").create(COMMENT_OPTION));
         options.addOption(OptionBuilder.withArgName("seed").hasArg().withDescription("simulation seed").create(SEED_OPTION));
+        options.addOption(OptionBuilder.withArgName("n").hasArg().withDescription("number of simulation threads").create(THREADS_OPTION));
 
         OptionGroup outputStrategy = new OptionGroup();
         outputStrategy.addOption(OptionBuilder.hasArg(false).withDescription("no results will be persisted").create(NO_OUTPUT_OPTION));
@@ -85,6 +87,16 @@ public ICollectorOutputStrategy getOutputStrategy(CommandLine commandLine) {
         }
     }
 
+    /**
+     * @return the number of simulation threads or null if the option isn't given
+     */
+    public Integer getThreadCount(CommandLine commandLine) {
+        if (commandLine.hasOption(THREADS_OPTION)) {
+            return Integer.parseInt(commandLine.getOptionValue(THREADS_OPTION));
+        }
+        return null;
+    }
+
     public Simulation createSimulation(CommandLine commandLine) throws Exception {
         final boolean force = commandLine.hasOption(FORCE_OPTION);
 
@@ -7,8 +7,8 @@
 import org.pillarone.riskanalytics.core.initialization.GrailsEnvironment
 import org.pillarone.riskanalytics.core.initialization.IExternalDatabaseSupport
 import org.pillarone.riskanalytics.core.initialization.StandaloneConfigLoader
+import org.pillarone.riskanalytics.core.simulation.engine.ParallelSimulationRunner
 import org.pillarone.riskanalytics.core.simulation.engine.SimulationConfiguration
-import org.pillarone.riskanalytics.core.simulation.engine.SimulationRunner
 import org.pillarone.riskanalytics.core.simulation.item.Simulation
 import org.springframework.context.support.AbstractApplicationContext
 
@@ -38,21 +38,20 @@ public static void main(String[] args) throws Exception {
                 return;
             }
 
-            SimulationRunner runner = SimulationRunner.createRunner();
             SimulationConfiguration configuration = createConfiguration(parser, commandLine);
+            ParallelSimulationRunner runner = createRunner(parser, commandLine, configuration);
 
             ImportStructureInTransaction.importStructure(configuration);
             def backgroundService = Holders.getGrailsApplication().getMainContext().getBean("backgroundService");
             backgroundService.execute(configuration.simulation.name) {
                 //don't start a transaction here, but inside SimulationRunner (problems with certain dbs.)
-                runner.simulationConfiguration = configuration
                 runner.start()
             }
             SimulationLogger logger = new SimulationLogger(runner, LOG);
             synchronized (logger) {
                 logger.wait();
             }
-            LOG.info("Simulation completed with simulation run id: " + runner.getCurrentScope().getSimulation().id);
+            LOG.info("Simulation completed with simulation run id: " + runner.getSimulation().id);
         } catch (Throwable t) {
             LOG.error("Simulation run failed", t);
         } finally {
@@ -69,6 +68,12 @@ static SimulationConfiguration createConfiguration(ArgumentParser parser, Comman
         return new SimulationConfiguration(simulation, parser.getOutputStrategy(commandLine));
     }
 
+    private
+    static ParallelSimulationRunner createRunner(ArgumentParser parser, CommandLine commandLine, SimulationConfiguration configuration) {
+        Integer threadCount = parser.getThreadCount(commandLine);
+        return threadCount != null ? new ParallelSimulationRunner(configuration, threadCount) : new ParallelSimulationRunner(configuration);
+    }
+
     private static void shutdown(IExternalDatabaseSupport databaseSupport) {
         AbstractApplicationContext applicationContext = (AbstractApplicationContext) Holders.getGrailsApplication().getMainContext();
         applicationContext.close();
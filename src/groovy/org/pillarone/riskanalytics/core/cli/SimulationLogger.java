@@ -2,20 +2,20 @@
 
 import org.apache.commons.logging.Log;
 import org.pillarone.riskanalytics.core.simulation.SimulationState;
-import org.pillarone.riskanalytics.core.simulation.engine.SimulationRunner;
+import org.pillarone.riskanalytics.core.simulation.engine.ParallelSimulationRunner;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class SimulationLogger implements Runnable {
 
-    private final SimulationRunner simulationRunner;
+    private final ParallelSimulationRunner simulationRunner;
     private final Log simulationLog;
     private static final long interval = 1000;
 
     private final List<SimulationState> stoppedStates = new ArrayList<SimulationState>(3);
 
-    public SimulationLogger(SimulationRunner simulationRunner, Log simulationLog) {
+    public SimulationLogger(ParallelSimulationRunner simulationRunner, Log simulationLog) {
         this.simulationRunner = simulationRunner;
         this.simulationLog = simulationLog;
 
@@ -28,7 +28,7 @@ public SimulationLogger(SimulationRunner simulationRunner, Log simulationLog) {
     public void run() {
         while (!stoppedStates.contains(simulationRunner.getSimulationState())) {
             if (simulationRunner.getSimulationState() == SimulationState.RUNNING) {
-                simulationLog.info("Current iteration: " + simulationRunner.getCurrentScope().getIterationsDone());
+                simulationLog.info("Current iteration: " + simulationRunner.getIterationsDone());
             }
             try {
                 Thread.sleep(interval);
@@ -0,0 +1,352 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the single values of result series as UTF-8 csv lines (iteration,period,path,field,value,collector,date).
+ * <p/>
+ * Several series are encoded in parallel, each into a sequence of byte chunks. The chunks are written in the order of the series
+ * as soon as they are encoded, so the output does not depend on the number of threads. At most two series per thread are encoded
+ * ahead of the writer and each of them buffers at most MAX_PENDING_CHUNKS chunks, an encoder waits for the writer otherwise.
+ * Lines are encoded into a reusable buffer per thread, the constant parts of the lines of a series and the formatted dates are
+ * encoded only once.
+ * <p/>
+ * The line and byte limits apply to the uncompressed csv content: an export with exactly maxLines lines and maxBytes bytes succeeds.
+ * The limits are checked per chunk, so the output ends with the last complete chunk within the limits if an export fails.
+ */
+public class CsvResultExporter {
+
+    /**
+     * Config key for the number of threads encoding series, defaults to the number of processors
+     */
+    public static final String THREADS_KEY = "csvExportThreads";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_CHUNKS = 4;
+    private static final int VALUE_BUFFER_SIZE = 1024;
+    // longest Double.toString plus the longest int
+    private static final int MAX_NUMBER_LENGTH = 48;
+
+    private final DateTimeFormatter dateFormatter;
+    private final int threads;
+    private final ConcurrentHashMap<Long, byte[]> dates = new ConcurrentHashMap<Long, byte[]>();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+    private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private long maxLines = Long.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private boolean gzip;
+    private long lines;
+    private long bytes;
+
+    public CsvResultExporter(DateTimeFormatter dateFormatter, int threads) {
+        this.dateFormatter = dateFormatter;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setMaxLines(long maxLines) {
+        this.maxLines = maxLines;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param gzip true if files written by export(List, File) are gzip compressed
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * @return the number of lines written by the last export
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the number of (uncompressed) bytes written by the last export
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void export(List<Series> series, File file) throws Exception {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE);
+        if (gzip) {
+            out = new GZIPOutputStream(out, CHUNK_SIZE);
+        }
+        try {
+            export(series, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the lines of all series to the stream. Fails with an IllegalStateException if a limit is exceeded, the chunk
+     * exceeding the limit is not written.
+     */
+    public void export(List<Series> series, OutputStream out) throws Exception {
+        lines = 0;
+        bytes = 0;
+        aborted.set(false);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedList<Chunks> pending = new LinkedList<Chunks>();
+            int next = 0;
+            while (next < series.size() || !pending.isEmpty()) {
+                while (next < series.size() && pending.size() < threads * 2) {
+                    final Series current = series.get(next++);
+                    final Chunks chunks = new Chunks();
+                    chunks.encoding = executor.submit(new Callable<Object>() {
+                        public Object call() throws Exception {
+                            encode(current, chunks);
+                            return null;
+                        }
+                    });
+                    pending.add(chunks);
+                }
+                write(pending.removeFirst(), out);
+            }
+        } finally {
+            aborted.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the chunks of a series while it is encoded.
+     */
+    private void write(Chunks chunks, OutputStream out) throws Exception {
+        while (true) {
+            Chunk chunk = chunks.queue.poll(100, TimeUnit.MILLISECONDS);
+            if (chunk == null) {
+                if (!chunks.encoding.isDone()) {
+                    continue;
+                }
+                // all chunks are queued once the encoding is done
+                chunk = chunks.queue.poll();
+                if (chunk == null) {
+                    checkEncoding(chunks.encoding);
+                    return;
+                }
+            }
+            if (maxLines - lines < chunk.lines) {
+                throw new IllegalStateException("CSV exceeds allowed number of lines (" + maxLines + ")");
+            }
+            if (maxBytes - bytes < chunk.bytes.length) {
+                throw new IllegalStateException("CSV exceeds allowed file size (" + maxBytes + ")");
+            }
+            out.write(chunk.bytes);
+            lines += chunk.lines;
+            bytes += chunk.bytes.length;
+        }
+    }
+
+    private static void checkEncoding(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private void encode(Series series, Chunks result) throws Exception {
+        Encoder encoder = encoders.get();
+        byte[] prefix = ("," + series.period + "," + series.path + "," + series.field + ",").getBytes(UTF8);
+        byte[] suffix = ("," + series.collector + ",").getBytes(UTF8);
+        encoder.start(result, prefix.length + suffix.length + MAX_NUMBER_LENGTH + 64);
+
+        IterationFileAccessor ifa = new IterationFileAccessor(series.file);
+        try {
+            while (!aborted.get()) {
+                int count = ifa.readSingleValues(encoder.values, encoder.dates, encoder.iterations);
+                if (count == 0) {
+                    break;
+                }
+                if (count < 0) {
+                    // a record with more single values than the buffers hold
+                    encoder.growValues(-count);
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    encoder.writeLine(encoder.iterations[i], prefix, encoder.values[i], suffix, getDate(encoder.dates[i]));
+                }
+            }
+        } finally {
+            ifa.close();
+        }
+        encoder.finish();
+    }
+
+    private byte[] getDate(long date) {
+        byte[] result = dates.get(date);
+        if (result == null) {
+            result = (dateFormatter.print(date) + "\n").getBytes(UTF8);
+            dates.put(date, result);
+        }
+        return result;
+    }
+
+    /**
+     * A result file and the names written for each of its single values.
+     */
+    public static class Series {
+        final File file;
+        final int period;
+        final String path;
+        final String field;
+        final String collector;
+
+        public Series(File file, int period, String path, String field, String collector) {
+            this.file = file;
+            this.period = period;
+            this.path = path;
+            this.field = field;
+            this.collector = collector;
+        }
+    }
+
+    /**
+     * The chunks of a series passed from its encoding thread to the writer.
+     */
+    private static class Chunks {
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(MAX_PENDING_CHUNKS);
+        Future<?> encoding;
+    }
+
+    private static class Chunk {
+        final byte[] bytes;
+        final int lines;
+
+        Chunk(byte[] bytes, int lines) {
+            this.bytes = bytes;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Reusable buffers of an encoding thread.
+     */
+    private static class Encoder {
+        double[] values = new double[VALUE_BUFFER_SIZE];
+        long[] dates = new long[VALUE_BUFFER_SIZE];
+        int[] iterations = new int[VALUE_BUFFER_SIZE];
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int size;
+        int lines;
+        int maxLineLength;
+        Chunks target;
+
+        void start(Chunks target, int maxLineLength) {
+            this.target = target;
+            this.maxLineLength = maxLineLength;
+            if (buffer.length < maxLineLength) {
+                buffer = new byte[maxLineLength];
+            }
+            size = 0;
+            lines = 0;
+        }
+
+        void growValues(int capacity) {
+            values = new double[capacity];
+            dates = new long[capacity];
+            iterations = new int[capacity];
+        }
+
+        void writeLine(int iteration, byte[] prefix, double value, byte[] suffix, byte[] date) throws InterruptedException {
+            if (buffer.length - size < maxLineLength + date.length) {
+                flush();
+                if (buffer.length < maxLineLength + date.length) {
+                    buffer = new byte[maxLineLength + date.length];
+                }
+            }
+            writeLong(iteration);
+            write(prefix);
+            writeDouble(value);
+            write(suffix);
+            write(date);
+            lines++;
+        }
+
+        void finish() throws InterruptedException {
+            flush();
+            target = null;
+        }
+
+        /**
+         * Passes the encoded lines to the writer, waits while MAX_PENDING_CHUNKS chunks of the series are not written yet.
+         */
+        private void flush() throws InterruptedException {
+            if (size > 0) {
+                byte[] chunk = new byte[size];
+                System.arraycopy(buffer, 0, chunk, 0, size);
+                target.queue.put(new Chunk(chunk, lines));
+                size = 0;
+                lines = 0;
+            }
+        }
+
+        private void write(byte[] bytes) {
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        /**
+         * Same output as Double.toString(value), integral values below 10^7 are written without creating a string.
+         */
+        private void writeDouble(double value) {
+            if (value == (long) value && Math.abs(value) < 1e7 && Double.doubleToRawLongBits(value) != Long.MIN_VALUE) {
+                writeLong((long) value);
+                buffer[size++] = '.';
+                buffer[size++] = '0';
+                return;
+            }
+            String text = Double.toString(value);
+            for (int i = 0; i < text.length(); i++) {
+                buffer[size++] = (byte) text.charAt(i);
+            }
+        }
+
+        private void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                String text = Long.toString(value);
+                for (int i = 0; i < text.length(); i++) {
+                    buffer[size++] = (byte) text.charAt(i);
+                }
+                return;
+            }
+            if (value < 0) {
+                buffer[size++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value; v >= 10; v /= 10) {
+                digits++;
+            }
+            for (int i = size + digits - 1; i >= size; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            size += digits;
+        }
+    }
+}
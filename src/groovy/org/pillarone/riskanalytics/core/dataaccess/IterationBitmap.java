@@ -0,0 +1,357 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compressed set of iteration numbers. Iterations are grouped in blocks of 65536 by their upper 16 bits, a block is stored as a
+ * sorted array of its lower 16 bits while it has at most ARRAY_LIMIT members and as a plain bitset (8 KB) otherwise. Selective
+ * criteria produce a few bytes per matching iteration, the set of all iterations of a large run needs one bit per iteration.
+ * <p/>
+ * Bitmaps are immutable, the logical operations return new bitmaps. Use a Builder to create a bitmap.
+ */
+public class IterationBitmap {
+
+    static final int ARRAY_LIMIT = 4096;
+    private static final int WORDS = 1024;
+
+    public static final IterationBitmap EMPTY = new IterationBitmap(new int[0], new Object[0]);
+
+    // upper 16 bits of the iterations, ascending
+    private final int[] keys;
+    // char[] (sorted lower bits) or long[WORDS]
+    private final Object[] blocks;
+
+    private IterationBitmap(int[] keys, Object[] blocks) {
+        this.keys = keys;
+        this.blocks = blocks;
+    }
+
+    public static IterationBitmap of(Collection<Integer> iterations) {
+        Builder builder = new Builder();
+        for (Integer iteration : iterations) {
+            builder.add(iteration);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the bitmap of all iterations of a run, iterations are counted from 1 to iterationCount
+     */
+    public static IterationBitmap range(int iterationCount) {
+        Builder builder = new Builder();
+        for (int iteration = 1; iteration <= iterationCount; iteration++) {
+            builder.add(iteration);
+        }
+        return builder.build();
+    }
+
+    public boolean contains(int iteration) {
+        int index = Arrays.binarySearch(keys, iteration >>> 16);
+        if (index < 0) {
+            return false;
+        }
+        Object block = blocks[index];
+        char low = (char) iteration;
+        if (block instanceof char[]) {
+            return Arrays.binarySearch((char[]) block, low) >= 0;
+        }
+        return (((long[]) block)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    public int getCardinality() {
+        int result = 0;
+        for (Object block : blocks) {
+            result += cardinality(block);
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * @return the iterations in ascending order
+     */
+    public int[] toArray() {
+        int[] result = new int[getCardinality()];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            if (blocks[i] instanceof char[]) {
+                for (char low : (char[]) blocks[i]) {
+                    result[count++] = high | low;
+                }
+            } else {
+                long[] words = (long[]) blocks[i];
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        result[count++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    public List<Integer> toList() {
+        int[] iterations = toArray();
+        List<Integer> result = new ArrayList<Integer>(iterations.length);
+        for (int iteration : iterations) {
+            result.add(iteration);
+        }
+        return result;
+    }
+
+    public IterationBitmap and(IterationBitmap other) {
+        Combiner result = new Combiner(Math.min(keys.length, other.keys.length));
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                if (blocks[i] instanceof char[] && other.blocks[j] instanceof char[]) {
+                    result.add(keys[i], intersect((char[]) blocks[i], (char[]) other.blocks[j]));
+                } else {
+                    long[] words = toWords(blocks[i]);
+                    long[] otherWords = toWords(other.blocks[j]);
+                    for (int w = 0; w < WORDS; w++) {
+                        words[w] &= otherWords[w];
+                    }
+                    result.add(keys[i], compact(words));
+                }
+                i++;
+                j++;
+            }
+        }
+        return result.build();
+    }
+
+    public IterationBitmap or(IterationBitmap other) {
+        Combiner result = new Combiner(keys.length + other.keys.length);
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                result.add(keys[i], blocks[i]);
+                i++;
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                result.add(other.keys[j], other.blocks[j]);
+                j++;
+            } else {
+                long[] words = toWords(blocks[i]);
+                long[] otherWords = toWords(other.blocks[j]);
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] |= otherWords[w];
+                }
+                result.add(keys[i], compact(words));
+                i++;
+                j++;
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * @return the iterations of this bitmap which are not contained in the other one
+     */
+    public IterationBitmap andNot(IterationBitmap other) {
+        Combiner result = new Combiner(keys.length);
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < other.keys.length && other.keys[j] < keys[i]) {
+                j++;
+            }
+            if (j == other.keys.length || other.keys[j] != keys[i]) {
+                result.add(keys[i], blocks[i]);
+            } else {
+                long[] words = toWords(blocks[i]);
+                long[] otherWords = toWords(other.blocks[j]);
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] &= ~otherWords[w];
+                }
+                result.add(keys[i], compact(words));
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * @return all iterations from 1 to iterationCount which are not contained in this bitmap
+     */
+    public IterationBitmap not(int iterationCount) {
+        return range(iterationCount).andNot(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IterationBitmap && Arrays.equals(toArray(), ((IterationBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "IterationBitmap[" + getCardinality() + " iterations]";
+    }
+
+    private static int cardinality(Object block) {
+        if (block instanceof char[]) {
+            return ((char[]) block).length;
+        }
+        int result = 0;
+        for (long word : (long[]) block) {
+            result += Long.bitCount(word);
+        }
+        return result;
+    }
+
+    /**
+     * @return a modifiable bitset copy of the block
+     */
+    private static long[] toWords(Object block) {
+        if (block instanceof long[]) {
+            return ((long[]) block).clone();
+        }
+        long[] words = new long[WORDS];
+        for (char low : (char[]) block) {
+            words[low >>> 6] |= 1L << low;
+        }
+        return words;
+    }
+
+    /**
+     * @return the block in its smaller representation or null if it is empty
+     */
+    private static Object compact(long[] words) {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        if (cardinality == 0) {
+            return null;
+        }
+        if (cardinality > ARRAY_LIMIT) {
+            return words;
+        }
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static char[] intersect(char[] a, char[] b) {
+        char[] result = new char[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return count == 0 ? null : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Collects the non empty blocks of an operation result in ascending key order.
+     */
+    private static class Combiner {
+        final int[] keys;
+        final Object[] blocks;
+        int size;
+
+        Combiner(int capacity) {
+            keys = new int[capacity];
+            blocks = new Object[capacity];
+        }
+
+        void add(int key, Object block) {
+            if (block != null) {
+                keys[size] = key;
+                blocks[size++] = block;
+            }
+        }
+
+        IterationBitmap build() {
+            return new IterationBitmap(Arrays.copyOf(keys, size), Arrays.copyOf(blocks, size));
+        }
+    }
+
+    /**
+     * Collects iterations in any order, adding an iteration twice has no effect.
+     */
+    public static class Builder {
+        private int[] keys = new int[4];
+        private long[][] bitsets = new long[4][];
+        private int size;
+        private int lastKey = -1;
+        private long[] lastBitset;
+
+        public Builder add(int iteration) {
+            if (iteration < 0) {
+                throw new IllegalArgumentException("Negative iteration " + iteration);
+            }
+            int key = iteration >>> 16;
+            if (key != lastKey) {
+                lastBitset = getBitset(key);
+                lastKey = key;
+            }
+            char low = (char) iteration;
+            lastBitset[low >>> 6] |= 1L << low;
+            return this;
+        }
+
+        private long[] getBitset(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            if (index >= 0) {
+                return bitsets[index];
+            }
+            index = -(index + 1);
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                bitsets = Arrays.copyOf(bitsets, size * 2);
+            }
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(bitsets, index, bitsets, index + 1, size - index);
+            keys[index] = key;
+            bitsets[index] = new long[WORDS];
+            size++;
+            return bitsets[index];
+        }
+
+        /**
+         * The builder must not be used afterwards, the bitmap shares its dense blocks.
+         */
+        public IterationBitmap build() {
+            Combiner result = new Combiner(size);
+            for (int i = 0; i < size; i++) {
+                result.add(keys[i], compact(bitsets[i]));
+            }
+            return result.build();
+        }
+    }
+}
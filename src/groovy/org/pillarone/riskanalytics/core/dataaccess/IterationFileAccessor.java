@@ -5,127 +5,394 @@
 import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
+/**
+ * Reads the iteration records of a result file (int iteration, int count, count * (double value, long date)).
+ * Files larger than MAPPING_THRESHOLD are memory mapped, smaller ones are read with a single channel read.
+ * Records are decoded directly from the buffer, the single values of a record are only materialized
+ * if getSingleValues() is called. A summary footer (see ResultFileSummary) is not part of the records.
+ * If the run uses the packed layout (see ResultContainer) the series is read from the segment file of the run.
+ * Encoded files (see ResultSeriesCodec) are decoded into a heap buffer when opened.
+ */
 public class IterationFileAccessor {
     private static Log LOG = LogFactory.getLog( IterationFileAccessor.class );
-    protected DataInputStream dis;
+
+    /**
+     * Below this size a plain read is cheaper than setting up a mapping
+     */
+    public static final int MAPPING_THRESHOLD = 64 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int VALUE_SIZE = 16;
+
+    protected ByteBuffer buffer;
     protected int iteration;
+    protected int valueCount;
+    protected int valuePosition;
     protected List<DateTimeValuePair> value;
+    protected ResultFileSummary summary;
+    protected IterationIndex index;
+    private File file;
+    private boolean packed;
 
-    // TODO If this becomes perf bottleneck try this approach from Bruce Eckel:
-    // http://www.java2s.com/Code/Java/File-Input-Output/Mappinganentirefileintomemoryforreading.htm
-    //
     public IterationFileAccessor(File f) throws Exception {
+        file = f;
         if (f.exists()) {
-            FileInputStream fis = null;
-            BufferedInputStream bs = null;
-            try{
-                fis = new FileInputStream(f);
-                bs = new BufferedInputStream(fis);
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(); // Doesn't need to be closed after use
-
-                byte[] b = new byte[8048];
-                int len = -1;
-                int count = 0;
-//                long t = System.currentTimeMillis();
-                while ((len = bs.read(b)) != -1) {
-                    bos.write(b, 0, len);
-                    count++;
-                }
-                if (count == 0) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(f, "r");
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                if (size == 0) {
+                    // the last chunk may still be in transit (shared file systems)
                     Thread.sleep(2000);
-                    while ((len = bs.read(b)) != -1) {
-                        bos.write(b, 0, len);
-                        count++;
-                    }
+                    size = channel.size();
                 }
-                ByteArrayInputStream bis = new ByteArrayInputStream(bos.toByteArray());
-
-                dis = new DataInputStream(bis);
-//                LOG.debug("Timed " + (System.currentTimeMillis() - t) + "ms: Reading IFA: " + f.getAbsolutePath() );
-            }
-            finally{ // joy of java lacking destructors
-                if(bs != null){
-                    bs.close();
+                buffer = readBuffer(channel, size);
+                int footerSize = ResultFileSummary.getFooterSize(buffer);
+                if (footerSize > 0) {
+                    summary = ResultFileSummary.read(buffer);
+                    buffer.limit(buffer.limit() - footerSize);
                 }
-                if(fis != null){
-                    fis.close();
+            }
+            finally{
+                if (file != null) {
+                    file.close(); // a mapping stays valid after the channel is closed
                 }
             }
-
+        } else {
+            ResultContainer container = ResultContainer.forResultFile(f);
+            if (container != null && container.getEntry(f.getName()) != null) {
+                buffer = container.read(f.getName());
+                summary = container.getEntry(f.getName()).getSummary();
+                packed = true;
+            }
         }
 //        else {  Some dumb test in ResultServiceTests.groovy depends on this not throwing
 //            throw new IllegalStateException("File not found: " + f.getAbsolutePath());
 //        }
+        if (buffer != null && ResultSeriesCodec.isEncoded(buffer)) {
+            buffer = ResultSeriesCodec.decodeSeries(buffer);
+        }
+    }
 
+    private static ByteBuffer readBuffer(FileChannel channel, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Result file too large: " + size + " bytes");
+        }
+        if (size >= MAPPING_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer result = ByteBuffer.allocate((int) size);
+        while (result.hasRemaining() && channel.read(result) != -1) {
+        }
+        result.flip();
+        return result;
     }
 
+    /**
+     * Drops the reference to the buffer, a mapping is released when the buffer is garbage collected.
+     * The accessor must not be used afterwards.
+     */
     public void close(){
-        if(dis != null){
-            try{
-                dis.close();
-            } catch( IOException e){
-                LOG.error( "IOException trying to close dis: ", e );
-            }
-        }
+        buffer = null;
     }
 
     public boolean fetchNext() throws Exception {
-        if (dis != null && dis.available() > 4) {
-            iteration = dis.readInt();
-            int len = dis.readInt();
-            value = new ArrayList<DateTimeValuePair>(len);
-            for (int i = 0; i < len; i++) {
-                final double doubleValue = dis.readDouble();
-                final long dateTimeLong = dis.readLong();
-                DateTimeValuePair dateTimeValuePair = new DateTimeValuePair( dateTimeLong , doubleValue);
-                value.add(dateTimeValuePair);
-            }
+        if (buffer != null && buffer.remaining() > 4) {
+            iteration = buffer.getInt();
+            valueCount = buffer.getInt();
+            valuePosition = buffer.position();
+            buffer.position(valuePosition + valueCount * VALUE_SIZE);
+            value = null;
             return true;
         }
         return false;
     }
 
+    /**
+     * @return the summary written by the ResultWriter or null if the file has none (files of older versions or still being written)
+     */
+    public ResultFileSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * @return the index of this file, built (and stored) on first access if necessary
+     */
+    public IterationIndex getIndex() {
+        if (index == null && buffer != null) {
+            // no sidecar files for packed runs, the records of a series are already read completely
+            index = packed ? IterationIndex.build(buffer) : IterationIndex.getIndex(file, buffer);
+        }
+        return index;
+    }
+
+    /**
+     * Moves to the first record of the iteration. Only the index groups containing the iteration are scanned.
+     *
+     * @return false if there is no record for this iteration
+     */
+    public boolean fetchIteration(int iteration) {
+        if (buffer == null) {
+            return false;
+        }
+        IterationIndex index = getIndex();
+        for (int entry = 0; entry < index.getEntryCount(); entry++) {
+            if (index.contains(entry, iteration)) {
+                int position = (int) index.getOffset(entry);
+                int end = (int) index.getEndOffset(entry);
+                while (position < end) {
+                    position = decodeRecord(position);
+                    if (this.iteration == iteration) {
+                        buffer.position(position);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private int decodeRecord(int position) {
+        iteration = buffer.getInt(position);
+        valueCount = buffer.getInt(position + 4);
+        valuePosition = position + RECORD_HEADER_SIZE;
+        value = null;
+        return valuePosition + valueCount * VALUE_SIZE;
+    }
+
     public int getIteration() {
         return iteration;
     }
 
     public double getValue() {
         double result = 0;
-        for (DateTimeValuePair d : value) {
-            result += d.aDouble;
+        int position = valuePosition;
+        for (int i = 0; i < valueCount; i++) {
+            result += buffer.getDouble(position);
+            position += VALUE_SIZE;
         }
         return result;
     }
 
     public List<DateTimeValuePair> getSingleValues() {
+        if (value == null) {
+            value = new ArrayList<DateTimeValuePair>(valueCount);
+            int position = valuePosition;
+            for (int i = 0; i < valueCount; i++) {
+                final double doubleValue = buffer.getDouble(position);
+                final long dateTimeLong = buffer.getLong(position + 8);
+                value.add(new DateTimeValuePair(dateTimeLong, doubleValue));
+                position += VALUE_SIZE;
+            }
+        }
         return value;
     }
 
-    public static List getValuesSorted(Long runId, int period, long pathId, long collectorId, long fieldId) throws Exception {
+    /**
+     * @return the number of records between the current position and the end of the file. Only the record headers are read.
+     */
+    public int countRemainingRecords() {
+        int count = 0;
+        if (buffer != null) {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            while (limit - position > 4) {
+                position += RECORD_HEADER_SIZE + buffer.getInt(position + 4) * VALUE_SIZE;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of single values between the current position and the end of the file. Only the record headers are read.
+     */
+    public int countRemainingSingleValues() {
+        int count = 0;
+        if (buffer != null) {
+            int position = buffer.position();
+            int limit = buffer.limit();
+            while (limit - position > 4) {
+                int len = buffer.getInt(position + 4);
+                position += RECORD_HEADER_SIZE + len * VALUE_SIZE;
+                count += len;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the following records into the supplied buffers without creating any objects.
+     *
+     * @param values     receives the aggregated (summed) value of each record
+     * @param iterations receives the iteration of each record, may be null
+     * @return the number of records read. Stops if the end of the file or the end of the buffers is reached, a further call continues
+     *         with the next record.
+     */
+    public int readValues(double[] values, int[] iterations) {
+        if (buffer == null) {
+            return 0;
+        }
+        int count = 0;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        while (count < values.length && limit - position > 4) {
+            iteration = buffer.getInt(position);
+            valueCount = buffer.getInt(position + 4);
+            valuePosition = position + RECORD_HEADER_SIZE;
+            position = valuePosition + valueCount * VALUE_SIZE;
+            values[count] = getValue();
+            if (iterations != null) {
+                iterations[count] = iteration;
+            }
+            count++;
+        }
+        buffer.position(position);
+        value = null;
+        return count;
+    }
+
+    /**
+     * Decodes the single values of the following records into the supplied buffers without creating any objects.
+     * A record is only read if all its single values fit into the buffers.
+     *
+     * @param singleValues receives the single values
+     * @param dates        receives the date (millis) of each single value, may be null
+     * @param iterations   receives the iteration of each single value, may be null
+     * @return the number of single values read, 0 at the end of the file. If the next record has more single values than the
+     *         buffers hold, nothing is read and the negated number of its single values is returned, so the caller can grow
+     *         the buffers and call again.
+     */
+    public int readSingleValues(double[] singleValues, long[] dates, int[] iterations) {
+        if (buffer == null) {
+            return 0;
+        }
+        int count = 0;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        while (limit - position > 4) {
+            int len = buffer.getInt(position + 4);
+            if (count + len > singleValues.length) {
+                if (count == 0) {
+                    return -len;
+                }
+                break;
+            }
+            iteration = buffer.getInt(position);
+            valueCount = len;
+            valuePosition = position + RECORD_HEADER_SIZE;
+            position = valuePosition;
+            for (int i = 0; i < len; i++) {
+                singleValues[count] = buffer.getDouble(position);
+                if (dates != null) {
+                    dates[count] = buffer.getLong(position + 8);
+                }
+                if (iterations != null) {
+                    iterations[count] = iteration;
+                }
+                position += VALUE_SIZE;
+                count++;
+            }
+        }
+        buffer.position(position);
+        value = null;
+        return count;
+    }
+
+    /**
+     * @return the aggregated values of all records in ascending order
+     */
+    public static double[] getValuesSorted(Long runId, int period, long pathId, long collectorId, long fieldId) throws Exception {
         File iterationFile = new File(GridHelper.getResultPathLocation(runId, pathId, fieldId, collectorId, period));
         IterationFileAccessor ifa = new IterationFileAccessor(iterationFile);
-        List<Double> values = new ArrayList<Double>();
-        while (ifa.fetchNext()) {
-            values.add(ifa.getValue());
+        double[] values;
+        try {
+            values = new double[ifa.countRemainingRecords()];
+            ifa.readValues(values, null);
+        } finally {
+            ifa.close();
         }
-        Collections.sort(values);
+        Arrays.sort(values);
         return values;
     }
 
+    /**
+     * @param minLength the values are filled up with zeroes to this length (iterations without a record), unless there is no record
+     * @return the values in the order of the file
+     */
+    public static double[] getValues(Long runId, int period, long pathId, long collectorId, long fieldId, int minLength) throws Exception {
+        File iterationFile = new File(GridHelper.getResultPathLocation(runId, pathId, fieldId, collectorId, period));
+        IterationFileAccessor ifa = new IterationFileAccessor(iterationFile);
+        try {
+            int count = ifa.countRemainingRecords();
+            double[] values = new double[count == 0 ? 0 : Math.max(count, minLength)];
+            ifa.readValues(values, null);
+            return values;
+        } finally {
+            ifa.close();
+        }
+    }
+
     public static Map<Integer, Double> getIterationConstrainedValues(long runId, int period, long path, long field, long collector,
                                                                      Collection<Integer> iterations) throws Exception {
+        return getIterationConstrainedValues(runId, period, path, field, collector, IterationBitmap.of(iterations));
+    }
+
+    public static Map<Integer, Double> getIterationConstrainedValues(long runId, int period, long path, long field, long collector,
+                                                                     IterationBitmap iterations) throws Exception {
         File iterationFile = new File(GridHelper.getResultPathLocation(runId, path, field, collector, period));
-        HashMap<Integer, Double> values = new HashMap<Integer, Double>(10000);
+        HashMap<Integer, Double> values = new HashMap<Integer, Double>(Math.max(16, iterations.getCardinality() * 2));
         IterationFileAccessor ifa = new IterationFileAccessor(iterationFile);
+        try {
+            ifa.readIterationConstrainedValues(iterations, values);
+        } finally {
+            ifa.close();
+        }
+        return values;
+    }
+
+    public void readIterationConstrainedValues(Collection<Integer> iterations, Map<Integer, Double> values) {
+        readIterationConstrainedValues(IterationBitmap.of(iterations), values);
+    }
 
-        while (ifa.fetchNext()) {
-            int iteration = ifa.getIteration();
-            if (iterations.contains(iteration)) {
-                values.put(iteration, ifa.getValue());
+    /**
+     * Reads the values of the requested iterations, only the index groups which may contain one of them are scanned.
+     * If an iteration has several records, the last one wins.
+     */
+    public void readIterationConstrainedValues(IterationBitmap iterations, Map<Integer, Double> values) {
+        if (buffer == null || iterations.isEmpty()) {
+            return;
+        }
+        int[] sortedIterations = iterations.toArray();
+        IterationIndex index = getIndex();
+        for (int entry = 0; entry < index.getEntryCount(); entry++) {
+            if (index.containsAny(entry, sortedIterations)) {
+                int position = (int) index.getOffset(entry);
+                int end = (int) index.getEndOffset(entry);
+                while (position < end) {
+                    position = decodeRecord(position);
+                    if (iterations.contains(iteration)) {
+                        values.put(iteration, getValue());
+                    }
+                }
             }
         }
-        return values;
+    }
+
+    /**
+     * @return the value of the first record of the iteration or null if there is none
+     */
+    public static Double getIterationValue(long runId, int period, long path, long field, long collector, int iteration) throws Exception {
+        IterationFileAccessor ifa = new IterationFileAccessor(new File(GridHelper.getResultPathLocation(runId, path, field, collector, period)));
+        try {
+            return ifa.fetchIteration(iteration) ? ifa.getValue() : null;
+        } finally {
+            ifa.close();
+        }
     }
 }
@@ -0,0 +1,262 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Selects the iterations of a run by conditions on the aggregated values of result series, for example
+ * <pre>
+ * IterationFilter.and(
+ *     IterationFilter.criterion(0, grossPathId, ultimateId, collectorId, IterationFilter.Operator.GT, 1e6),
+ *     IterationFilter.not(IterationFilter.criterion(0, cededPathId, ultimateId, collectorId, IterationFilter.Operator.LT, 1e5)))
+ * </pre>
+ * When evaluated, every result series referenced by a criterion is read once. The values are compared in blocks and the matching
+ * iterations of each criterion are collected in an IterationBitmap, the bitmaps are then combined according to the filter.
+ * Iterations are expected to occur only once in a result file.
+ */
+public abstract class IterationFilter {
+
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    public enum Operator {
+        LT("<") {
+            void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result) {
+                for (int i = 0; i < count; i++) {
+                    if (values[i] < conditionValue) {
+                        result.add(iterations[i]);
+                    }
+                }
+            }
+        },
+        LE("<=") {
+            void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result) {
+                for (int i = 0; i < count; i++) {
+                    if (values[i] <= conditionValue) {
+                        result.add(iterations[i]);
+                    }
+                }
+            }
+        },
+        EQ("=") {
+            void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result) {
+                for (int i = 0; i < count; i++) {
+                    if (values[i] == conditionValue) {
+                        result.add(iterations[i]);
+                    }
+                }
+            }
+        },
+        GE(">=") {
+            void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result) {
+                for (int i = 0; i < count; i++) {
+                    if (values[i] >= conditionValue) {
+                        result.add(iterations[i]);
+                    }
+                }
+            }
+        },
+        GT(">") {
+            void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result) {
+                for (int i = 0; i < count; i++) {
+                    if (values[i] > conditionValue) {
+                        result.add(iterations[i]);
+                    }
+                }
+            }
+        };
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * Adds the iterations of the first count values which fulfill the condition to the result.
+         */
+        abstract void select(double[] values, int[] iterations, int count, double conditionValue, IterationBitmap.Builder result);
+
+        /**
+         * @return the operator or null if the symbol is unknown
+         */
+        public static Operator forSymbol(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static IterationFilter criterion(int period, long pathId, long fieldId, long collectorId, Operator operator, double value) {
+        return new Criterion(period, pathId, fieldId, collectorId, operator, value);
+    }
+
+    public static IterationFilter and(IterationFilter... filters) {
+        return new Junction(true, filters);
+    }
+
+    public static IterationFilter or(IterationFilter... filters) {
+        return new Junction(false, filters);
+    }
+
+    /**
+     * @return a filter for all iterations of the run (1 to the iteration count) which are not selected by the given filter
+     */
+    public static IterationFilter not(IterationFilter filter) {
+        return new Not(filter);
+    }
+
+    /**
+     * @param iterationCount number of iterations of the run, needed to evaluate not()
+     */
+    public IterationBitmap evaluate(long runId, int iterationCount) throws Exception {
+        List<Criterion> criteria = new ArrayList<Criterion>();
+        collectCriteria(criteria);
+        Map<String, List<Criterion>> criteriaPerSeries = new LinkedHashMap<String, List<Criterion>>();
+        for (Criterion criterion : criteria) {
+            String fileName = GridHelper.getResultPathLocation(runId, criterion.pathId, criterion.fieldId, criterion.collectorId, criterion.period);
+            List<Criterion> seriesCriteria = criteriaPerSeries.get(fileName);
+            if (seriesCriteria == null) {
+                seriesCriteria = new ArrayList<Criterion>();
+                criteriaPerSeries.put(fileName, seriesCriteria);
+            }
+            seriesCriteria.add(criterion);
+        }
+        Map<Criterion, IterationBitmap> results = new IdentityHashMap<Criterion, IterationBitmap>();
+        for (Map.Entry<String, List<Criterion>> entry : criteriaPerSeries.entrySet()) {
+            select(new File(entry.getKey()), entry.getValue(), results);
+        }
+        return combine(results, iterationCount);
+    }
+
+    private static void select(File file, List<Criterion> criteria, Map<Criterion, IterationBitmap> results) throws Exception {
+        IterationBitmap.Builder[] builders = new IterationBitmap.Builder[criteria.size()];
+        for (int i = 0; i < builders.length; i++) {
+            builders[i] = new IterationBitmap.Builder();
+        }
+        double[] values = new double[SCAN_BUFFER_SIZE];
+        int[] iterations = new int[SCAN_BUFFER_SIZE];
+        IterationFileAccessor ifa = new IterationFileAccessor(file);
+        try {
+            int count;
+            while ((count = ifa.readValues(values, iterations)) > 0) {
+                for (int i = 0; i < builders.length; i++) {
+                    Criterion criterion = criteria.get(i);
+                    criterion.operator.select(values, iterations, count, criterion.value, builders[i]);
+                }
+            }
+        } finally {
+            ifa.close();
+        }
+        for (int i = 0; i < builders.length; i++) {
+            results.put(criteria.get(i), builders[i].build());
+        }
+    }
+
+    abstract void collectCriteria(List<Criterion> criteria);
+
+    abstract IterationBitmap combine(Map<Criterion, IterationBitmap> results, int iterationCount);
+
+    static class Criterion extends IterationFilter {
+        final int period;
+        final long pathId;
+        final long fieldId;
+        final long collectorId;
+        final Operator operator;
+        final double value;
+
+        Criterion(int period, long pathId, long fieldId, long collectorId, Operator operator, double value) {
+            this.period = period;
+            this.pathId = pathId;
+            this.fieldId = fieldId;
+            this.collectorId = collectorId;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        void collectCriteria(List<Criterion> criteria) {
+            criteria.add(this);
+        }
+
+        IterationBitmap combine(Map<Criterion, IterationBitmap> results, int iterationCount) {
+            return results.get(this);
+        }
+
+        @Override
+        public String toString() {
+            return pathId + "_" + period + "_" + fieldId + "_" + collectorId + " " + operator.getSymbol() + " " + value;
+        }
+    }
+
+    static class Junction extends IterationFilter {
+        final boolean and;
+        final IterationFilter[] filters;
+
+        Junction(boolean and, IterationFilter[] filters) {
+            if (filters.length == 0) {
+                throw new IllegalArgumentException("No filters");
+            }
+            this.and = and;
+            this.filters = filters;
+        }
+
+        void collectCriteria(List<Criterion> criteria) {
+            for (IterationFilter filter : filters) {
+                filter.collectCriteria(criteria);
+            }
+        }
+
+        IterationBitmap combine(Map<Criterion, IterationBitmap> results, int iterationCount) {
+            IterationBitmap result = filters[0].combine(results, iterationCount);
+            for (int i = 1; i < filters.length; i++) {
+                if (and && result.isEmpty()) {
+                    break;
+                }
+                IterationBitmap other = filters[i].combine(results, iterationCount);
+                result = and ? result.and(other) : result.or(other);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("(");
+            for (int i = 0; i < filters.length; i++) {
+                if (i > 0) {
+                    result.append(and ? " and " : " or ");
+                }
+                result.append(filters[i]);
+            }
+            return result.append(")").toString();
+        }
+    }
+
+    static class Not extends IterationFilter {
+        final IterationFilter filter;
+
+        Not(IterationFilter filter) {
+            this.filter = filter;
+        }
+
+        void collectCriteria(List<Criterion> criteria) {
+            filter.collectCriteria(criteria);
+        }
+
+        IterationBitmap combine(Map<Criterion, IterationBitmap> results, int iterationCount) {
+            return filter.combine(results, iterationCount).not(iterationCount);
+        }
+
+        @Override
+        public String toString() {
+            return "not " + filter;
+        }
+    }
+}
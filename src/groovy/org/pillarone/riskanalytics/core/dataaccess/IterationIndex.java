@@ -0,0 +1,221 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sparse index of a result file. Every INTERVAL records an entry with the byte offset of the group and the smallest and largest
+ * iteration in the group is stored. Records are appended in the order they arrive from the grid, so iterations are not sorted
+ * within a file, but the iterations of a chunk are contiguous and the iteration ranges of the groups are therefore narrow.
+ * <p/>
+ * The index is kept as sidecar file in the INDEX_DIRECTORY of the simulation run. It is written by the ResultWriter or built on
+ * the first lookup. It is only stored for files with more than one group, smaller files are scanned.
+ * <pre>
+ * int version, int interval, long dataLength, int entryCount, entryCount * (int minIteration, int maxIteration, long offset)
+ * </pre>
+ */
+public class IterationIndex {
+
+    private static Log LOG = LogFactory.getLog(IterationIndex.class);
+
+    public static final String INDEX_DIRECTORY = "index";
+    public static final String INDEX_FILE_EXTENSION = ".idx";
+    public static final int VERSION = 1;
+    public static final int INTERVAL = 64;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int VALUE_SIZE = 16;
+
+    private int entryCount;
+    private int[] minIterations = new int[16];
+    private int[] maxIterations = new int[16];
+    private long[] offsets = new long[16];
+
+    private int recordsInGroup;
+    private long dataLength;
+
+    /**
+     * Adds a record starting at offset. Records have to be added in file order.
+     */
+    public void addRecord(int iteration, long offset, int valueCount) {
+        if (recordsInGroup == 0) {
+            if (entryCount == offsets.length) {
+                minIterations = Arrays.copyOf(minIterations, entryCount * 2);
+                maxIterations = Arrays.copyOf(maxIterations, entryCount * 2);
+                offsets = Arrays.copyOf(offsets, entryCount * 2);
+            }
+            minIterations[entryCount] = iteration;
+            maxIterations[entryCount] = iteration;
+            offsets[entryCount] = offset;
+            entryCount++;
+        } else {
+            int entry = entryCount - 1;
+            minIterations[entry] = Math.min(minIterations[entry], iteration);
+            maxIterations[entry] = Math.max(maxIterations[entry], iteration);
+        }
+        recordsInGroup = (recordsInGroup + 1) % INTERVAL;
+        dataLength = offset + RECORD_HEADER_SIZE + valueCount * VALUE_SIZE;
+    }
+
+    /**
+     * Adds all records of a chunk as written by the GridOutputStrategy.
+     *
+     * @param offset position of the chunk in the result file
+     */
+    public void addRecords(byte[] data, long offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = 0;
+        while (data.length - position > 4) {
+            int len = buffer.getInt(position + 4);
+            addRecord(buffer.getInt(position), offset + position, len);
+            position += RECORD_HEADER_SIZE + len * VALUE_SIZE;
+        }
+    }
+
+    /**
+     * Builds the index from all records of the buffer (up to its limit). The position of the buffer is not changed.
+     */
+    public static IterationIndex build(ByteBuffer buffer) {
+        IterationIndex index = new IterationIndex();
+        int position = 0;
+        int limit = buffer.limit();
+        while (limit - position > 4) {
+            int len = buffer.getInt(position + 4);
+            index.addRecord(buffer.getInt(position), position, len);
+            position += RECORD_HEADER_SIZE + len * VALUE_SIZE;
+        }
+        return index;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    public long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    /**
+     * @return the offset after the last record of the group
+     */
+    public long getEndOffset(int entry) {
+        return entry + 1 < entryCount ? offsets[entry + 1] : dataLength;
+    }
+
+    public boolean contains(int entry, int iteration) {
+        return iteration >= minIterations[entry] && iteration <= maxIterations[entry];
+    }
+
+    /**
+     * @param sortedIterations iterations in ascending order
+     * @return true if any of the iterations lies in the iteration range of the group
+     */
+    public boolean containsAny(int entry, int[] sortedIterations) {
+        int insertionPoint = Arrays.binarySearch(sortedIterations, minIterations[entry]);
+        if (insertionPoint >= 0) {
+            return true;
+        }
+        insertionPoint = -(insertionPoint + 1);
+        return insertionPoint < sortedIterations.length && sortedIterations[insertionPoint] <= maxIterations[entry];
+    }
+
+    /**
+     * @return true if it is worth to store the index, smaller files are scanned completely
+     */
+    public boolean isSparse() {
+        return entryCount > 1;
+    }
+
+    public void write(File file) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        // written to a temp file first as the index may be built by several readers at the same time
+        File tempFile = File.createTempFile(file.getName(), null, directory);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            dos.writeInt(VERSION);
+            dos.writeInt(INTERVAL);
+            dos.writeLong(dataLength);
+            dos.writeInt(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                dos.writeInt(minIterations[i]);
+                dos.writeInt(maxIterations[i]);
+                dos.writeLong(offsets[i]);
+            }
+        } finally {
+            dos.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * @return the index or null if the file does not exist or was written by a different version
+     */
+    public static IterationIndex read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (dis.readInt() != VERSION || dis.readInt() != INTERVAL) {
+                return null;
+            }
+            IterationIndex index = new IterationIndex();
+            index.dataLength = dis.readLong();
+            index.entryCount = dis.readInt();
+            index.minIterations = new int[index.entryCount];
+            index.maxIterations = new int[index.entryCount];
+            index.offsets = new long[index.entryCount];
+            for (int i = 0; i < index.entryCount; i++) {
+                index.minIterations[i] = dis.readInt();
+                index.maxIterations[i] = dis.readInt();
+                index.offsets[i] = dis.readLong();
+            }
+            return index;
+        } finally {
+            dis.close();
+        }
+    }
+
+    public static File getIndexFile(File resultFile) {
+        return new File(resultFile.getParentFile(), INDEX_DIRECTORY + File.separator + resultFile.getName() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns the stored index of the result file if it matches the records in the buffer, otherwise it is built and stored.
+     *
+     * @param buffer records of the result file without footer
+     */
+    public static IterationIndex getIndex(File resultFile, ByteBuffer buffer) {
+        File indexFile = getIndexFile(resultFile);
+        try {
+            IterationIndex index = read(indexFile);
+            if (index != null && index.dataLength == buffer.limit()) {
+                return index;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to read index " + indexFile + ", rebuilding it", e);
+        }
+        IterationIndex index = build(buffer);
+        if (index.isSparse()) {
+            try {
+                index.write(indexFile);
+            } catch (IOException e) {
+                LOG.warn("Unable to write index " + indexFile, e);
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,209 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.pillarone.riskanalytics.core.util.Configuration;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of all post simulation calculations of the most recently used runs, bounded by the number of runs. A result view
+ * requests several key figures of hundreds of series, with this cache the key figures of a run are loaded with one query.
+ * <p/>
+ * Only runs whose calculations are complete may be cached. The cache of a run has to be invalidated when the run is deleted.
+ */
+public class KeyFigureCache {
+
+    /**
+     * Config key for the maximum number of runs whose key figures are cached
+     */
+    public static final String MAX_RUNS_KEY = "keyFigureCacheRuns";
+    public static final int DEFAULT_MAX_RUNS = 4;
+
+    private static KeyFigureCache instance;
+
+    private final int maxRuns;
+    private long hits;
+    private long misses;
+
+    private final LinkedHashMap<Long, RunKeyFigures> runs = new LinkedHashMap<Long, RunKeyFigures>(16, 0.75f, true);
+
+    public KeyFigureCache(int maxRuns) {
+        this.maxRuns = maxRuns;
+    }
+
+    public static synchronized KeyFigureCache getInstance() {
+        if (instance == null) {
+            instance = new KeyFigureCache(Configuration.getInteger(MAX_RUNS_KEY, DEFAULT_MAX_RUNS));
+        }
+        return instance;
+    }
+
+    /**
+     * @return the key figures of the run or null if they are not cached
+     */
+    public synchronized RunKeyFigures get(long runId) {
+        RunKeyFigures keyFigures = runs.get(runId);
+        if (keyFigures != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return keyFigures;
+    }
+
+    /**
+     * Adds the key figures of a run and evicts the least recently used runs until the cache fits into its limit.
+     */
+    public synchronized void put(long runId, RunKeyFigures keyFigures) {
+        if (maxRuns <= 0) {
+            return;
+        }
+        runs.put(runId, keyFigures);
+        Iterator<RunKeyFigures> iterator = runs.values().iterator();
+        while (runs.size() > maxRuns && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void invalidate(long runId) {
+        runs.remove(runId);
+    }
+
+    public synchronized void clear() {
+        runs.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getRunCount() {
+        return runs.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "KeyFigureCache[runs: " + runs.size() + "/" + maxRuns + ", hits: " + hits + ", misses: " + misses + "]";
+    }
+
+    /**
+     * The key figures of one run. The key figures of a series are kept in primitive arrays and found by a linear search, a series
+     * has only a few dozen key figures. Not thread safe while it is filled, read only afterwards.
+     */
+    public static class RunKeyFigures {
+
+        private final Map<SeriesKey, SeriesKeyFigures> series = new HashMap<SeriesKey, SeriesKeyFigures>();
+        private int size;
+
+        public void add(int period, long pathId, long fieldId, long collectorId, String keyFigure, Double parameter, Double result) {
+            SeriesKey key = new SeriesKey(period, pathId, fieldId, collectorId);
+            SeriesKeyFigures keyFigures = series.get(key);
+            if (keyFigures == null) {
+                keyFigures = new SeriesKeyFigures();
+                series.put(key, keyFigures);
+            }
+            keyFigures.add(keyFigure.intern(), parameter, result);
+            size++;
+        }
+
+        /**
+         * @param parameter the parameter of the key figure or null if it has none
+         * @return true if the run has the key figure (its result may still be null)
+         */
+        public boolean contains(int period, long pathId, long fieldId, long collectorId, String keyFigure, Double parameter) {
+            SeriesKeyFigures keyFigures = series.get(new SeriesKey(period, pathId, fieldId, collectorId));
+            return keyFigures != null && keyFigures.indexOf(keyFigure, parameter) >= 0;
+        }
+
+        /**
+         * @param parameter the parameter of the key figure or null if it has none
+         * @return the result or null if the run has no such key figure or its result is null
+         */
+        public Double getResult(int period, long pathId, long fieldId, long collectorId, String keyFigure, Double parameter) {
+            SeriesKeyFigures keyFigures = series.get(new SeriesKey(period, pathId, fieldId, collectorId));
+            if (keyFigures == null) {
+                return null;
+            }
+            int index = keyFigures.indexOf(keyFigure, parameter);
+            if (index < 0 || Double.isNaN(keyFigures.results[index])) {
+                return null;
+            }
+            return keyFigures.results[index];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    private static final class SeriesKeyFigures {
+        // the parameter is NaN if the key figure has none, a null result is stored as NaN
+        String[] keyFigures = new String[8];
+        double[] parameters = new double[8];
+        double[] results = new double[8];
+        int size;
+
+        void add(String keyFigure, Double parameter, Double result) {
+            if (size == keyFigures.length) {
+                keyFigures = Arrays.copyOf(keyFigures, size * 2);
+                parameters = Arrays.copyOf(parameters, size * 2);
+                results = Arrays.copyOf(results, size * 2);
+            }
+            keyFigures[size] = keyFigure;
+            parameters[size] = parameter == null ? Double.NaN : parameter;
+            results[size] = result == null ? Double.NaN : result;
+            size++;
+        }
+
+        int indexOf(String keyFigure, Double parameter) {
+            for (int i = 0; i < size; i++) {
+                if (keyFigure.equals(keyFigures[i])) {
+                    if (parameter == null ? Double.isNaN(parameters[i]) : parameters[i] == parameter) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class SeriesKey {
+        final int period;
+        final long pathId;
+        final long fieldId;
+        final long collectorId;
+
+        SeriesKey(int period, long pathId, long fieldId, long collectorId) {
+            this.period = period;
+            this.pathId = pathId;
+            this.fieldId = fieldId;
+            this.collectorId = collectorId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SeriesKey)) {
+                return false;
+            }
+            SeriesKey other = (SeriesKey) o;
+            return period == other.period && pathId == other.pathId && fieldId == other.fieldId && collectorId == other.collectorId;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = period;
+            result = 31 * result + (int) (pathId ^ (pathId >>> 32));
+            result = 31 * result + (int) (fieldId ^ (fieldId >>> 32));
+            result = 31 * result + (int) (collectorId ^ (collectorId >>> 32));
+            return result;
+        }
+    }
+}
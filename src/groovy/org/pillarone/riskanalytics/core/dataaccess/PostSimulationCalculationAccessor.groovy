@@ -1,21 +1,70 @@
 package org.pillarone.riskanalytics.core.dataaccess
 
+import groovy.transform.CompileStatic
+import org.pillarone.riskanalytics.core.dataaccess.KeyFigureCache.RunKeyFigures
 import org.pillarone.riskanalytics.core.output.*
 
 class PostSimulationCalculationAccessor {
 
+    /**
+     * Gets the result of a key figure from the KeyFigureCache, which loads all key figures of a finished run with one query.
+     *
+     * @param keyFigureParameter the parameter of the key figure or null if it has none
+     * @return the result or null if the key figure was not calculated
+     */
+    @CompileStatic
+    static Double getKeyFigure(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName, String keyFigure, Double keyFigureParameter = null) {
+        MappingDictionary dictionary = MappingDictionary.instance
+        Long pathId = dictionary.getPathId(pathName)
+        Long fieldId = dictionary.getFieldId(fieldName)
+        Long collectorId = dictionary.getCollectorId(collectorName)
+        if (pathId == null || fieldId == null || collectorId == null) {
+            return null
+        }
+        RunKeyFigures keyFigures = getKeyFigures(simulationRun)
+        if (keyFigures != null) {
+            return keyFigures.getResult(periodIndex, pathId, fieldId, collectorId, keyFigure, keyFigureParameter)
+        }
+        return getResult(simulationRun, periodIndex, pathName, collectorName, fieldName, keyFigure, keyFigureParameter)?.result
+    }
+
+    /**
+     * @return the cached key figures of the run or null if the run is not finished yet and its key figures may still change
+     */
+    static RunKeyFigures getKeyFigures(SimulationRun simulationRun) {
+        if (simulationRun.id == null || simulationRun.endTime == null) {
+            return null
+        }
+        KeyFigureCache cache = KeyFigureCache.instance
+        RunKeyFigures keyFigures = cache.get(simulationRun.id)
+        if (keyFigures == null) {
+            keyFigures = new RunKeyFigures()
+            List rows = PostSimulationCalculation.executeQuery("SELECT p.period, p.path.id, p.field.id, p.collector.id, p.keyFigure, p.keyFigureParameter, p.result " +
+                    "FROM org.pillarone.riskanalytics.core.output.PostSimulationCalculation as p WHERE p.run.id = ?", [simulationRun.id])
+            for (Object[] row in rows) {
+                keyFigures.add((int) row[0], (long) row[1], (long) row[2], (long) row[3], (String) row[4], row[5]?.doubleValue(), (Double) row[6])
+            }
+            cache.put(simulationRun.id, keyFigures)
+        }
+        return keyFigures
+    }
+
     static PostSimulationCalculation getResult(SimulationRun simulationRun, int periodIndex = 0, String pathName, String collectorName, String fieldName, String keyFigure) {
-        PathMapping path = PathMapping.findByPathName(pathName)
-        FieldMapping field = FieldMapping.findByFieldName(fieldName)
-        CollectorMapping collector = CollectorMapping.findByCollectorName(collectorName)
+        MappingDictionary dictionary = MappingDictionary.instance
+        Long pathId = dictionary.getPathId(pathName)
+        Long fieldId = dictionary.getFieldId(fieldName)
+        Long collectorId = dictionary.getCollectorId(collectorName)
+        if (pathId == null || fieldId == null || collectorId == null) {
+            return null
+        }
 
         def c = PostSimulationCalculation.createCriteria()
         def res = c.get {
             eq('run', simulationRun)
             eq('period', periodIndex)
-            eq('path', path)
-            eq('field', field)
-            eq('collector', collector)
+            eq('path.id', pathId)
+            eq('field.id', fieldId)
+            eq('collector.id', collectorId)
             eq('keyFigure', keyFigure)
         }
         return res
@@ -37,16 +86,20 @@ static PostSimulationCalculation getResult(SimulationRun simulationRun, int peri
         if (keyFigureParameter == null) {
             return getResult(simulationRun, periodIndex, pathName, collectorName, fieldName, keyFigure)
         } else {
-            PathMapping path = PathMapping.findByPathName(pathName)
-            FieldMapping field = FieldMapping.findByFieldName(fieldName)
-            CollectorMapping collector = CollectorMapping.findByCollectorName(collectorName)
+            MappingDictionary dictionary = MappingDictionary.instance
+            Long pathId = dictionary.getPathId(pathName)
+            Long fieldId = dictionary.getFieldId(fieldName)
+            Long collectorId = dictionary.getCollectorId(collectorName)
+            if (pathId == null || fieldId == null || collectorId == null) {
+                return null
+            }
             def c = PostSimulationCalculation.createCriteria()
             PostSimulationCalculation res = c.get {
                 eq('run', simulationRun)
                 eq('period', periodIndex)
-                eq('path', path)
-                eq('field', field)
-                eq('collector', collector)
+                eq('path.id', pathId)
+                eq('field.id', fieldId)
+                eq('collector.id', collectorId)
                 eq('keyFigure', keyFigure)
                 eq('keyFigureParameter', keyFigureParameter as BigDecimal)
             }
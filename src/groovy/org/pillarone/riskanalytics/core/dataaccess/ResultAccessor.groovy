@@ -4,25 +4,25 @@
 import org.apache.commons.lang.NotImplementedException
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
-import org.joda.time.DateTime
 import org.joda.time.format.DateTimeFormat
-import org.joda.time.format.DateTimeFormatter
 import org.pillarone.riskanalytics.core.output.*
 import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
 import org.pillarone.riskanalytics.core.simulation.item.Parameterization
+import org.pillarone.riskanalytics.core.util.Configuration
 import org.pillarone.riskanalytics.core.util.GroovyUtils
 import org.pillarone.riskanalytics.core.util.MathUtils
+import org.pillarone.riskanalytics.core.util.OrderStatistics
+import org.pillarone.riskanalytics.core.util.RiskMeasures
 
 abstract class ResultAccessor {
 
     private static final Log LOG = LogFactory.getLog(ResultAccessor)
 
-    private static HashMap<String, Integer> pathCache = new HashMap<String, Integer>();
-    private static HashMap<String, Integer> fieldCache = new HashMap<String, Integer>();
-    private static HashMap<String, Integer> collectorCache = new HashMap<String, Integer>();
-
-    private static HashMap<String, CompareValues> comparators = null;
+    private static final int SCAN_BUFFER_SIZE = 4096
 
+    /**
+     * Creates an object for every value of the run, use scan() or iterator() for larger runs.
+     */
     @CompileStatic
     static List<SingleValueResultPOJO> getAllResults(SimulationRun simulationRun) {
         List<ResultPathDescriptor> paths = getDistinctPaths(simulationRun)
@@ -42,60 +42,112 @@ result << new SingleValueResultPOJO(
         return result
     }
 
-    static String exportCsv(SimulationRun simulationRun, Long maxLines = null, Long maxBytes = null ) {
-        final CollectorMapping singleCollector = CollectorMapping.findByCollectorName(SingleValueCollectingModeStrategy.IDENTIFIER)
-        if (singleCollector == null) {
+    /**
+     * Passes all records of the result series of the run (see getDistinctPaths) accepted by the filter to the visitor.
+     * Values are read in blocks without creating any objects, only one series is in memory at a time.
+     */
+    @CompileStatic
+    static void scan(SimulationRun simulationRun, ResultFilter filter, ResultVisitor visitor) {
+        double[] values = new double[SCAN_BUFFER_SIZE]
+        int[] iterations = new int[SCAN_BUFFER_SIZE]
+        for (ResultPathDescriptor descriptor in getDistinctPaths(simulationRun)) {
+            if (!filter.accept(descriptor) || !visitor.startSeries(descriptor)) {
+                continue
+            }
+            IterationFileAccessor ifa = new IterationFileAccessor(new File(GridHelper.getResultPathLocation(simulationRun.id,
+                    (long) descriptor.path.id, (long) descriptor.field.id, (long) descriptor.collector.id, descriptor.period)))
+            try {
+                int count
+                while ((count = ifa.readValues(values, iterations)) > 0) {
+                    for (int i = 0; i < count; i++) {
+                        visitor.visit(descriptor, iterations[i], values[i])
+                    }
+                }
+            } finally {
+                ifa.close()
+            }
+            visitor.endSeries(descriptor)
+        }
+    }
+
+    /**
+     * @return a pull style iterator over all records of the result series of the run accepted by the filter
+     */
+    @CompileStatic
+    static ResultIterator iterator(SimulationRun simulationRun, ResultFilter filter) {
+        List<ResultPathDescriptor> descriptors = []
+        for (ResultPathDescriptor descriptor in getDistinctPaths(simulationRun)) {
+            if (filter.accept(descriptor)) {
+                descriptors << descriptor
+            }
+        }
+        return new ResultIterator(simulationRun.id, descriptors)
+    }
+
+    /**
+     * Compares all result series of two runs (see RunComparison), each result file is read once.
+     */
+    static void compareRuns(SimulationRun first, SimulationRun second, RunComparison comparison, RunComparison.Listener listener) {
+        Map<String, ResultPathDescriptor> series = [:]
+        for (ResultPathDescriptor descriptor in getDistinctPaths(first) + getDistinctPaths(second)) {
+            String key = descriptor.fileName
+            if (!series.containsKey(key)) {
+                series[key] = descriptor
+            }
+        }
+        comparison.compare(first.id, first.iterations, second.id, second.iterations, series.values().toList(), listener)
+    }
+
+    /**
+     * Writes the single values of all result series of the run into a UTF-8 csv file (see CsvResultExporter).
+     *
+     * @param maxLines fails if the file would have more lines
+     * @param maxBytes fails if the file would be larger (uncompressed)
+     * @param gzip compresses the file, ".gz" is appended to the file name
+     * @return the name of the csv file
+     */
+    static String exportCsv(SimulationRun simulationRun, Long maxLines = null, Long maxBytes = null, boolean gzip = false) {
+        final Long singleCollectorId = MappingDictionary.instance.getCollectorId(SingleValueCollectingModeStrategy.IDENTIFIER)
+        if (singleCollectorId == null) {
             throw new IllegalStateException("collector_mapping named SINGLE not found")
         }
-        String fileName = GroovyUtils.getExportFileName(simulationRun)  // csv file on server under ...\.pillarone\RiskAnalyhtics\csvExport\.
+        String fileName = GroovyUtils.getExportFileName(simulationRun) + (gzip ? ".gz" : "")  // csv file on server under ...\.pillarone\RiskAnalyhtics\csvExport\.
         File csvFile = new File(fileName)
         if (csvFile.exists()) {
             LOG.info("DELETING ${fileName} (already exists)")
             csvFile.delete()
         }
 
-        int  linesWrote = 0;
-        long bytesWrote = 0;
-        try {
-            OutputStream csvOutputStream = null;
-            try {
-                csvOutputStream = new DataOutputStream( new BufferedOutputStream(new FileOutputStream(csvFile)) );
-                List<ResultPathDescriptor> paths = getDistinctPaths(simulationRun) // gets timed but not significant
-                DateTimeFormatter formatter = DateTimeFormat.forPattern(Parameterization.PERIOD_DATE_FORMAT)
-
-                // Bottleneck took 16secs for 5 iterations (=> 4.5hrs for 5K iters ?)
-                // File was being opened/closed for each line of csv output.
-                //
-                for (ResultPathDescriptor descriptor in paths) {
-                    if (descriptor.collector.collectorName == AggregatedWithSingleAvailableCollectingModeStrategy.IDENTIFIER) { //get distinct path ignores single collectors
-                        descriptor.collector = singleCollector //but we only want single values in CSV if they are available
-                    }
-                    IterationFileAccessor ifa = new IterationFileAccessor(new File(GridHelper.getResultPathLocation(simulationRun.id, descriptor.path.id, descriptor.field.id, descriptor.collector.id, descriptor.period)));
-                    while (ifa.fetchNext()) {
-                        for (DateTimeValuePair pair in ifa.getSingleValues()) {
-                            if( maxLines != null && ++linesWrote >= maxLines ){
-                                throw new IllegalStateException("CSV exceeds allowed number of lines ($maxLines)")
-                            }
-                            if( maxBytes != null && bytesWrote >= maxBytes){
-                                throw new IllegalStateException("CSV exceeds allowed file size ($maxBytes)")
-                            }
-                            String line = [ifa.iteration, descriptor.period, descriptor.path.pathName, descriptor.field.fieldName, pair.aDouble, descriptor.collector.collectorName, formatter.print(new DateTime(pair.dateTime))].join(",") + "\n"
-                            csvOutputStream.writeChars(line)
-                            bytesWrote += line.length()
-                        }
-                    }
-                    ifa.close()
-                }
-                return fileName
-            }
-            finally {
-                if(csvOutputStream != null){
-                    csvOutputStream.close();
-                }
+        List<CsvResultExporter.Series> series = []
+        for (ResultPathDescriptor descriptor in getDistinctPaths(simulationRun)) {
+            long collectorId = descriptor.collector.id
+            String collectorName = descriptor.collector.collectorName
+            if (collectorName == AggregatedWithSingleAvailableCollectingModeStrategy.IDENTIFIER) { //get distinct path ignores single collectors
+                collectorId = singleCollectorId //but we only want single values in CSV if they are available
+                collectorName = SingleValueCollectingModeStrategy.IDENTIFIER
             }
+            File file = new File(GridHelper.getResultPathLocation(simulationRun.id, descriptor.path.id, descriptor.field.id, collectorId, descriptor.period))
+            series << new CsvResultExporter.Series(file, descriptor.period, descriptor.path.pathName, descriptor.field.fieldName, collectorName)
+        }
+
+        CsvResultExporter exporter = new CsvResultExporter(DateTimeFormat.forPattern(Parameterization.PERIOD_DATE_FORMAT),
+                Configuration.getInteger(CsvResultExporter.THREADS_KEY, Runtime.runtime.availableProcessors()))
+        if (maxLines != null) {
+            exporter.maxLines = maxLines
+        }
+        if (maxBytes != null) {
+            exporter.maxBytes = maxBytes
+        }
+        exporter.gzip = gzip
+        try {
+            long start = System.currentTimeMillis()
+            exporter.export(series, csvFile)
+            LOG.info("Exported ${exporter.lines} lines (${exporter.bytes} bytes) of ${series.size()} result files in ${System.currentTimeMillis() - start} ms")
+            return fileName
         }
         catch(Exception ex){
             LOG.warn(ex);
+            csvFile.delete()
             throw ex
         }
     }
@@ -104,28 +156,39 @@ static String exportCsv(SimulationRun simulationRun, Long maxLines = null, Long
     // Why - too many ?
     //
     static List<ResultPathDescriptor> getDistinctPaths(SimulationRun run) {
-        CollectorMapping singleCollector = CollectorMapping.findByCollectorName(SingleValueCollectingModeStrategy.IDENTIFIER)
-        if (singleCollector == null) {
+        Long singleCollectorId = MappingDictionary.instance.getCollectorId(SingleValueCollectingModeStrategy.IDENTIFIER)
+        if (singleCollectorId == null) {
             throw new IllegalStateException("Single collector mapping not found")
         }
 
         List<ResultPathDescriptor> result = []
         File resultDir = new File(GridHelper.getResultLocation(run.id))
         if( resultDir.exists() ){
-            Map<String,PathMapping> pathMappings = new HashMap<String,PathMapping>()
-            Map<String,FieldMapping> fieldMappings = new HashMap<String,FieldMapping>()
-            Map<Long,CollectorMapping> collectorMappings = new HashMap<Long,CollectorMapping>()
-            for (File f in resultDir.listFiles()) {
-                String[] ids = f.name.split("_")
+            List<String[]> resultIds = []
+            Set<Long> pathIds = new HashSet<Long>()
+            Set<Long> fieldIds = new HashSet<Long>()
+            Set<Long> collectorIds = new HashSet<Long>()
+            for (String fileName in getResultFileNames(resultDir)) {
+                String[] ids = fileName.split("_")
                 Long collectorId = Long.parseLong(ids[3])
-                if (collectorId != singleCollector.id) {
-                    result.add(new ResultPathDescriptor(
-                            getPathmapping(pathMappings,ids[0]),
-                            getFieldMapping(fieldMappings,ids[2]),
-                            getCollectorMapping(collectorMappings,collectorId),
-                            Integer.parseInt(ids[1])))
+                if (collectorId != singleCollectorId) {
+                    resultIds << ids
+                    pathIds << Long.parseLong(ids[0])
+                    fieldIds << Long.parseLong(ids[2])
+                    collectorIds << collectorId
                 }
             }
+            // one query per mapping type instead of one per id
+            Map<Long, PathMapping> pathMappings = getMappings(PathMapping, pathIds)
+            Map<Long, FieldMapping> fieldMappings = getMappings(FieldMapping, fieldIds)
+            Map<Long, CollectorMapping> collectorMappings = getMappings(CollectorMapping, collectorIds)
+            for (String[] ids in resultIds) {
+                result.add(new ResultPathDescriptor(
+                        pathMappings.get(Long.parseLong(ids[0])),
+                        fieldMappings.get(Long.parseLong(ids[2])),
+                        collectorMappings.get(Long.parseLong(ids[3])),
+                        Integer.parseInt(ids[1])))
+            }
         } else {
             String err = "Missing dir: '${resultDir.absolutePath}' for sim: '${run.name}' (if test system: probly OK)"  //PMO-2814
             LOG.warn(err)
@@ -135,32 +198,45 @@ static List<ResultPathDescriptor> getDistinctPaths(SimulationRun run) {
         return result
     }
 
-    private static CollectorMapping getCollectorMapping(Map<Long,CollectorMapping> collectorMappings,Long collectorId) {
-        if (!collectorMappings.containsKey(collectorId)){
-            collectorMappings.put(collectorId,CollectorMapping.get(collectorId))
+    /**
+     * @return the names (pathId_period_fieldId_collectorId) of all series of a run, independent of the storage layout
+     */
+    @CompileStatic
+    static List<String> getResultFileNames(File resultDir) {
+        ResultContainer container = ResultContainer.open(resultDir)
+        if (container != null) {
+            return new ArrayList<String>(container.fileNames)
         }
-        return collectorMappings.get(collectorId)
-    }
-
-    private static FieldMapping getFieldMapping(Map<String,FieldMapping> fieldMappings,String fieldId) {
-        if (!fieldMappings.containsKey(fieldId)) {
-            fieldMappings.put(fieldId, FieldMapping.get(Long.parseLong(fieldId)))
+        List<String> fileNames = []
+        for (File f in resultDir.listFiles()) {
+            if (f.isFile()) { // skip index directory
+                fileNames << f.name
+            }
         }
-        return fieldMappings.get(fieldId)
+        return fileNames
     }
 
-    private static PathMapping getPathmapping(Map<String,PathMapping> pathMappings, String pathId) {
-        if (!pathMappings.containsKey(pathId)){
-            pathMappings.put(pathId,PathMapping.get(Long.parseLong(pathId)))
+    private static Map<Long, Object> getMappings(Class domainClass, Set<Long> ids) {
+        Map<Long, Object> mappings = new HashMap<Long, Object>()
+        if (!ids.empty) {
+            for (def mapping in domainClass.getAll(ids as List)) {
+                if (mapping != null) {
+                    mappings.put((Long) mapping.id, mapping)
+                }
+            }
         }
-        return pathMappings.get(pathId)
+        return mappings
     }
 
     static Double getMean(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
-        PostSimulationCalculation result = PostSimulationCalculationAccessor.getResult(simulationRun, periodIndex, pathName, collectorName, fieldName, PostSimulationCalculation.MEAN)
+        Double result = PostSimulationCalculationAccessor.getKeyFigure(simulationRun, periodIndex, pathName, collectorName, fieldName, PostSimulationCalculation.MEAN)
         if (result != null) {
-            return result.result
+            return result
         } else {
+            ResultFileSummary summary = getSummary(simulationRun, periodIndex, pathName, collectorName, fieldName)
+            if (summary != null) {
+                return summary.getMean(simulationRun.iterations)
+            }
             List<Double> allValues = getValues(simulationRun, periodIndex, pathName, collectorName, fieldName)
             return allValues.sum() / simulationRun.iterations
         }
@@ -168,6 +244,10 @@ static Double getMean(SimulationRun simulationRun, int periodIndex, String pathN
 
     @CompileStatic
     static Double getMin(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
+        ResultFileSummary summary = getSummary(simulationRun, periodIndex, pathName, collectorName, fieldName)
+        if (summary != null) {
+            return summary.count == 0 ? null : summary.getMin(simulationRun.iterations)
+        }
         double[] sortedValues = getValuesSorted(simulationRun, periodIndex, pathName, collectorName, fieldName)
         if (sortedValues.length == 0) {
             return null
@@ -176,6 +256,10 @@ static Double getMin(SimulationRun simulationRun, int periodIndex, String pathNa
     }
 
     static Double getMax(SimulationRun simulationRun, int periodIndex = 0, String pathName, String collectorName, String fieldName) {
+        ResultFileSummary summary = getSummary(simulationRun, periodIndex, pathName, collectorName, fieldName)
+        if (summary != null) {
+            return summary.count == 0 ? null : summary.getMax(simulationRun.iterations)
+        }
         double[] sortedValues = getValuesSorted(simulationRun, periodIndex, pathName, collectorName, fieldName)
         if (sortedValues.length == 0) {
             return null
@@ -188,6 +272,10 @@ static boolean hasDifferentValues(SimulationRun simulationRun, int periodIndex,
         if (simulationRun.iterations == 1) {
             return false
         }
+        ResultFileSummary summary = getSummary(simulationRun, periodIndex, pathName, collectorName, fieldName)
+        if (summary != null) {
+            return summary.getMax(simulationRun.iterations) != summary.getMin(simulationRun.iterations)
+        }
         List<Double> values = getValues(simulationRun, periodIndex, pathName, collectorName, fieldName)
         if (values.size() < simulationRun.iterations) {
             values << 0d
@@ -198,13 +286,13 @@ static boolean hasDifferentValues(SimulationRun simulationRun, int periodIndex,
 
     @CompileStatic
     static Double getStdDev(SimulationRun simulationRun, int periodIndex, String path, String collectorName, String fieldName) {
-        PostSimulationCalculation result = PostSimulationCalculationAccessor.getResult(simulationRun, periodIndex, path, collectorName, fieldName, PostSimulationCalculation.STDEV)
+        Double result = PostSimulationCalculationAccessor.getKeyFigure(simulationRun, periodIndex, path, collectorName, fieldName, PostSimulationCalculation.STDEV)
         if (result != null) {
-            return result.result
+            return result
         } else {
             double[] sortedValues = getValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName) as double[]
             if (sortedValues.size() > 0) {
-                return MathUtils.calculateStandardDeviation(sortedValues)
+                return new RiskMeasures(sortedValues).stdDev
             } else {
                 return null
             }
@@ -249,63 +337,125 @@ static Double getNthOrderStatistic(SimulationRun simulationRun, int periodIndex,
     @CompileStatic
     static Double getPercentile(SimulationRun simulationRun, int periodIndex, String path, String collectorName, String fieldName, Double severity,
                                 QuantilePerspective perspective) {
-        PostSimulationCalculation result = PostSimulationCalculationAccessor.getResult(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getPercentileAsString(), severity)
+        Double result = PostSimulationCalculationAccessor.getKeyFigure(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getPercentileAsString(), severity)
         if (result != null) {
-            return result.result
+            return result
         } else {
-            double[] values = getValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName) as double[]
+            double[] sortedValues = getCachedValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName)
+            if (sortedValues != null) {
+                return new RiskMeasures(sortedValues).getPercentile(severity, perspective)
+            }
+            double[] values = readValuesUnsorted(simulationRun, periodIndex, path, collectorName, fieldName)
             if (values.length == 0) {
                 return null
             }
-            return MathUtils.calculatePercentile(values, severity, perspective)
+            return new OrderStatistics(values).getPercentile(severity, perspective)
         }
     }
 
     @CompileStatic
     static Double getVar(SimulationRun simulationRun, int periodIndex, String path, String collectorName, String fieldName, Double severity,
                          QuantilePerspective perspective) {
-        PostSimulationCalculation result = PostSimulationCalculationAccessor.getResult(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getVarAsString(), severity)
+        Double result = PostSimulationCalculationAccessor.getKeyFigure(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getVarAsString(), severity)
         if (result != null) {
-            return result.result
+            return result
         } else {
-            double[] values = getValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName) as double[]
+            double[] sortedValues = getCachedValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName)
+            if (sortedValues != null) {
+                return new RiskMeasures(sortedValues).getVar(severity, perspective)
+            }
+            double[] values = readValuesUnsorted(simulationRun, periodIndex, path, collectorName, fieldName)
             if (values.length == 0) {
                 return null
             }
-            return MathUtils.calculateVar(values, severity, perspective)
+            double mean = MathUtils.calculateMean(values)
+            return new OrderStatistics(values).getVar(severity, mean, perspective)
         }
     }
 
     @CompileStatic
     static Double getTvar(SimulationRun simulationRun, int periodIndex, String path, String collectorName, String fieldName,
                           Double severity, QuantilePerspective perspective) {
-        PostSimulationCalculation result = PostSimulationCalculationAccessor.getResult(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getTvarAsString(), severity)
+        Double result = PostSimulationCalculationAccessor.getKeyFigure(simulationRun, periodIndex, path, collectorName, fieldName, perspective.getTvarAsString(), severity)
         if (result != null) {
-            return result.result
+            return result
         } else {
-            double[] values = getValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName) as double[]
+            double[] sortedValues = getCachedValuesSorted(simulationRun, periodIndex, path, collectorName, fieldName)
+            if (sortedValues != null) {
+                return new RiskMeasures(sortedValues).getTvar(severity, perspective)
+            }
+            double[] values = readValuesUnsorted(simulationRun, periodIndex, path, collectorName, fieldName)
             if (values.length == 0) {
                 return null
             }
-            return MathUtils.calculateTvar(values, severity, perspective)
+            double mean = MathUtils.calculateMean(values)
+            return new OrderStatistics(values).getTvar(severity, mean, perspective)
         }
     }
 
+    /**
+     * @return the sorted values of the series, shared with the SortedValuesCache and therefore not to be modified
+     */
+    @CompileStatic
     static double[] getValuesSorted(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
+        long pathId = getPathId(pathName)
+        long fieldId = getFieldId(fieldName)
+        long collectorId = getCollectorId(collectorName)
+        SortedValuesCache cache = SortedValuesCache.instance
+        double[] values = cache.get(simulationRun.id, periodIndex, pathId, fieldId, collectorId)
+        if (values == null) {
+            values = readValuesSorted(simulationRun, periodIndex, pathId, collectorId, fieldId)
+            if (values.length > 0) {
+                cache.put(simulationRun.id, periodIndex, pathId, fieldId, collectorId, values)
+            }
+        }
+        return values
+    }
+
+    /**
+     * @return the sorted values of the series if they are in the SortedValuesCache (not to be modified), otherwise null
+     */
+    @CompileStatic
+    static double[] getCachedValuesSorted(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
+        return SortedValuesCache.instance.get(simulationRun.id, periodIndex, getPathId(pathName), getFieldId(fieldName), getCollectorId(collectorName))
+    }
+
+    /**
+     * Reads the values of the series in file order, filled up with zeroes like the sorted values. Used by key figures which select
+     * a few order statistics (see OrderStatistics) instead of sorting all values.
+     */
+    @CompileStatic
+    static double[] readValuesUnsorted(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
+        return IterationFileAccessor.getValues(simulationRun.id, periodIndex, getPathId(pathName), getCollectorId(collectorName), getFieldId(fieldName), simulationRun.iterations)
+    }
+
+    /**
+     * Reads and sorts the values of the series without using the SortedValuesCache (used if every series is read only once).
+     */
+    static double[] readValuesSorted(SimulationRun simulationRun, int periodIndex, long pathId, long collectorId, long fieldId) {
         //delegate to java class -> performance improvement in PSC
-        return fillWithZeroes(simulationRun, (double[]) IterationFileAccessor.getValuesSorted(simulationRun.id, periodIndex, getPathId(pathName), getCollectorId(collectorName), getFieldId(fieldName)))
+        return fillWithZeroes(simulationRun, IterationFileAccessor.getValuesSorted(simulationRun.id, periodIndex, pathId, collectorId, fieldId))
     }
 
     @CompileStatic
     static double[] getValues(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
         IterationFileAccessor ifa = createFileAccessor(simulationRun, pathName, fieldName, collectorName, periodIndex)
-        HashMap<Integer, Double> tmpValues = new HashMap<Integer, Double>(simulationRun.iterations);
+        // iterations without a record keep the initial 0
         double[] values = new double[simulationRun.iterations]
-        int current = 0
-        while (ifa.fetchNext()) {
-            values[current++] = ifa.getValue()
+        try {
+            ifa.readValues(values, null)
+        } finally {
+            ifa.close()
         }
-        return fillWithZeroes(simulationRun, values);
+        return values
+    }
+
+    /**
+     * @return the summary footer of the result file or null if it has none (written by an older version or not yet closed)
+     */
+    @CompileStatic
+    static ResultFileSummary getSummary(SimulationRun simulationRun, int periodIndex, String pathName, String collectorName, String fieldName) {
+        return ResultFileSummary.read(new File(GridHelper.getResultPathLocation(simulationRun.id, getPathId(pathName), getFieldId(fieldName), getCollectorId(collectorName), periodIndex)))
     }
 
     @CompileStatic
@@ -319,17 +469,24 @@ public static Double getUltimatesForOneIteration(SimulationRun simulationRun, in
         return getSingleIterationValue(simulationRun, periodIndex, pathName, fieldName, collectorName, iteration)
     }
 
+    /**
+     * Adds a zero for every iteration without a record while keeping the values sorted.
+     * @param sortedResults values in ascending order
+     */
     @CompileStatic
-    private static double[] fillWithZeroes(SimulationRun run, double[] results) {
+    private static double[] fillWithZeroes(SimulationRun run, double[] sortedResults) {
         // number of iterations may be smaller as results length if a single collector is used
-        if (run.iterations <= results.length || results.length == 0) return results
+        if (run.iterations <= sortedResults.length || sortedResults.length == 0) return sortedResults
 
-        double[] result = new double[run.iterations]
-        System.arraycopy(results, 0, result, 0, results.length)
-        for (int i = results.length; i < result.length; i++) {
-            result[i] = 0d
+        int missing = run.iterations - sortedResults.length
+        int insertionPoint = 0
+        while (insertionPoint < sortedResults.length && sortedResults[insertionPoint] < 0d) {
+            insertionPoint++
         }
-        Arrays.sort(result)
+        // new array is initialized with zeroes between the negative and the non negative values
+        double[] result = new double[run.iterations]
+        System.arraycopy(sortedResults, 0, result, 0, insertionPoint)
+        System.arraycopy(sortedResults, insertionPoint, result, insertionPoint + missing, sortedResults.length - insertionPoint)
         return result
     }
 
@@ -339,17 +496,31 @@ private static String getSimRunPath(SimulationRun simulationRun) {
 
     public static List<Object[]> getAvgAndIsStochastic(SimulationRun simulationRun) {
         File simRun = new File(getSimRunPath(simulationRun));
+        Long aggregatedCollectorId = MappingDictionary.instance.getCollectorId(AggregatedCollectingModeStrategy.IDENTIFIER)
         def result = []
-        for (File f : simRun.listFiles()) {
+        for (String fileName : getResultFileNames(simRun)) {
+            File f = new File(simRun, fileName)
             def array = new Object[7]
-            IterationFileAccessor ifa = new IterationFileAccessor(f);
             double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, avg = 0;
             double count = 0;
-            while (ifa.fetchNext()) {
-                min = Math.min(ifa.getValue(), min);
-                max = Math.max(ifa.getValue(), max);
-                avg += ifa.getValue();
-                count++;
+            ResultFileSummary summary = ResultFileSummary.read(f)
+            if (summary != null) {
+                min = summary.min
+                max = summary.max
+                avg = summary.sum
+                count = summary.count
+            } else {
+                IterationFileAccessor ifa = new IterationFileAccessor(f);
+                try {
+                    while (ifa.fetchNext()) {
+                        min = Math.min(ifa.getValue(), min);
+                        max = Math.max(ifa.getValue(), max);
+                        avg += ifa.getValue();
+                        count++;
+                    }
+                } finally {
+                    ifa.close();
+                }
             }
 
             avg = avg / count;
@@ -357,7 +528,7 @@ public static List<Object[]> getAvgAndIsStochastic(SimulationRun simulationRun)
             for (int i = 0; i < 2; i++) {
                 array[i] = Long.parseLong(path_period_field[i]);
             }
-            array[2] = CollectorMapping.findByCollectorName(AggregatedCollectingModeStrategy.IDENTIFIER).id //TODO: replace with correct collector id
+            array[2] = aggregatedCollectorId //TODO: replace with correct collector id
             array[3] = Long.parseLong(path_period_field[2]);
             array[4] = avg;
             array[5] = min;
@@ -368,22 +539,22 @@ public static List<Object[]> getAvgAndIsStochastic(SimulationRun simulationRun)
         return result;
     }
 
+    @CompileStatic
     public static int getPathId(String pathName) {
-        Integer pathId = pathCache.get(pathName)
-        if (pathId == null) {
-            pathId = PathMapping.findByPathName(pathName).id
-            pathCache.put(pathName, pathId)
-        }
-        return pathId;
+        return getId(MappingDictionary.instance.getPathId(pathName), "path", pathName)
     }
 
+    @CompileStatic
     public static int getFieldId(String fieldName) {
-        Integer fieldId = fieldCache.get(fieldName)
-        if (fieldId == null) {
-            fieldId = FieldMapping.findByFieldName(fieldName).id
-            fieldCache.put(fieldName, fieldId)
+        return getId(MappingDictionary.instance.getFieldId(fieldName), "field", fieldName)
+    }
+
+    @CompileStatic
+    private static int getId(Long id, String type, String name) {
+        if (id == null) {
+            throw new IllegalArgumentException("No ${type} mapping found for ${name}")
         }
-        return fieldId;
+        return id.intValue()
     }
 
     /**
@@ -396,99 +567,52 @@ public static long getRunIDFromSimulation(SimulationRun run) {
         run.id
     }
 
+    @CompileStatic
     public static int getCollectorId(String collectorName) {
-        Integer collectorId = collectorCache.get(collectorName)
-        if (collectorId == null) {
-            collectorId = CollectorMapping.findByCollectorName(collectorName).id
-            collectorCache.put(collectorName, collectorId)
-        }
-        return collectorId;
+        return getId(MappingDictionary.instance.getCollectorId(collectorName), "collector", collectorName)
     }
 
     public static Double getSingleIterationValue(SimulationRun simulationRun, int period, String path, String field, String collector, int iteration) {
-        File iterationFile = new File(GridHelper.getResultPathLocation(simulationRun.id, getPathId(path), getFieldId(field), getCollectorId(collector), period));
-        IterationFileAccessor ifa = new IterationFileAccessor(iterationFile);
-
-        while (ifa.fetchNext()) {
-            if (ifa.getIteration() == iteration)
-                return new Double(ifa.getValue());
-        }
-        return null;
+        return IterationFileAccessor.getIterationValue(simulationRun.id, period, getPathId(path), getFieldId(field), getCollectorId(collector), iteration)
     }
 
+    /**
+     * @return the iterations with a value matching the criteria ("<", "<=", "=", ">=", ">") in ascending order
+     */
     @CompileStatic
-    public static synchronized void initComparators() {
-
-        if (comparators != null) return;
-
-        comparators = new HashMap<String, CompareValues>();
-
-        comparators.put("<", new CompareValues() {
-            public boolean compareValues(double d1, double d2) {
-                if (d1 < d2)
-                    return true;
-                return false;
-            }
-        });
-        comparators.put("<=", new CompareValues() {
-            public boolean compareValues(double d1, double d2) {
-                if (d1 <= d2)
-                    return true;
-                return false;
-            }
-        });
-        comparators.put("=", new CompareValues() {
-            public boolean compareValues(double d1, double d2) {
-                if (d1 == d2)
-                    return true;
-                return false;
-            }
-        });
-        comparators.put(">=", new CompareValues() {
-            public boolean compareValues(double d1, double d2) {
-                if (d1 >= d2)
-                    return true;
-                return false;
-            }
-        });
-
-        comparators.put(">", new CompareValues() {
-            public boolean compareValues(double d1, double d2) {
-                if (d1 > d2)
-                    return true;
-                return false;
-            }
-        });
+    public static List getCriteriaConstrainedIterations(SimulationRun simulationRun, int period, String path, String field,
+                                                        String collector, String criteria, Double conditionValue) {
+        if (conditionValue == null || IterationFilter.Operator.forSymbol(criteria) == null) return []
+        return getConstrainedIterations(simulationRun, getIterationCriterion(period, path, field, collector, criteria, conditionValue)).toList()
     }
 
+    /**
+     * @return a criterion for getConstrainedIterations(), combine several criteria with IterationFilter.and(), or() and not()
+     */
     @CompileStatic
-    public static List getCriteriaConstrainedIterations(SimulationRun simulationRun, int period, String path, String field,
-                                                        String collector, String criteria, Double conditionValue) {
-        if (conditionValue == null) return []
-        initComparators();
-        File iterationFile = new File(GridHelper.getResultPathLocation(simulationRun.id, getPathId(path), getFieldId(field), getCollectorId(collector), period))
-        HashMap<Integer, Double> tmpValues = new HashMap<Integer, Double>(10000);
-        List<Integer> iterations = new ArrayList<Integer>();
-        IterationFileAccessor ifa = new IterationFileAccessor(iterationFile);
-
-        while (ifa.fetchNext()) {
-            tmpValues.put(ifa.getIteration(), ifa.getValue());
-        }
-        CompareValues currentComparator = comparators.get(criteria);
-        if (currentComparator != null) {
-            for (Map.Entry<Integer, Double> valueByIteration : tmpValues.entrySet()) {
-                if (currentComparator.compareValues(valueByIteration.value, conditionValue)) {
-                    iterations.add(valueByIteration.key);
-                }
-            }
+    public static IterationFilter getIterationCriterion(int period, String path, String field, String collector, String criteria, double conditionValue) {
+        IterationFilter.Operator operator = IterationFilter.Operator.forSymbol(criteria)
+        if (operator == null) {
+            throw new IllegalArgumentException("Unknown criteria: ${criteria}")
         }
-        return iterations;
+        return IterationFilter.criterion(period, getPathId(path), getFieldId(field), getCollectorId(collector), operator, conditionValue)
+    }
+
+    @CompileStatic
+    public static IterationBitmap getConstrainedIterations(SimulationRun simulationRun, IterationFilter filter) {
+        return filter.evaluate(simulationRun.id, simulationRun.iterations)
     }
 
     @CompileStatic
     public static Map<Integer, Double> getIterationConstrainedValues(SimulationRun simulationRun, int period, String path, String field, String collector,
                                                                      List<Integer> iterations) {
-        return IterationFileAccessor.getIterationConstrainedValues(simulationRun.id, period, getPathId(path), getFieldId(field), getCollectorId(collector), new HashSet<Integer>(iterations))
+        return getIterationConstrainedValues(simulationRun, period, path, field, collector, IterationBitmap.of(iterations))
+    }
+
+    @CompileStatic
+    public static Map<Integer, Double> getIterationConstrainedValues(SimulationRun simulationRun, int period, String path, String field, String collector,
+                                                                     IterationBitmap iterations) {
+        return IterationFileAccessor.getIterationConstrainedValues(simulationRun.id, period, getPathId(path), getFieldId(field), getCollectorId(collector), iterations)
     }
 
     public static List getSingleValueResults(String collector, String path, String field, SimulationRun run) {
@@ -499,32 +623,33 @@ public static List getSingleValueResults(String collector, String path, String f
         for (int i = 0; i < run.periodCount; i++) {
             File f = new File(GridHelper.getResultPathLocation(run.id, pathId, fieldId, collectorId, i))
             IterationFileAccessor ifa = new IterationFileAccessor(f)
-            int index = 0
-            while (ifa.fetchNext()) {
-                int iteration = ifa.iteration
-                List<Double> values = ifa.singleValues*.aDouble
-                for (Double val in values) {
-                    result << [path, val, field, iteration, i, index++] as Object[]
+            try {
+                int index = 0
+                while (ifa.fetchNext()) {
+                    int iteration = ifa.iteration
+                    List<Double> values = ifa.singleValues*.aDouble
+                    for (Double val in values) {
+                        result << [path, val, field, iteration, i, index++] as Object[]
+                    }
                 }
+            } finally {
+                ifa.close()
             }
         }
         return result
     }
 
+    @CompileStatic
     static boolean isSingleCollector(String collectorName) {
-        CollectorMapping collectorMapping = CollectorMapping.findByCollectorName(SingleValueCollectingModeStrategy.IDENTIFIER)
-        return collectorName.equals(collectorMapping?.collectorName)
+        return SingleValueCollectingModeStrategy.IDENTIFIER.equals(collectorName) &&
+                MappingDictionary.instance.getCollectorId(SingleValueCollectingModeStrategy.IDENTIFIER) != null
     }
 
     @CompileStatic
     public static void clearCaches() {
-        pathCache.clear()
-        fieldCache.clear()
-        collectorCache.clear()
+        MappingDictionary.instance.clear()
+        KeyFigureCache.instance.clear()
+        SortedValuesCache.instance.clear()
     }
 
 }
-
-interface CompareValues {
-    boolean compareValues(double d1, double d2)
-}
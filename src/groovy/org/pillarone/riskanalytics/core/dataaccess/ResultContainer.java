@@ -0,0 +1,312 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Packed storage layout of the results of a simulation run: instead of one file per (path, period, field, collector) all series
+ * are appended as extents to a single segment file. A directory of all series and their extents is appended when the run is
+ * closed:
+ * <pre>
+ * extents*
+ * int entryCount, entryCount * (long pathId, int period, long fieldId, long collectorId, int extentCount,
+ *                               extentCount * (long offset, int length), summary footer)
+ * long directoryOffset, int version, long MAGIC
+ * </pre>
+ * The records of a series are the concatenation of its extents and have the same format as a result file of the default layout.
+ * A manifest next to the segment file carries the names of all path, field and collector ids used in the run, so a container
+ * can be checked without the mapping tables (see readManifest()).
+ * <p/>
+ * The directory is only written when the run is closed. While a run is still writing, its container has no series.
+ * <p/>
+ * IterationFileAccessor and ResultFileSummary resolve the result file of a series transparently, so both layouts can be read
+ * through the same file names.
+ */
+public class ResultContainer {
+
+    public static final String SEGMENT_FILE = "results.seg";
+    public static final String MANIFEST_FILE = "manifest.properties";
+    public static final String MANIFEST_VERSION = "version";
+    public static final String MANIFEST_PATH_PREFIX = "path.";
+    public static final String MANIFEST_FIELD_PREFIX = "field.";
+    public static final String MANIFEST_COLLECTOR_PREFIX = "collector.";
+    public static final long MAGIC = 0x5041524553454731L;
+    public static final int VERSION = 1;
+
+    private static final int TRAILER_SIZE = 20;
+    private static final int CACHE_SIZE = 16;
+
+    private static final Map<String, ResultContainer> CACHE = new LinkedHashMap<String, ResultContainer>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ResultContainer> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final File segmentFile;
+    private final long segmentLength;
+    private final long lastModified;
+    private final Map<String, Entry> entries;
+
+    private ResultContainer(File segmentFile, Map<String, Entry> entries) {
+        this.segmentFile = segmentFile;
+        this.segmentLength = segmentFile.length();
+        this.lastModified = segmentFile.lastModified();
+        this.entries = entries;
+    }
+
+    /**
+     * @return the container of a run directory or null if the run uses the default layout. Containers are cached, opening one
+     *         requires a single read of its directory.
+     */
+    public static ResultContainer open(File runDirectory) throws IOException {
+        File segmentFile = new File(runDirectory, SEGMENT_FILE);
+        if (!segmentFile.exists()) {
+            return null;
+        }
+        String key = segmentFile.getAbsolutePath();
+        synchronized (CACHE) {
+            ResultContainer container = CACHE.get(key);
+            if (container != null && container.segmentLength == segmentFile.length() && container.lastModified == segmentFile.lastModified()) {
+                return container;
+            }
+        }
+        ResultContainer container = new ResultContainer(segmentFile, readDirectory(segmentFile));
+        synchronized (CACHE) {
+            CACHE.put(key, container);
+        }
+        return container;
+    }
+
+    /**
+     * @param resultFile file of a series in the default layout
+     * @return the container holding the series or null if the run uses the default layout
+     */
+    public static ResultContainer forResultFile(File resultFile) throws IOException {
+        File runDirectory = resultFile.getParentFile();
+        return runDirectory != null ? open(runDirectory) : null;
+    }
+
+    public static void evict(File runDirectory) {
+        synchronized (CACHE) {
+            CACHE.remove(new File(runDirectory, SEGMENT_FILE).getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the entries of the directory or an empty map if the container is not closed yet
+     */
+    private static Map<String, Entry> readDirectory(File segmentFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "r");
+        try {
+            long length = raf.length();
+            if (length < TRAILER_SIZE) {
+                return Collections.emptyMap();
+            }
+            raf.seek(length - TRAILER_SIZE);
+            long directoryOffset = raf.readLong();
+            int version = raf.readInt();
+            if (raf.readLong() != MAGIC) {
+                return Collections.emptyMap();
+            }
+            if (version != VERSION) {
+                throw new IllegalStateException("Unsupported result container version " + version + " in " + segmentFile);
+            }
+            byte[] directory = new byte[(int) (length - TRAILER_SIZE - directoryOffset)];
+            raf.seek(directoryOffset);
+            raf.readFully(directory);
+
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(directory));
+            int entryCount = dis.readInt();
+            Map<String, Entry> entries = new LinkedHashMap<String, Entry>(entryCount * 2);
+            for (int i = 0; i < entryCount; i++) {
+                Entry entry = Entry.read(dis);
+                entries.put(entry.getFileName(), entry);
+            }
+            return entries;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Appends the directory and trailer to a segment.
+     *
+     * @param directoryOffset current length of the segment
+     */
+    public static void writeDirectory(DataOutputStream dos, Collection<Entry> entries, long directoryOffset) throws IOException {
+        dos.writeInt(entries.size());
+        for (Entry entry : entries) {
+            entry.write(dos);
+        }
+        dos.writeLong(directoryOffset);
+        dos.writeInt(VERSION);
+        dos.writeLong(MAGIC);
+    }
+
+    public Collection<String> getFileNames() {
+        return Collections.unmodifiableCollection(entries.keySet());
+    }
+
+    public Entry getEntry(String fileName) {
+        return entries.get(fileName);
+    }
+
+    /**
+     * @return the records of the series, a mapped region if the series consists of a single extent or null if the series does not exist
+     */
+    public ByteBuffer read(String fileName) throws IOException {
+        Entry entry = entries.get(fileName);
+        if (entry == null) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (entry.extentCount == 1 && entry.lengths[0] >= IterationFileAccessor.MAPPING_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, entry.offsets[0], entry.lengths[0]);
+            }
+            long length = entry.getLength();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Result series " + fileName + " too large: " + length + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length);
+            for (int i = 0; i < entry.extentCount; i++) {
+                long position = entry.offsets[i];
+                buffer.limit(buffer.position() + entry.lengths[i]);
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("Extent of " + fileName + " exceeds " + segmentFile);
+                    }
+                    position += read;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the names of the ids used in the run (keys MANIFEST_PATH_PREFIX + id etc.), empty if the run is not closed yet
+     */
+    public static Properties readManifest(File runDirectory) throws IOException {
+        Properties manifest = new Properties();
+        File file = new File(runDirectory, MANIFEST_FILE);
+        if (file.exists()) {
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            try {
+                manifest.load(is);
+            } finally {
+                is.close();
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Directory entry of a series.
+     */
+    public static class Entry {
+
+        private long pathId;
+        private int period;
+        private long fieldId;
+        private long collectorId;
+        private int extentCount;
+        private long[] offsets = new long[4];
+        private int[] lengths = new int[4];
+        private ResultFileSummary summary;
+
+        public Entry(long pathId, int period, long fieldId, long collectorId) {
+            this.pathId = pathId;
+            this.period = period;
+            this.fieldId = fieldId;
+            this.collectorId = collectorId;
+        }
+
+        public void addExtent(long offset, int length) {
+            if (extentCount > 0 && offsets[extentCount - 1] + lengths[extentCount - 1] == offset
+                    && (long) lengths[extentCount - 1] + length <= Integer.MAX_VALUE) {
+                lengths[extentCount - 1] += length; // adjacent to the previous extent
+                return;
+            }
+            if (extentCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, extentCount * 2);
+                lengths = Arrays.copyOf(lengths, extentCount * 2);
+            }
+            offsets[extentCount] = offset;
+            lengths[extentCount] = length;
+            extentCount++;
+        }
+
+        public void setSummary(ResultFileSummary summary) {
+            this.summary = summary;
+        }
+
+        public ResultFileSummary getSummary() {
+            return summary;
+        }
+
+        public int getExtentCount() {
+            return extentCount;
+        }
+
+        public long getLength() {
+            long length = 0;
+            for (int i = 0; i < extentCount; i++) {
+                length += lengths[i];
+            }
+            return length;
+        }
+
+        public long getPathId() {
+            return pathId;
+        }
+
+        public int getPeriod() {
+            return period;
+        }
+
+        public long getFieldId() {
+            return fieldId;
+        }
+
+        public long getCollectorId() {
+            return collectorId;
+        }
+
+        public String getFileName() {
+            return pathId + "_" + period + "_" + fieldId + "_" + collectorId;
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            dos.writeLong(pathId);
+            dos.writeInt(period);
+            dos.writeLong(fieldId);
+            dos.writeLong(collectorId);
+            dos.writeInt(extentCount);
+            for (int i = 0; i < extentCount; i++) {
+                dos.writeLong(offsets[i]);
+                dos.writeInt(lengths[i]);
+            }
+            dos.write((summary != null ? summary : new ResultFileSummary()).toByteArray());
+        }
+
+        static Entry read(DataInputStream dis) throws IOException {
+            Entry entry = new Entry(dis.readLong(), dis.readInt(), dis.readLong(), dis.readLong());
+            int extentCount = dis.readInt();
+            for (int i = 0; i < extentCount; i++) {
+                entry.addExtent(dis.readLong(), dis.readInt());
+            }
+            byte[] footer = new byte[ResultFileSummary.FOOTER_SIZE];
+            dis.readFully(footer);
+            entry.summary = ResultFileSummary.read(ByteBuffer.wrap(footer));
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Summary of the aggregated record values of a result file. It is appended as footer by the ResultWriter when a file is closed:
+ * <pre>
+ * long count, double sum, double sumOfSquares, double min, double max, int firstIteration, int lastIteration,
+ * int version, int footerSize, long MAGIC
+ * </pre>
+ * The trailing version, size and magic number allow readers to detect and skip footers. Files written before the footer was
+ * introduced end with a record and are read by a full scan.
+ */
+public class ResultFileSummary {
+
+    public static final long MAGIC = 0x5041524553464F54L;
+    public static final int VERSION = 1;
+
+    private static final int TRAILER_SIZE = 16;
+    public static final int FOOTER_SIZE = 48 + TRAILER_SIZE;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int VALUE_SIZE = 16;
+
+    private long count;
+    private double sum;
+    private double sumOfSquares;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private int firstIteration = -1;
+    private int lastIteration = -1;
+
+    public void add(int iteration, double value) {
+        if (count == 0) {
+            firstIteration = iteration;
+        }
+        lastIteration = iteration;
+        count++;
+        sum += value;
+        sumOfSquares += value * value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all records of a chunk as written by the GridOutputStrategy.
+     */
+    public void addRecords(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = 0;
+        while (data.length - position > 4) {
+            int iteration = buffer.getInt(position);
+            int len = buffer.getInt(position + 4);
+            position += RECORD_HEADER_SIZE;
+            double value = 0;
+            for (int i = 0; i < len; i++) {
+                value += buffer.getDouble(position);
+                position += VALUE_SIZE;
+            }
+            add(iteration, value);
+        }
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(FOOTER_SIZE);
+        DataOutputStream dos = new DataOutputStream(bos);
+        try {
+            dos.writeLong(count);
+            dos.writeDouble(sum);
+            dos.writeDouble(sumOfSquares);
+            dos.writeDouble(min);
+            dos.writeDouble(max);
+            dos.writeInt(firstIteration);
+            dos.writeInt(lastIteration);
+            dos.writeInt(VERSION);
+            dos.writeInt(FOOTER_SIZE);
+            dos.writeLong(MAGIC);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by a ByteArrayOutputStream
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * @return the size of the footer at the end of the buffer (between position and limit) or 0 if there is none.
+     */
+    public static int getFooterSize(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        if (limit - buffer.position() < TRAILER_SIZE || buffer.getLong(limit - 8) != MAGIC) {
+            return 0;
+        }
+        int footerSize = buffer.getInt(limit - 12);
+        if (footerSize < TRAILER_SIZE || footerSize > limit - buffer.position()) {
+            return 0;
+        }
+        return footerSize;
+    }
+
+    /**
+     * @return the summary of the footer at the end of the buffer or null if there is no footer or it was written by an unknown version.
+     */
+    public static ResultFileSummary read(ByteBuffer buffer) {
+        int footerSize = getFooterSize(buffer);
+        int limit = buffer.limit();
+        if (footerSize == 0 || buffer.getInt(limit - TRAILER_SIZE) != VERSION) {
+            return null;
+        }
+        int position = limit - footerSize;
+        ResultFileSummary summary = new ResultFileSummary();
+        summary.count = buffer.getLong(position);
+        summary.sum = buffer.getDouble(position + 8);
+        summary.sumOfSquares = buffer.getDouble(position + 16);
+        summary.min = buffer.getDouble(position + 24);
+        summary.max = buffer.getDouble(position + 32);
+        summary.firstIteration = buffer.getInt(position + 40);
+        summary.lastIteration = buffer.getInt(position + 44);
+        return summary;
+    }
+
+    /**
+     * Reads the footer only, without touching the records of the file. For runs in the packed layout the summary is taken
+     * from the directory of the ResultContainer.
+     *
+     * @return the summary or null if the file does not exist or has no (known) footer
+     */
+    public static ResultFileSummary read(File file) throws IOException {
+        if (!file.exists()) {
+            ResultContainer container = ResultContainer.forResultFile(file);
+            ResultContainer.Entry entry = container != null ? container.getEntry(file.getName()) : null;
+            return entry != null ? entry.getSummary() : null;
+        }
+        if (file.length() < FOOTER_SIZE) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] footer = new byte[FOOTER_SIZE];
+            raf.seek(raf.length() - FOOTER_SIZE);
+            raf.readFully(footer);
+            return read(ByteBuffer.wrap(footer));
+        } finally {
+            raf.close();
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getSumOfSquares() {
+        return sumOfSquares;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public int getFirstIteration() {
+        return firstIteration;
+    }
+
+    public int getLastIteration() {
+        return lastIteration;
+    }
+
+    /**
+     * @param iterations number of iterations of the simulation, iterations without record count as 0
+     */
+    public double getMean(int iterations) {
+        return sum / iterations;
+    }
+
+    /**
+     * @param iterations number of iterations of the simulation, iterations without record count as 0
+     */
+    public double getMin(int iterations) {
+        return count < iterations ? Math.min(min, 0d) : min;
+    }
+
+    /**
+     * @param iterations number of iterations of the simulation, iterations without record count as 0
+     */
+    public double getMax(int iterations) {
+        return count < iterations ? Math.max(max, 0d) : max;
+    }
+}
@@ -0,0 +1,15 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+/**
+ * Selects the result series of a run which are passed to a ResultVisitor or returned by a ResultIterator.
+ */
+public interface ResultFilter {
+
+    ResultFilter ALL = new ResultFilter() {
+        public boolean accept(ResultPathDescriptor descriptor) {
+            return true;
+        }
+    };
+
+    boolean accept(ResultPathDescriptor descriptor);
+}
@@ -0,0 +1,86 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Pull style access to all records of several result series. Only the file of the current series is open, so a run can be
+ * processed in constant memory:
+ * <pre>
+ * ResultIterator iterator = ResultAccessor.iterator(run, filter)
+ * try {
+ *     while (iterator.next()) {
+ *         process(iterator.getDescriptor(), iterator.getIteration(), iterator.getValue())
+ *     }
+ * } finally {
+ *     iterator.close()
+ * }
+ * </pre>
+ */
+public class ResultIterator {
+
+    private final long runId;
+    private final Iterator<ResultPathDescriptor> descriptors;
+    private ResultPathDescriptor descriptor;
+    private IterationFileAccessor accessor;
+
+    public ResultIterator(long runId, List<ResultPathDescriptor> descriptors) {
+        this.runId = runId;
+        this.descriptors = descriptors.iterator();
+    }
+
+    /**
+     * Moves to the next record, opens the file of the next series if necessary.
+     *
+     * @return false if all series are processed
+     */
+    public boolean next() throws Exception {
+        while (true) {
+            if (accessor != null && accessor.fetchNext()) {
+                return true;
+            }
+            close();
+            if (!descriptors.hasNext()) {
+                return false;
+            }
+            descriptor = descriptors.next();
+            accessor = new IterationFileAccessor(new File(descriptor.getResultPathLocation(runId)));
+        }
+    }
+
+    /**
+     * @return the series of the current record
+     */
+    public ResultPathDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public int getIteration() {
+        return accessor.getIteration();
+    }
+
+    /**
+     * @return the aggregated value of the current record
+     */
+    public double getValue() {
+        return accessor.getValue();
+    }
+
+    /**
+     * @return the single values of the current record
+     */
+    public List<DateTimeValuePair> getSingleValues() {
+        return accessor.getSingleValues();
+    }
+
+    /**
+     * Closes the file of the current series. Only needs to be called if the iteration is aborted.
+     */
+    public void close() {
+        if (accessor != null) {
+            accessor.close();
+            accessor = null;
+        }
+    }
+}
@@ -4,6 +4,7 @@
 import org.pillarone.riskanalytics.core.output.PathMapping
 import org.pillarone.riskanalytics.core.output.FieldMapping
 import org.pillarone.riskanalytics.core.output.CollectorMapping
+import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
 
 @CompileStatic
 class ResultPathDescriptor {
@@ -20,7 +21,19 @@ class ResultPathDescriptor {
         this.period = period
     }
 
+    /**
+     * @return the location of the result file of this series (usable from java, which does not see the ids of the mappings)
+     */
+    String getResultPathLocation(long runId) {
+        return GridHelper.getResultPathLocation(runId, path.id, field.id, collector.id, period)
+    }
 
+    /**
+     * @return the name of the result file of this series (without the location of the run)
+     */
+    String getFileName() {
+        return new org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultDescriptor(field.id, path.id, collector.id, period).fileName
+    }
 
     @Override
     String toString() {
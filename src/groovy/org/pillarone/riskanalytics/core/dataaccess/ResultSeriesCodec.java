@@ -0,0 +1,380 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact encoding of result records (int iteration, int count, count * (double value, long date)) used for the grid transfer
+ * and the result files of simulations with compressed results. A chunk of records is encoded column wise:
+ * <pre>
+ * varint recordCount, varint valueCount, varint headerLength, varint dateLength,
+ * headers: recordCount * (zigzag varint iteration delta, varint count)
+ * dates:   (varint unchanged delta count, zigzag varint delta of delta)*
+ * values:  runs of zeros, runs of repeated values or the XOR with the previous value without its leading and trailing zero bytes
+ * </pre>
+ * Dates are mostly the same period start and many values are zero or repeated, so a chunk shrinks to a fraction of its size.
+ * <p/>
+ * An encoded result file starts with FILE_MAGIC and VERSION followed by the chunks, each prefixed with its length. Iterations
+ * are never negative, so the magic can't be mistaken for the first record of a raw file.
+ */
+public class ResultSeriesCodec {
+
+    public static final int FILE_MAGIC = 0xC0DEC5E1;
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 8;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int VALUE_SIZE = 16;
+
+    private static final int ZERO_RUN = 0;
+    private static final int REPEAT_RUN = 1;
+    private static final int XOR_VALUE = 2;
+
+    /**
+     * @param records raw records as written by the GridOutputStrategy
+     * @return the encoded chunk
+     */
+    public static byte[] encode(byte[] records) {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        int recordCount = 0;
+        int valueCount = 0;
+        int position = 0;
+        while (records.length - position > 4) {
+            int len = buffer.getInt(position + 4);
+            position += RECORD_HEADER_SIZE + len * VALUE_SIZE;
+            valueCount += len;
+            recordCount++;
+        }
+
+        Output headers = new Output(recordCount * 2 + 16);
+        long previousIteration = -1;
+        position = 0;
+        for (int i = 0; i < recordCount; i++) {
+            int iteration = buffer.getInt(position);
+            int len = buffer.getInt(position + 4);
+            headers.writeVarLong(zigzag(iteration - previousIteration));
+            headers.writeVarLong(len);
+            previousIteration = iteration;
+            position += RECORD_HEADER_SIZE + len * VALUE_SIZE;
+        }
+
+        Output dates = new Output(16);
+        long previousDate = 0;
+        long previousDelta = 0;
+        int unchanged = 0;
+        position = 0;
+        for (int i = 0; i < recordCount; i++) {
+            int len = buffer.getInt(position + 4);
+            position += RECORD_HEADER_SIZE;
+            for (int j = 0; j < len; j++) {
+                long date = buffer.getLong(position + 8);
+                long delta = date - previousDate;
+                if (delta == previousDelta) {
+                    unchanged++;
+                } else {
+                    dates.writeVarLong(unchanged);
+                    dates.writeVarLong(zigzag(delta - previousDelta));
+                    unchanged = 0;
+                }
+                previousDate = date;
+                previousDelta = delta;
+                position += VALUE_SIZE;
+            }
+        }
+        if (unchanged > 0) {
+            dates.writeVarLong(unchanged);
+        }
+
+        Output values = new Output(valueCount * 2 + 16);
+        long previous = 0;
+        int runType = -1;
+        int run = 0;
+        position = 0;
+        for (int i = 0; i < recordCount; i++) {
+            int len = buffer.getInt(position + 4);
+            position += RECORD_HEADER_SIZE;
+            for (int j = 0; j < len; j++) {
+                long bits = Double.doubleToRawLongBits(buffer.getDouble(position));
+                int type = bits == 0 ? ZERO_RUN : bits == previous ? REPEAT_RUN : XOR_VALUE;
+                if (type == runType) {
+                    run++;
+                } else {
+                    writeRun(values, runType, run);
+                    if (type == XOR_VALUE) {
+                        writeXor(values, bits ^ previous);
+                        previous = bits;
+                        runType = -1;
+                        run = 0;
+                    } else {
+                        runType = type;
+                        run = 1;
+                    }
+                }
+                position += VALUE_SIZE;
+            }
+        }
+        writeRun(values, runType, run);
+
+        Output chunk = new Output(headers.size + dates.size + values.size + 20);
+        chunk.writeVarLong(recordCount);
+        chunk.writeVarLong(valueCount);
+        chunk.writeVarLong(headers.size);
+        chunk.writeVarLong(dates.size);
+        chunk.write(headers);
+        chunk.write(dates);
+        chunk.write(values);
+        return chunk.toByteArray();
+    }
+
+    private static void writeRun(Output out, int runType, int run) {
+        if (run > 0) {
+            out.writeVarLong(((long) run << 2) | runType);
+        }
+    }
+
+    private static void writeXor(Output out, long xor) {
+        int leadingBytes = Long.numberOfLeadingZeros(xor) / 8;
+        int trailingBytes = Long.numberOfTrailingZeros(xor) / 8;
+        out.writeByte(XOR_VALUE | (leadingBytes << 2) | (trailingBytes << 5));
+        for (int shift = (7 - leadingBytes) * 8; shift >= trailingBytes * 8; shift -= 8) {
+            out.writeByte((int) (xor >>> shift));
+        }
+    }
+
+    /**
+     * @return the raw records of an encoded chunk
+     */
+    public static byte[] decode(byte[] chunk) {
+        Input in = new Input(ByteBuffer.wrap(chunk), 0);
+        ByteBuffer target = ByteBuffer.allocate(getRecordsLength(in));
+        decodeChunk(in, target);
+        return target.array();
+    }
+
+    /**
+     * @return true if the buffer holds an encoded result file
+     */
+    public static boolean isEncoded(ByteBuffer buffer) {
+        return buffer.limit() >= FILE_HEADER_SIZE && buffer.getInt(0) == FILE_MAGIC;
+    }
+
+    /**
+     * Decodes all chunks of an encoded result file (up to the limit of the buffer) into a heap buffer holding the raw records.
+     * The position of the source buffer is not changed.
+     */
+    public static ByteBuffer decodeSeries(ByteBuffer buffer) {
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("Unsupported result encoding version " + buffer.getInt(4));
+        }
+        int limit = buffer.limit();
+        long length = 0;
+        int position = FILE_HEADER_SIZE;
+        while (limit - position >= 4) {
+            int chunkLength = buffer.getInt(position);
+            length += getRecordsLength(new Input(buffer, position + 4));
+            position += 4 + chunkLength;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Decoded result series too large: " + length + " bytes");
+        }
+        ByteBuffer target = ByteBuffer.allocate((int) length);
+        position = FILE_HEADER_SIZE;
+        while (limit - position >= 4) {
+            int chunkLength = buffer.getInt(position);
+            decodeChunk(new Input(buffer, position + 4), target);
+            position += 4 + chunkLength;
+        }
+        target.flip();
+        return target;
+    }
+
+    public static byte[] getFileHeader() {
+        return ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(FILE_MAGIC).putInt(VERSION).array();
+    }
+
+    /**
+     * Appends an encoded chunk to a result file.
+     */
+    public static void writeChunk(OutputStream out, byte[] chunk) throws IOException {
+        out.write(ByteBuffer.allocate(4).putInt(chunk.length).array());
+        out.write(chunk);
+    }
+
+    private static int getRecordsLength(Input in) {
+        int position = in.position;
+        long length = in.readVarLong() * RECORD_HEADER_SIZE + in.readVarLong() * VALUE_SIZE;
+        in.position = position;
+        return (int) length;
+    }
+
+    private static void decodeChunk(Input in, ByteBuffer target) {
+        int recordCount = (int) in.readVarLong();
+        in.readVarLong(); // value count, only needed to size the target
+        int headerLength = (int) in.readVarLong();
+        int dateLength = (int) in.readVarLong();
+        int dateStart = in.position + headerLength;
+        int start = target.position();
+        int[] counts = new int[recordCount];
+
+        long iteration = -1;
+        int position = start;
+        for (int i = 0; i < recordCount; i++) {
+            iteration += unzigzag(in.readVarLong());
+            counts[i] = (int) in.readVarLong();
+            target.putInt(position, (int) iteration);
+            target.putInt(position + 4, counts[i]);
+            position += RECORD_HEADER_SIZE + counts[i] * VALUE_SIZE;
+        }
+        int end = position;
+
+        DateDecoder dates = new DateDecoder(new Input(in.buffer, dateStart));
+        position = start;
+        for (int i = 0; i < recordCount; i++) {
+            position += RECORD_HEADER_SIZE;
+            for (int j = 0; j < counts[i]; j++) {
+                target.putLong(position + 8, dates.next());
+                position += VALUE_SIZE;
+            }
+        }
+
+        Input values = new Input(in.buffer, dateStart + dateLength);
+        long previous = 0;
+        int runType = -1;
+        int run = 0;
+        position = start;
+        for (int i = 0; i < recordCount; i++) {
+            position += RECORD_HEADER_SIZE;
+            for (int j = 0; j < counts[i]; j++) {
+                if (run == 0) {
+                    int first = values.peek();
+                    if ((first & 3) == XOR_VALUE) {
+                        values.position++;
+                        int leadingBytes = (first >>> 2) & 7;
+                        int trailingBytes = first >>> 5;
+                        long xor = 0;
+                        for (int b = 8 - leadingBytes - trailingBytes; b > 0; b--) {
+                            xor = (xor << 8) | values.readByte();
+                        }
+                        previous ^= xor << (trailingBytes * 8);
+                        runType = XOR_VALUE;
+                        run = 1;
+                    } else {
+                        long token = values.readVarLong();
+                        runType = (int) (token & 3);
+                        run = (int) (token >>> 2);
+                    }
+                }
+                run--;
+                target.putDouble(position, runType == ZERO_RUN ? 0d : Double.longBitsToDouble(previous));
+                position += VALUE_SIZE;
+            }
+        }
+        target.position(end);
+    }
+
+    /**
+     * Reads the dates of a chunk: a run of unchanged deltas is followed by a changed delta unless the chunk ends.
+     */
+    private static class DateDecoder {
+        final Input in;
+        long date;
+        long delta;
+        long unchanged;
+        boolean changePending;
+
+        DateDecoder(Input in) {
+            this.in = in;
+        }
+
+        long next() {
+            if (unchanged == 0 && !changePending) {
+                unchanged = in.readVarLong();
+                changePending = true;
+            }
+            if (unchanged > 0) {
+                unchanged--;
+            } else {
+                delta += unzigzag(in.readVarLong());
+                changePending = false;
+            }
+            date += delta;
+            return date;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static class Output {
+        byte[] bytes;
+        int size;
+
+        Output(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void write(Output other) {
+            if (size + other.size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + other.size));
+            }
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static class Input {
+        final ByteBuffer buffer;
+        int position;
+
+        Input(ByteBuffer buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int peek() {
+            return buffer.get(position) & 0xFF;
+        }
+
+        int readByte() {
+            return buffer.get(position++) & 0xFF;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+    }
+}
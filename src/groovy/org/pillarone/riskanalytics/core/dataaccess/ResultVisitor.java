@@ -0,0 +1,21 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+/**
+ * Receives the results of a run from ResultAccessor.scan(). The descriptor instance is the same for all records of a series.
+ */
+public interface ResultVisitor {
+
+    /**
+     * @return false to skip the series
+     */
+    boolean startSeries(ResultPathDescriptor descriptor);
+
+    /**
+     * Called for every record of the series in file order.
+     *
+     * @param value the aggregated value of the record
+     */
+    void visit(ResultPathDescriptor descriptor, int iteration, double value);
+
+    void endSeries(ResultPathDescriptor descriptor);
+}
@@ -0,0 +1,307 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective;
+import org.pillarone.riskanalytics.core.util.MathUtils;
+import org.pillarone.riskanalytics.core.util.RiskMeasures;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Compares the result series of two runs. Each series is read once per run, all statistics are calculated from the same values,
+ * with the same functions (see RiskMeasures) and on the same sorted values as the key figures of ResultAccessor. Iterations without
+ * a record count as zero.
+ * <p/>
+ * Series are compared in parallel, at most two series per thread are in memory. The comparisons are passed to the listener in
+ * the order of the series on the calling thread.
+ * <p/>
+ * If iteration differences are requested (only meaningful if both runs use the same random seed) the statistics of
+ * (second value - first value) per iteration are calculated as well.
+ */
+public class RunComparison {
+
+    private static final int SCAN_BUFFER_SIZE = 4096;
+
+    private final int threads;
+    private double[] percentiles = new double[0];
+    private double[] varSeverities = new double[0];
+    private double[] tvarSeverities = new double[0];
+    private QuantilePerspective perspective = QuantilePerspective.LOSS;
+    private boolean iterationDifferences;
+
+    public RunComparison(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setPercentiles(double... severities) {
+        this.percentiles = severities;
+    }
+
+    public void setVarSeverities(double... severities) {
+        this.varSeverities = severities;
+    }
+
+    public void setTvarSeverities(double... severities) {
+        this.tvarSeverities = severities;
+    }
+
+    public void setPerspective(QuantilePerspective perspective) {
+        this.perspective = perspective;
+    }
+
+    public void setIterationDifferences(boolean iterationDifferences) {
+        this.iterationDifferences = iterationDifferences;
+    }
+
+    public interface Listener {
+        void compared(SeriesComparison comparison);
+    }
+
+    /**
+     * @param series the series to compare, a series missing in one of the runs has no statistics for this run
+     */
+    public void compare(final long firstRunId, final int firstIterations, final long secondRunId, final int secondIterations,
+                        List<ResultPathDescriptor> series, Listener listener) throws Exception {
+        if (iterationDifferences && firstIterations != secondIterations) {
+            throw new IllegalArgumentException("Iteration differences require runs with the same number of iterations");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            LinkedList<Future<SeriesComparison>> pending = new LinkedList<Future<SeriesComparison>>();
+            int next = 0;
+            while (next < series.size() || !pending.isEmpty()) {
+                while (next < series.size() && pending.size() < threads * 2) {
+                    final ResultPathDescriptor descriptor = series.get(next++);
+                    pending.add(executor.submit(new Callable<SeriesComparison>() {
+                        public SeriesComparison call() throws Exception {
+                            return compare(descriptor, firstRunId, firstIterations, secondRunId, secondIterations);
+                        }
+                    }));
+                }
+                try {
+                    listener.compared(pending.removeFirst().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private SeriesComparison compare(ResultPathDescriptor descriptor, long firstRunId, int firstIterations, long secondRunId,
+                                     int secondIterations) throws Exception {
+        double[] first = new double[firstIterations];
+        double[] second = new double[secondIterations];
+        boolean firstFound = readValues(new File(descriptor.getResultPathLocation(firstRunId)), first);
+        boolean secondFound = readValues(new File(descriptor.getResultPathLocation(secondRunId)), second);
+        IterationDifference difference = null;
+        if (iterationDifferences && firstFound && secondFound) {
+            difference = new IterationDifference(first, second);
+        }
+        return new SeriesComparison(descriptor, firstFound ? calculate(first) : null, secondFound ? calculate(second) : null, difference);
+    }
+
+    /**
+     * Adds the value of every record to its iteration.
+     *
+     * @return false if the file has no records
+     */
+    private static boolean readValues(File file, double[] valuesPerIteration) throws Exception {
+        double[] values = new double[SCAN_BUFFER_SIZE];
+        int[] iterations = new int[SCAN_BUFFER_SIZE];
+        boolean found = false;
+        IterationFileAccessor ifa = new IterationFileAccessor(file);
+        try {
+            int count;
+            while ((count = ifa.readValues(values, iterations)) > 0) {
+                found = true;
+                for (int i = 0; i < count; i++) {
+                    // iterations are counted from 1
+                    int index = iterations[i] - 1;
+                    if (index < 0 || index >= valuesPerIteration.length) {
+                        throw new IllegalStateException("Iteration " + iterations[i] + " of " + file.getName() + " is not within the iterations of the run");
+                    }
+                    valuesPerIteration[index] += values[i];
+                }
+            }
+        } finally {
+            ifa.close();
+        }
+        return found;
+    }
+
+    private Statistics calculate(double[] values) {
+        Arrays.sort(values);
+        RiskMeasures measures = new RiskMeasures(values);
+        Statistics result = new Statistics();
+        result.mean = measures.getMean();
+        result.stdDev = measures.getStdDev();
+        result.min = measures.getMin();
+        result.max = measures.getMax();
+        result.percentiles = measures.getPercentiles(percentiles, perspective);
+        result.vars = measures.getVars(varSeverities, perspective);
+        result.tvars = measures.getTvars(tvarSeverities, perspective);
+        return result;
+    }
+
+    /**
+     * Key figures of a series in one run, the percentiles, VaRs and TVaRs in the order of the requested severities.
+     */
+    public static class Statistics {
+        double mean;
+        double stdDev;
+        double min;
+        double max;
+        double[] percentiles;
+        double[] vars;
+        double[] tvars;
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getPercentile(int index) {
+            return percentiles[index];
+        }
+
+        public double getVar(int index) {
+            return vars[index];
+        }
+
+        public double getTvar(int index) {
+            return tvars[index];
+        }
+    }
+
+    /**
+     * Statistics of the per iteration differences (second - first) of a series.
+     */
+    public static class IterationDifference {
+        final double mean;
+        final double stdDev;
+        final double min;
+        final double max;
+        final int changedIterations;
+
+        IterationDifference(double[] first, double[] second) {
+            double[] differences = new double[first.length];
+            int changed = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < differences.length; i++) {
+                double difference = second[i] - first[i];
+                differences[i] = difference;
+                if (difference != 0) {
+                    changed++;
+                }
+                min = Math.min(min, difference);
+                max = Math.max(max, difference);
+            }
+            this.mean = MathUtils.calculateMean(differences);
+            this.stdDev = MathUtils.calculateStandardDeviation(differences, mean);
+            this.min = min;
+            this.max = max;
+            this.changedIterations = changed;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getStdDev() {
+            return stdDev;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public int getChangedIterations() {
+            return changedIterations;
+        }
+    }
+
+    public static class SeriesComparison {
+        final ResultPathDescriptor descriptor;
+        final Statistics first;
+        final Statistics second;
+        final IterationDifference iterationDifference;
+
+        SeriesComparison(ResultPathDescriptor descriptor, Statistics first, Statistics second, IterationDifference iterationDifference) {
+            this.descriptor = descriptor;
+            this.first = first;
+            this.second = second;
+            this.iterationDifference = iterationDifference;
+        }
+
+        public ResultPathDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * @return the statistics of the first run or null if it has no values for this series
+         */
+        public Statistics getFirst() {
+            return first;
+        }
+
+        /**
+         * @return the statistics of the second run or null if it has no values for this series
+         */
+        public Statistics getSecond() {
+            return second;
+        }
+
+        /**
+         * @return null if not requested or the series is missing in one of the runs
+         */
+        public IterationDifference getIterationDifference() {
+            return iterationDifference;
+        }
+
+        public boolean isComplete() {
+            return first != null && second != null;
+        }
+
+        public double getMeanDelta() {
+            return second.mean - first.mean;
+        }
+
+        public double getStdDevDelta() {
+            return second.stdDev - first.stdDev;
+        }
+
+        public double getPercentileDelta(int index) {
+            return second.percentiles[index] - first.percentiles[index];
+        }
+
+        public double getVarDelta(int index) {
+            return second.vars[index] - first.vars[index];
+        }
+
+        public double getTvarDelta(int index) {
+            return second.tvars[index] - first.tvars[index];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.pillarone.riskanalytics.core.dataaccess;
+
+import org.pillarone.riskanalytics.core.util.Configuration;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the sorted values of result series, bounded by the memory used by the cached arrays. Interactive result views
+ * request several key figures of the same series, with this cache the series is only read and sorted once.
+ * <p/>
+ * Cached arrays are shared and must not be modified. The cache of a run has to be invalidated when the run is deleted.
+ */
+public class SortedValuesCache {
+
+    /**
+     * Config key for the maximum memory used by the cached values in megabytes
+     */
+    public static final String MAX_SIZE_KEY = "sortedValuesCacheSize";
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static SortedValuesCache instance;
+
+    private final long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    private final LinkedHashMap<Key, double[]> entries = new LinkedHashMap<Key, double[]>(64, 0.75f, true);
+
+    public SortedValuesCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized SortedValuesCache getInstance() {
+        if (instance == null) {
+            instance = new SortedValuesCache(Configuration.getInteger(MAX_SIZE_KEY, DEFAULT_MAX_SIZE) * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the cached values or null
+     */
+    public synchronized double[] get(long runId, int period, long pathId, long fieldId, long collectorId) {
+        double[] values = entries.get(new Key(runId, period, pathId, fieldId, collectorId));
+        if (values != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return values;
+    }
+
+    /**
+     * Adds the values and evicts the least recently used series until the cache fits into its size limit. Series larger than the
+     * limit are not cached.
+     */
+    public synchronized void put(long runId, int period, long pathId, long fieldId, long collectorId, double[] sortedValues) {
+        long size = getSize(sortedValues);
+        if (size > maxBytes) {
+            return;
+        }
+        double[] previous = entries.put(new Key(runId, period, pathId, fieldId, collectorId), sortedValues);
+        if (previous != null) {
+            bytes -= getSize(previous);
+        }
+        bytes += size;
+        Iterator<double[]> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= getSize(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all series of a run.
+     */
+    public synchronized void invalidate(long runId) {
+        Iterator<Map.Entry<Key, double[]>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, double[]> entry = iterator.next();
+            if (entry.getKey().runId == runId) {
+                bytes -= getSize(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private static long getSize(double[] values) {
+        return values.length * 8L + ENTRY_OVERHEAD;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxSizeInBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SortedValuesCache[entries: " + entries.size() + ", bytes: " + bytes + "/" + maxBytes + ", hits: " + hits + ", misses: " + misses + "]";
+    }
+
+    private static final class Key {
+        final long runId;
+        final int period;
+        final long pathId;
+        final long fieldId;
+        final long collectorId;
+
+        Key(long runId, int period, long pathId, long fieldId, long collectorId) {
+            this.runId = runId;
+            this.period = period;
+            this.pathId = pathId;
+            this.fieldId = fieldId;
+            this.collectorId = collectorId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return runId == other.runId && period == other.period && pathId == other.pathId && fieldId == other.fieldId
+                    && collectorId == other.collectorId;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (runId ^ (runId >>> 32));
+            result = 31 * result + period;
+            result = 31 * result + (int) (pathId ^ (pathId >>> 32));
+            result = 31 * result + (int) (fieldId ^ (fieldId >>> 32));
+            result = 31 * result + (int) (collectorId ^ (collectorId >>> 32));
+            return result;
+        }
+    }
+}
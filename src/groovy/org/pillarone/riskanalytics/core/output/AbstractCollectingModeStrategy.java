@@ -4,6 +4,8 @@
 import org.apache.commons.logging.LogFactory;
 import org.joda.time.DateTime;
 import org.pillarone.riskanalytics.core.packets.Packet;
+import org.pillarone.riskanalytics.core.packets.PacketList;
+import org.pillarone.riskanalytics.core.packets.PacketValueExtractor;
 import org.pillarone.riskanalytics.core.simulation.SimulationException;
 import org.pillarone.riskanalytics.core.simulation.engine.PeriodScope;
 
@@ -17,6 +19,94 @@ abstract public class AbstractCollectingModeStrategy implements ICollectingModeS
 
     private Log LOG = LogFactory.getLog(AbstractCollectingModeStrategy.class);
 
+    // reused for every packet, a strategy is used by one collector
+    private double[] extractedValues = new double[0];
+
+    // mappings resolved once for the block based collection
+    private CollectorMapping collectorMapping;
+    private PacketValueExtractor mappedExtractor;
+    private FieldMapping[] extractorFields;
+
+    /**
+     * Adds the results of the packets to the block of the collector instead of creating SingleValueResultPOJOs. The block
+     * gets the same results as collect(packets, crashSimulationOnError) would return.
+     *
+     * @return false if the strategy does not support blocks, the results have to be collected with
+     * collect(packets, crashSimulationOnError)
+     */
+    public boolean collect(PacketList packets, ResultBlock block, boolean crashSimulationOnError) throws IllegalAccessException {
+        return false;
+    }
+
+    /**
+     * @return true if collect(packets, crashSimulationOnError) is implemented by the given class, i.e. not overridden by a
+     * subclass which may collect other results than the block based implementation of the given class
+     */
+    protected boolean isListCollectionOf(Class implementation) {
+        try {
+            return getClass().getMethod("collect", PacketList.class, boolean.class).getDeclaringClass() == implementation;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Same as createSingleValueResults(packet, extractor, values, ...), the results are added to the block.
+     */
+    protected void addResults(ResultBlock block, Packet packet, PacketValueExtractor extractor, double[] values, int valueIndex, boolean crashSimOnError) {
+        PeriodScope periodScope = packetCollector.getSimulationScope().getIterationScope().getPeriodScope();
+        int period = getPeriod(packet, periodScope);
+        long date = getDateMillis(packet, periodScope);
+        CollectorMapping collector = getCollectorMapping();
+        FieldMapping[] fields = getFieldMappings(extractor);
+        for (int i = 0; i < fields.length; i++) {
+            double value = values[i];
+            if ((Double.isNaN(value) || Double.isInfinite(value)) &&
+                    checkInvalidValues(extractor.getFieldName(i), value, period, block.getIteration(), crashSimOnError)) continue;
+            block.add(period, valueIndex, fields[i], collector, value, date);
+        }
+    }
+
+    /**
+     * Same as createSingleValueResults(packet, valueMap, ...), the results are added to the block.
+     */
+    protected void addResults(ResultBlock block, Packet packet, Map<String, Number> valueMap, int valueIndex, boolean crashSimOnError) {
+        PeriodScope periodScope = packetCollector.getSimulationScope().getIterationScope().getPeriodScope();
+        int period = getPeriod(packet, periodScope);
+        long date = getDateMillis(packet, periodScope);
+        CollectorMapping collector = getCollectorMapping();
+        for (Map.Entry<String, Number> entry : valueMap.entrySet()) {
+            String name = entry.getKey();
+            double value = entry.getValue().doubleValue();
+            if (checkInvalidValues(name, value, period, block.getIteration(), crashSimOnError)) continue;
+            block.add(period, valueIndex, packetCollector.getSimulationScope().getMappingCache().lookupField(name), collector, value, date);
+        }
+    }
+
+    private CollectorMapping getCollectorMapping() {
+        if (collectorMapping == null) {
+            collectorMapping = packetCollector.getSimulationScope().getMappingCache().lookupCollector(getIdentifier());
+        }
+        return collectorMapping;
+    }
+
+    private FieldMapping[] getFieldMappings(PacketValueExtractor extractor) {
+        if (extractor != mappedExtractor) {
+            FieldMapping[] fields = new FieldMapping[extractor.getFieldCount()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = packetCollector.getSimulationScope().getMappingCache().lookupField(extractor.getFieldName(i));
+            }
+            extractorFields = fields;
+            mappedExtractor = extractor;
+        }
+        return extractorFields;
+    }
+
+    private long getDateMillis(Packet packet, PeriodScope periodScope) {
+        DateTime date = getDate(packet, periodScope);
+        return date == null ? ResultBlock.NO_DATE : date.getMillis();
+    }
+
     /**
      *
      * @param packet        Period information in following packets is ignored. If no period information is found the
@@ -31,6 +121,50 @@ protected List<SingleValueResultPOJO> createSingleValueResults(Packet packet, Ma
         return createSingleValueResults(valueMap, valueIndex, getPeriod(packet, periodScope), getDate(packet, periodScope), crashSimOnError);
     }
 
+    /**
+     * @return the values of the packet in an array which is reused by the next call
+     */
+    protected double[] extractValues(Packet packet, PacketValueExtractor extractor) {
+        if (extractedValues.length < extractor.getFieldCount()) {
+            extractedValues = new double[extractor.getFieldCount()];
+        }
+        extractor.extract(packet, extractedValues);
+        return extractedValues;
+    }
+
+    /**
+     * Same as createSingleValueResults(packet, valueMap, ...) for values extracted by a PacketValueExtractor, no value map is
+     * created.
+     *
+     * @param values the values in the field order of the extractor
+     */
+    protected List<SingleValueResultPOJO> createSingleValueResults(Packet packet, PacketValueExtractor extractor, double[] values, int valueIndex, boolean crashSimOnError) {
+        int fieldCount = extractor.getFieldCount();
+        PeriodScope periodScope = packetCollector.getSimulationScope().getIterationScope().getPeriodScope();
+        int period = getPeriod(packet, periodScope);
+        DateTime date = getDate(packet, periodScope);
+        List<SingleValueResultPOJO> results = new ArrayList<SingleValueResultPOJO>(fieldCount);
+        int iteration = packetCollector.getSimulationScope().getIterationScope().getCurrentIteration();
+        PathMapping path = packetCollector.getSimulationScope().getMappingCache().lookupPath(packetCollector.getPath());
+        CollectorMapping collector = packetCollector.getSimulationScope().getMappingCache().lookupCollector(packetCollector.getMode().getIdentifier());
+        for (int i = 0; i < fieldCount; i++) {
+            String name = extractor.getFieldName(i);
+            Double value = values[i];
+            if (checkInvalidValues(name, value, period, iteration, crashSimOnError)) continue;
+            SingleValueResultPOJO result = new SingleValueResultPOJO();
+            result.setIteration(iteration);
+            result.setPeriod(period);
+            result.setPath(path);
+            result.setCollector(collector);
+            result.setField(packetCollector.getSimulationScope().getMappingCache().lookupField(name));
+            result.setValueIndex(valueIndex);
+            result.setValue(value);
+            result.setDate(date);
+            results.add(result);
+        }
+        return results;
+    }
+
     /**
      * @param packet
      * @param periodScope
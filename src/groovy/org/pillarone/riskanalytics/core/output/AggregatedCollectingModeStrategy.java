@@ -2,8 +2,10 @@
 
 import org.pillarone.riskanalytics.core.output.aggregation.IPacketAggregator;
 import org.pillarone.riskanalytics.core.output.aggregation.PacketAggregatorRegistry;
+import org.pillarone.riskanalytics.core.output.aggregation.SumAggregator;
 import org.pillarone.riskanalytics.core.packets.Packet;
 import org.pillarone.riskanalytics.core.packets.PacketList;
+import org.pillarone.riskanalytics.core.packets.PacketValueExtractor;
 
 import java.util.List;
 import java.util.Locale;
@@ -16,13 +18,63 @@ public class AggregatedCollectingModeStrategy extends AbstractCollectingModeStra
     private static final String RESOURCE_BUNDLE = "org.pillarone.riskanalytics.core.output.applicationResources";
     private String displayName;
 
+    // reused for the sums of every call
+    private double[] sums = new double[0];
 
     public List<SingleValueResultPOJO> collect(PacketList packets, boolean crashSimulationOnError) throws IllegalAccessException {
         IPacketAggregator<Packet> sumAggregator = PacketAggregatorRegistry.getAggregator(packets.get(0).getClass());
+        PacketValueExtractor summed = sumFields(packets, sumAggregator);
+        if (summed != null) {
+            return createSingleValueResults((Packet) packets.get(0), summed, sums, 0, crashSimulationOnError);
+        }
         Packet aggregatedPacket = sumAggregator.aggregate(packets);
+        PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(aggregatedPacket);
+        if (extractor != null) {
+            return createSingleValueResults((Packet) packets.get(0), extractor, extractValues(aggregatedPacket, extractor), 0, crashSimulationOnError);
+        }
         return createSingleValueResults((Packet) packets.get(0), aggregatedPacket.getValuesToSave(), 0, crashSimulationOnError);
     }
 
+    @Override
+    public boolean collect(PacketList packets, ResultBlock block, boolean crashSimulationOnError) throws IllegalAccessException {
+        if (!isListCollectionOf(AggregatedCollectingModeStrategy.class)) {
+            return false;
+        }
+        IPacketAggregator<Packet> sumAggregator = PacketAggregatorRegistry.getAggregator(packets.get(0).getClass());
+        PacketValueExtractor summed = sumFields(packets, sumAggregator);
+        if (summed != null) {
+            addResults(block, (Packet) packets.get(0), summed, sums, 0, crashSimulationOnError);
+            return true;
+        }
+        Packet aggregatedPacket = sumAggregator.aggregate(packets);
+        PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(aggregatedPacket);
+        if (extractor != null) {
+            addResults(block, (Packet) packets.get(0), extractor, extractValues(aggregatedPacket, extractor), 0, crashSimulationOnError);
+        } else {
+            addResults(block, (Packet) packets.get(0), aggregatedPacket.getValuesToSave(), 0, crashSimulationOnError);
+        }
+        return true;
+    }
+
+    /**
+     * Sums the fields of packets aggregated by the SumAggregator into sums, no aggregated packet is created.
+     *
+     * @return the extractor of the packets or null if the packets have to be aggregated by the aggregator
+     */
+    private PacketValueExtractor sumFields(PacketList packets, IPacketAggregator<Packet> aggregator) {
+        if (aggregator.getClass() != SumAggregator.class) {
+            return null;
+        }
+        PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor((Packet) packets.get(0));
+        if (extractor == null || !extractor.hasSettableFields()) {
+            return null;
+        }
+        if (sums.length < extractor.getFieldCount()) {
+            sums = new double[extractor.getFieldCount()];
+        }
+        return SumAggregator.sumFields(packets, extractor, sums) ? extractor : null;
+    }
+
     public String getDisplayName(Locale locale) {
         if (displayName == null) {
             displayName = ResourceBundle.getBundle(RESOURCE_BUNDLE, locale, Thread.currentThread().getContextClassLoader()).getString("ICollectingModeStrategy." + getIdentifier());
@@ -5,33 +5,62 @@
 import org.apache.commons.logging.LogFactory
 import org.pillarone.riskanalytics.core.dataaccess.ResultAccessor
 import org.pillarone.riskanalytics.core.output.batch.calculations.AbstractCalculationsBulkInsert
-import org.pillarone.riskanalytics.core.util.MathUtils
+import org.pillarone.riskanalytics.core.util.IRiskMeasures
+import org.pillarone.riskanalytics.core.util.RiskMeasures
 import org.pillarone.riskanalytics.core.dataaccess.ResultDescriptor
 import org.joda.time.DateTime
 import org.pillarone.riskanalytics.core.dataaccess.ResultPathDescriptor
 import org.pillarone.riskanalytics.core.simulation.item.Simulation
-
+import org.pillarone.riskanalytics.core.util.Configuration
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Calculates the key figures of all result series of a run and stores them as PostSimulationCalculations.
+ * The series are partitioned over a fork join pool if the configured parallelism (see PARALLELISM_KEY) is greater than one.
+ * If sketches are set, the key figures of the sketched series are calculated from the sketches without reading the result files.
+ * Every series is calculated once, series calculated already with calculateSeries are skipped.
+ */
 class Calculator {
 
     private static Log LOG = LogFactory.getLog(Calculator)
 
+    /**
+     * Config key for the number of threads calculating key figures, defaults to the number of processors
+     */
+    public static final String PARALLELISM_KEY = "postSimulationCalculationParallelism"
+
     private SimulationRun run
     private List<ResultPathDescriptor> pathDescriptors
-    private int totalCalculations
-    private int completedCalculations
+    // file names of the series calculated already, see calculateSeries
+    private final Set<String> calculatedSeries = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
+    private final AtomicInteger totalCalculations = new AtomicInteger()
+    private final AtomicInteger completed = new AtomicInteger()
+    // calculations of key figures which are not calculated for non stochastic series
+    private final AtomicInteger skippedCalculations = new AtomicInteger()
     private Map keyFigures
     private long startTime
     int keyFigureCount
 
     private AbstractCalculationsBulkInsert bulkInsert
 
-    boolean stopped = false
+    volatile boolean stopped = false
+
+    /**
+     * Sketches of the result series by result file name (see ResultPathDescriptor.getFileName()), completed with
+     * ResultSketch.addMissingIterations. Only read during calculate().
+     */
+    Map<String, ResultSketch> sketches
+
+    int parallelism = Configuration.getInteger(PARALLELISM_KEY, Runtime.runtime.availableProcessors())
 
     public Calculator(Simulation simulation) {
         bulkInsert = AbstractCalculationsBulkInsert.getBulkInsertInstance()
         run = simulation.simulationRun
         bulkInsert.simulationRun = run
-        pathDescriptors = ResultAccessor.getDistinctPaths(run)
         keyFigures = simulation.keyFiguresToPreCalculate
         keyFigureCount = 0 //isStochastic + mean
         keyFigures.entrySet().each {Map.Entry entry ->
@@ -42,24 +71,52 @@ public Calculator(Simulation simulation) {
                 keyFigureCount++
             }
         }
-        totalCalculations = keyFigureCount * pathDescriptors.size()
-        completedCalculations = 0
+        loadPathDescriptors()
+    }
+
+    /**
+     * Reads the result series of the run again, required if the calculator was created before all result files were written.
+     */
+    @CompileStatic
+    void loadPathDescriptors() {
+        pathDescriptors = ResultAccessor.getDistinctPaths(run)
+        totalCalculations.set(keyFigureCount * pathDescriptors.size() - skippedCalculations.get())
+    }
+
+    /**
+     * Calculates the key figures of a series whose result file is complete while the results of other series are still written
+     * (see PipelinedCalculation). calculate() skips this series. Thread safe, like calculate(descriptor).
+     */
+    @CompileStatic
+    void calculateSeries(ResultPathDescriptor descriptor) {
+        calculate(descriptor)
+    }
+
+    @CompileStatic
+    int getCompletedCalculations() {
+        return completed.get()
+    }
+
+    @CompileStatic
+    void setCompletedCalculations(int completedCalculations) {
+        completed.set(completedCalculations)
     }
 
     @CompileStatic
     int getProgress() {
-        return (int) ((double) completedCalculations / (double) totalCalculations * 100d)
+        return (int) ((double) completed.get() / (double) totalCalculations.get() * 100d)
     }
 
     @CompileStatic
     DateTime getEstimatedEnd() {
+        int completedCalculations = completed.get()
         if (startTime == null || completedCalculations == 0) {
             return null
         }
 
         long now = System.currentTimeMillis()
         BigDecimal timeForOneKeyFigure = (now - startTime) / completedCalculations
-        long estimatedEndTime = (now + (totalCalculations - completedCalculations) * timeForOneKeyFigure).toLong()
+        long estimatedEndTime = (now + (totalCalculations.get() - completedCalculations) * timeForOneKeyFigure).toLong()
         return new DateTime(estimatedEndTime)
     }
 
@@ -67,65 +124,124 @@ DateTime getEstimatedEnd() {
     void calculate() {
         startTime = System.currentTimeMillis()
 
-        for (ResultPathDescriptor descriptor in pathDescriptors) {
-            if(stopped) {
-                break
+        if (parallelism > 1 && pathDescriptors.size() > 1) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism)
+            try {
+                pool.invoke(new CalculationTask(this, pathDescriptors, 0, pathDescriptors.size()))
+            } finally {
+                pool.shutdown()
             }
-            PathMapping path = descriptor.path
-            int periodIndex = descriptor.period
-            CollectorMapping collector = descriptor.collector
-            FieldMapping field = descriptor.field
-
-            double[] values = loadValues(path, periodIndex, collector, field)
-            double avg = calculateMean(periodIndex, path, collector, field, values)
-            boolean isStochastic = calculateIsStochastic(periodIndex, path, collector, field, values)
-
-            if (isStochastic) {
-                if (keyFigures.get(PostSimulationCalculation.STDEV)) {
-                    calculateStandardDeviation(periodIndex, path, collector, field, values, avg)
-                    completedCalculations++
-                }
-                def percentiles = keyFigures.get(PostSimulationCalculation.PERCENTILE)
-                def vars = keyFigures.get(PostSimulationCalculation.VAR)
-                def tvars = keyFigures.get(PostSimulationCalculation.TVAR)
-                def percentilesProfit = keyFigures.get(PostSimulationCalculation.PERCENTILE_PROFIT)
-                def varsProfit = keyFigures.get(PostSimulationCalculation.VAR_PROFIT)
-                def tvarsProfit = keyFigures.get(PostSimulationCalculation.TVAR_PROFIT)
-                def pdf = keyFigures.get(PostSimulationCalculation.PDF)
-                percentiles?.each {double p ->
-                    calculatePercentile(periodIndex, path, collector, field, values, p, QuantilePerspective.LOSS)
-                    completedCalculations++
-                }
-                vars?.each {double p ->
-                    calculateVar(periodIndex, path, collector, field, values, p, avg, QuantilePerspective.LOSS)
-                    completedCalculations++
-                }
-                tvars?.each {double p ->
-                    calculateTvar(periodIndex, path, collector, field, values, p, QuantilePerspective.LOSS)
-                    completedCalculations++
-                }
-                percentilesProfit?.each {double p ->
-                    calculatePercentile(periodIndex, path, collector, field, values, p, QuantilePerspective.PROFIT)
-                    completedCalculations++
-                }
-                varsProfit?.each {double p ->
-                    calculateVar(periodIndex, path, collector, field, values, p, avg, QuantilePerspective.PROFIT)
-                    completedCalculations++
-                }
-                tvarsProfit?.each {double p ->
-                    calculateTvar(periodIndex, path, collector, field, values, p, QuantilePerspective.PROFIT)
-                    completedCalculations++
+        } else {
+            for (ResultPathDescriptor descriptor in pathDescriptors) {
+                if (stopped) {
+                    break
                 }
+                calculate(descriptor)
+            }
+        }
+        bulkInsert.saveToDB()
+        LOG.info("Post Simulation Calculation done in ${System.currentTimeMillis() - startTime}ms (#paths ${pathDescriptors.size()}, parallelism ${parallelism})")
+    }
 
-                if (pdf) {
-                    calculatePDF(periodIndex, path, collector, field, values, pdf)
-                }
+    /**
+     * Calculates all key figures of a series, may be called concurrently for different series (the bulk insert is thread safe).
+     */
+    @CompileStatic
+    protected void calculate(ResultPathDescriptor descriptor) {
+        if (!calculatedSeries.add(descriptor.fileName)) {
+            return
+        }
+        PathMapping path = descriptor.path
+        int periodIndex = descriptor.period
+        CollectorMapping collector = descriptor.collector
+        FieldMapping field = descriptor.field
+
+        ResultSketch sketch = sketches?.get(descriptor.fileName)
+        double[] values = null
+        IRiskMeasures measures
+        if (sketch != null) {
+            measures = sketch
+        } else {
+            values = loadValues(path, periodIndex, collector, field)
+            measures = new RiskMeasures(values)
+        }
+        calculateMean(periodIndex, path, collector, field, measures)
+        boolean isStochastic = calculateIsStochastic(periodIndex, path, collector, field, measures)
+
+        if (isStochastic) {
+            if (keyFigures.get(PostSimulationCalculation.STDEV)) {
+                calculateStandardDeviation(periodIndex, path, collector, field, measures)
+                completed.incrementAndGet()
+            }
+            def percentiles = keyFigures.get(PostSimulationCalculation.PERCENTILE)
+            def vars = keyFigures.get(PostSimulationCalculation.VAR)
+            def tvars = keyFigures.get(PostSimulationCalculation.TVAR)
+            def percentilesProfit = keyFigures.get(PostSimulationCalculation.PERCENTILE_PROFIT)
+            def varsProfit = keyFigures.get(PostSimulationCalculation.VAR_PROFIT)
+            def tvarsProfit = keyFigures.get(PostSimulationCalculation.TVAR_PROFIT)
+            def pdf = keyFigures.get(PostSimulationCalculation.PDF)
+            percentiles?.each {double p ->
+                calculatePercentile(periodIndex, path, collector, field, measures, p, QuantilePerspective.LOSS)
+                completed.incrementAndGet()
+            }
+            vars?.each {double p ->
+                calculateVar(periodIndex, path, collector, field, measures, p, QuantilePerspective.LOSS)
+                completed.incrementAndGet()
+            }
+            tvars?.each {double p ->
+                calculateTvar(periodIndex, path, collector, field, measures, p, QuantilePerspective.LOSS)
+                completed.incrementAndGet()
+            }
+            percentilesProfit?.each {double p ->
+                calculatePercentile(periodIndex, path, collector, field, measures, p, QuantilePerspective.PROFIT)
+                completed.incrementAndGet()
+            }
+            varsProfit?.each {double p ->
+                calculateVar(periodIndex, path, collector, field, measures, p, QuantilePerspective.PROFIT)
+                completed.incrementAndGet()
+            }
+            tvarsProfit?.each {double p ->
+                calculateTvar(periodIndex, path, collector, field, measures, p, QuantilePerspective.PROFIT)
+                completed.incrementAndGet()
+            }
+
+            if (pdf) {
+                calculatePDF(periodIndex, path, collector, field, values != null ? values : loadValues(path, periodIndex, collector, field), pdf)
+            }
+        } else {
+            skippedCalculations.addAndGet(keyFigureCount - 2)
+            totalCalculations.addAndGet(-(keyFigureCount - 2))
+        }
+    }
+
+    /**
+     * Splits the series until a single one is left.
+     */
+    private static class CalculationTask extends RecursiveAction {
+        private final Calculator calculator
+        private final List<ResultPathDescriptor> descriptors
+        private final int from
+        private final int to
+
+        CalculationTask(Calculator calculator, List<ResultPathDescriptor> descriptors, int from, int to) {
+            this.calculator = calculator
+            this.descriptors = descriptors
+            this.from = from
+            this.to = to
+        }
+
+        @CompileStatic
+        protected void compute() {
+            if (calculator.stopped) {
+                return
+            }
+            if (to - from == 1) {
+                calculator.calculate(descriptors.get(from))
             } else {
-                totalCalculations -= (keyFigureCount - 2)
+                int middle = (from + to) >>> 1
+                invokeAll(new CalculationTask(calculator, descriptors, from, middle), new CalculationTask(calculator, descriptors, middle, to))
             }
         }
-        bulkInsert.saveToDB()
-        LOG.info("Post Simulation Calculation done in ${System.currentTimeMillis() - startTime}ms (#paths ${pathDescriptors.size()})")
     }
 
     /**
@@ -136,7 +252,8 @@ private double[] loadValues(PathMapping path, int periodIndex, CollectorMapping
 
         long time = System.currentTimeMillis()
 
-        double[] results = ResultAccessor.getValuesSorted(run, periodIndex, path.pathName, collector.collectorName, field.fieldName) as double[]
+        // every series is read once, so the SortedValuesCache is bypassed
+        double[] results = ResultAccessor.readValuesSorted(run, periodIndex, path.id, collector.id, field.id)
 
         LOG.debug("Loaded results for calculations (${path.pathName}, period: $periodIndex) in ${System.currentTimeMillis() - time}ms")
         return results
@@ -165,10 +282,10 @@ private boolean calculateIsStochastic(int periodIndex, long pathId, long collect
     }
 
     @CompileStatic
-    private double calculateMean(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results) {
+    private double calculateMean(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures) {
         long time = System.currentTimeMillis()
 
-        Double mean = MathUtils.calculateMean(results)
+        Double mean = measures.mean
         bulkInsert.addResults(periodIndex, PostSimulationCalculation.MEAN, null, path.id, field.id, collector.id, mean)
 
         LOG.debug("Calculated mean ($path.pathName, period: $periodIndex) in ${System.currentTimeMillis() - time}ms")
@@ -178,10 +295,10 @@ private double calculateMean(int periodIndex, PathMapping path, CollectorMapping
 
 
     @CompileStatic
-    private boolean calculateIsStochastic(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results) {
+    private boolean calculateIsStochastic(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures) {
         long time = System.currentTimeMillis()
 
-        boolean isStochastic = results[0] != results[results.length - 1]
+        boolean isStochastic = measures.min != measures.max
         bulkInsert.addResults(periodIndex, PostSimulationCalculation.IS_STOCHASTIC, null, path.id, field.id, collector.id, isStochastic ? 0d : 1d)
 
         LOG.debug("Calculated is stochastic ($path.pathName, period: $periodIndex) in ${System.currentTimeMillis() - time}ms")
@@ -191,20 +308,20 @@ private boolean calculateIsStochastic(int periodIndex, PathMapping path, Collect
 
 
     @CompileStatic
-    private void calculateStandardDeviation(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results, double mean) {
+    private void calculateStandardDeviation(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures) {
         long time = System.currentTimeMillis()
 
-        Double stdev = MathUtils.calculateStandardDeviation(results, mean)
+        Double stdev = measures.stdDev
         bulkInsert.addResults(periodIndex, PostSimulationCalculation.STDEV, null, path.id, field.id, collector.id, stdev)
 
         LOG.debug("Calculated stdev (${path.pathName}, period: $periodIndex) in ${System.currentTimeMillis() - time}ms")
     }
 
     @CompileStatic
-    private void calculatePercentile(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results, double severity, QuantilePerspective perspective) {
+    private void calculatePercentile(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures, double severity, QuantilePerspective perspective) {
         long time = System.currentTimeMillis()
 
-        double p = MathUtils.calculatePercentileOfSortedValues(results, severity, perspective)
+        double p = measures.getPercentile(severity, perspective)
         bulkInsert.addResults(periodIndex, perspective.getPercentileAsString(), severity, path.id, field.id, collector.id, p)
 
 
@@ -224,11 +341,11 @@ private void calculatePDF(int periodIndex, PathMapping path, CollectorMapping co
 
 
     @CompileStatic
-    private void calculateVar(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results, double severity, double mean,
+    private void calculateVar(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures, double severity,
                               QuantilePerspective perspective) {
         long time = System.currentTimeMillis()
 
-        Double var = MathUtils.calculateVarOfSortedValues(results, severity, mean, perspective)
+        Double var = measures.getVar(severity, perspective)
         bulkInsert.addResults(periodIndex, perspective.getVarAsString(), severity, path.id, field.id, collector.id, var)
 
 
@@ -236,11 +353,11 @@ private void calculateVar(int periodIndex, PathMapping path, CollectorMapping co
     }
 
     @CompileStatic
-    private void calculateTvar(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, double[] results, double severity,
+    private void calculateTvar(int periodIndex, PathMapping path, CollectorMapping collector, FieldMapping field, IRiskMeasures measures, double severity,
                                QuantilePerspective perspective) {
         long time = System.currentTimeMillis()
 
-        Double tvar = MathUtils.calculateTvarOfSortedValues(results, severity, perspective)
+        Double tvar = measures.getTvar(severity, perspective)
         bulkInsert.addResults(periodIndex, perspective.getTvarAsString(), severity , path.id, field.id, collector.id, tvar)
 
         LOG.debug("Calculated tvar $severity (${path.pathName}, period: $periodIndex) in ${System.currentTimeMillis() - time}ms")
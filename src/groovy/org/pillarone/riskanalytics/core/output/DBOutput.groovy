@@ -7,7 +7,7 @@
 import org.pillarone.riskanalytics.core.output.batch.results.AbstractResultsBulkInsert
 
 @CompileStatic
-public class DBOutput implements ICollectorOutputStrategy {
+public class DBOutput implements IResultBlockOutputStrategy {
 
     private static final Log LOG = LogFactory.getLog(ICollectorOutputStrategy)
 
@@ -31,6 +31,10 @@ public ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
         return this
     }
 
+    public ICollectorOutputStrategy leftShift(ResultBlock results) {
+        return leftShift(results.toSingleValueResults())
+    }
+
     public void finish() {
         batchInsert.saveToDB()
         batchInsert.reset()
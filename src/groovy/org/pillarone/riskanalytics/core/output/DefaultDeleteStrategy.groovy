@@ -6,6 +6,7 @@ class DefaultDeleteStrategy extends DeleteSimulationStrategy {
 
     void deleteSimulation(SimulationRun simulationRun) {
         new File(GridHelper.getResultLocation(simulationRun.id)).deleteDir() // TODO PMO-2837 background thread ?
+        invalidateCaches(simulationRun)
         SimulationRun.withTransaction {
             PostSimulationCalculation.findAllByRun(simulationRun)*.delete() // there are only few of them...
             SingleValueResult.executeUpdate("delete from $SingleValueResult.name where simulationRun = ?", [simulationRun])
@@ -2,6 +2,10 @@
 
 import grails.util.Environment
 import groovy.transform.CompileStatic
+import org.pillarone.riskanalytics.core.dataaccess.KeyFigureCache
+import org.pillarone.riskanalytics.core.dataaccess.ResultContainer
+import org.pillarone.riskanalytics.core.dataaccess.SortedValuesCache
+import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
 
 
 @CompileStatic
@@ -9,6 +13,15 @@ public abstract class DeleteSimulationStrategy {
 
     abstract void deleteSimulation(SimulationRun simulationRun)
 
+    /**
+     * Drops all cached results of the run. Has to be called by every strategy when the run is deleted.
+     */
+    protected void invalidateCaches(SimulationRun simulationRun) {
+        SortedValuesCache.instance.invalidate(simulationRun.id)
+        KeyFigureCache.instance.invalidate(simulationRun.id)
+        ResultContainer.evict(new File(GridHelper.getResultLocation(simulationRun.id)))
+    }
+
     public static DeleteSimulationStrategy getInstance() {
         // TODO Should become a config parameter.
         return Environment.current.getName().contains("mysql") ? new MysqlDeleteStrategy() : new DefaultDeleteStrategy()
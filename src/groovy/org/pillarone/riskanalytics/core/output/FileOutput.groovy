@@ -4,7 +4,7 @@
 import org.joda.time.format.DateTimeFormatter
 import org.joda.time.format.DateTimeFormat
 
-public class FileOutput implements ICollectorOutputStrategy {
+public class FileOutput implements IResultBlockOutputStrategy {
 
     String resultLocation
     SimulationScope simulationScope
@@ -52,6 +52,10 @@ private String replaceChars(String s) {
         return s
     }
 
+    public ICollectorOutputStrategy leftShift(ResultBlock results) {
+        return leftShift(results.toSingleValueResults())
+    }
+
     public void finish() {
 
     }
@@ -0,0 +1,15 @@
+package org.pillarone.riskanalytics.core.output
+
+/**
+ * An output strategy which takes the results of a collector as ResultBlock. PacketCollectors pass blocks to these strategies
+ * if their collecting mode supports it (see AbstractCollectingModeStrategy.collect(PacketList, ResultBlock, boolean)),
+ * otherwise they pass lists of SingleValueResultPOJOs.
+ */
+public interface IResultBlockOutputStrategy extends ICollectorOutputStrategy {
+
+    /**
+     * The block is reused by the collector, do not keep a reference to it.
+     */
+    ICollectorOutputStrategy leftShift(ResultBlock results)
+
+}
@@ -0,0 +1,142 @@
+package org.pillarone.riskanalytics.core.output
+
+import groovy.transform.CompileStatic
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+
+/**
+ * Shared name <-> id dictionary of all path, field and collector mappings. All mappings are loaded with one query per type on
+ * first access, mappings persisted later are added by the MappingCache. A name which is still unknown is looked up once in
+ * the database (it may have been persisted by another instance).
+ * <p/>
+ * Use it wherever only the id or the name of a mapping is needed, the MappingCache provides the domain objects.
+ */
+class MappingDictionary {
+
+    private static Log LOG = LogFactory.getLog(MappingDictionary)
+
+    private static final MappingDictionary INSTANCE = new MappingDictionary()
+
+    private final NameIdDictionary paths = new NameIdDictionary()
+    private final NameIdDictionary fields = new NameIdDictionary()
+    private final NameIdDictionary collectors = new NameIdDictionary()
+
+    private volatile boolean loaded = false
+
+    @CompileStatic
+    static MappingDictionary getInstance() {
+        return INSTANCE
+    }
+
+    private synchronized void load() {
+        if (!loaded) {
+            long time = System.currentTimeMillis()
+            addAll(paths, PathMapping.executeQuery("SELECT m.pathName, m.id FROM ${PathMapping.name} as m"))
+            addAll(fields, FieldMapping.executeQuery("SELECT m.fieldName, m.id FROM ${FieldMapping.name} as m"))
+            addAll(collectors, CollectorMapping.executeQuery("SELECT m.collectorName, m.id FROM ${CollectorMapping.name} as m"))
+            loaded = true
+            LOG.debug("loaded ${paths.size()} paths, ${fields.size()} fields and ${collectors.size()} collectors in ${System.currentTimeMillis() - time}ms")
+        }
+    }
+
+    @CompileStatic
+    private static void addAll(NameIdDictionary dictionary, List rows) {
+        for (Object row in rows) {
+            Object[] nameAndId = (Object[]) row
+            dictionary.put((String) nameAndId[0], (Long) nameAndId[1])
+        }
+    }
+
+    /**
+     * @return the id of the path or null if there is no mapping for it
+     */
+    @CompileStatic
+    Long getPathId(String pathName) {
+        Long id = paths.getId(pathName)
+        return id != null ? id : findId(paths, PathMapping, "pathName", pathName)
+    }
+
+    @CompileStatic
+    Long getFieldId(String fieldName) {
+        Long id = fields.getId(fieldName)
+        return id != null ? id : findId(fields, FieldMapping, "fieldName", fieldName)
+    }
+
+    @CompileStatic
+    Long getCollectorId(String collectorName) {
+        Long id = collectors.getId(collectorName)
+        return id != null ? id : findId(collectors, CollectorMapping, "collectorName", collectorName)
+    }
+
+    private Long findId(NameIdDictionary dictionary, Class domainClass, String property, String name) {
+        if (!loaded) {
+            load()
+            Long id = dictionary.getId(name)
+            if (id != null) {
+                return id
+            }
+        }
+        def mapping = domainClass."findBy${property.capitalize()}"(name)
+        if (mapping == null) {
+            return null
+        }
+        dictionary.put(name, (Long) mapping.id)
+        return (Long) mapping.id
+    }
+
+    @CompileStatic
+    String getPathName(long pathId) {
+        if (!loaded) {
+            load()
+        }
+        return paths.getName(pathId)
+    }
+
+    @CompileStatic
+    String getFieldName(long fieldId) {
+        if (!loaded) {
+            load()
+        }
+        return fields.getName(fieldId)
+    }
+
+    @CompileStatic
+    String getCollectorName(long collectorId) {
+        if (!loaded) {
+            load()
+        }
+        return collectors.getName(collectorId)
+    }
+
+    @CompileStatic
+    void addPath(PathMapping pathMapping) {
+        if (pathMapping.id != null) {
+            paths.put(pathMapping.pathName, pathMapping.id)
+        }
+    }
+
+    @CompileStatic
+    void addField(FieldMapping fieldMapping) {
+        if (fieldMapping.id != null) {
+            fields.put(fieldMapping.fieldName, fieldMapping.id)
+        }
+    }
+
+    @CompileStatic
+    void addCollector(CollectorMapping collectorMapping) {
+        if (collectorMapping.id != null) {
+            collectors.put(collectorMapping.collectorName, collectorMapping.id)
+        }
+    }
+
+    /**
+     * Has to be called if mappings are deleted (e.g. between tests).
+     */
+    @CompileStatic
+    synchronized void clear() {
+        paths.clear()
+        fields.clear()
+        collectors.clear()
+        loaded = false
+    }
+}
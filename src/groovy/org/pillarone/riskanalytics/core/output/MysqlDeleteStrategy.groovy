@@ -11,6 +11,7 @@ class MysqlDeleteStrategy extends DeleteSimulationStrategy {
 
     void deleteSimulation(SimulationRun simulationRun) {
         new File(GridHelper.getResultLocation(simulationRun.id)).deleteDir()
+        invalidateCaches(simulationRun)
         SimulationRun.withTransaction {
             Sql sql = new Sql(DataSourceUtils.getConnection(simulationRun.dataSource))
             long time = System.currentTimeMillis()
@@ -0,0 +1,42 @@
+package org.pillarone.riskanalytics.core.output;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe bidirectional map between the names and the ids of a mapping type (path, field or collector).
+ * Names and ids never change once a mapping is persisted, so entries are only added.
+ */
+public class NameIdDictionary {
+
+    private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<String, Long>();
+    private final ConcurrentMap<Long, String> names = new ConcurrentHashMap<Long, String>();
+
+    public void put(String name, long id) {
+        ids.put(name, id);
+        names.put(id, name);
+    }
+
+    /**
+     * @return the id or null if the name is unknown
+     */
+    public Long getId(String name) {
+        return ids.get(name);
+    }
+
+    /**
+     * @return the name or null if the id is unknown
+     */
+    public String getName(long id) {
+        return names.get(id);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public void clear() {
+        ids.clear();
+        names.clear();
+    }
+}
@@ -1,12 +1,16 @@
 package org.pillarone.riskanalytics.core.output
 
 
-public class NoOutput implements ICollectorOutputStrategy {
+public class NoOutput implements IResultBlockOutputStrategy {
 
     public ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
         return this
     }
 
+    public ICollectorOutputStrategy leftShift(ResultBlock results) {
+        return this
+    }
+
     public void finish() {
     }
 
@@ -56,9 +56,26 @@ public PacketCollector(ICollectingModeStrategy mode) {
         this.mode.packetCollector = this
     }
 
+    // reused for every iteration if the mode and the output strategy support blocks
+    private ResultBlock resultBlock
+    private PathMapping pathMapping
+
     @CompileStatic
     protected void doCalculation() {
         if (inPackets.empty) {return}
+        if (outputStrategy instanceof IResultBlockOutputStrategy && mode instanceof AbstractCollectingModeStrategy) {
+            if (resultBlock == null) {
+                resultBlock = new ResultBlock()
+                pathMapping = simulationScope.mappingCache.lookupPath(path)
+            }
+            resultBlock.reset(simulationScope.iterationScope.currentIteration, pathMapping)
+            if (((AbstractCollectingModeStrategy) mode).collect(inPackets, resultBlock, runtimeSanityChecks)) {
+                if (resultBlock.size > 0) {
+                    ((IResultBlockOutputStrategy) outputStrategy) << resultBlock
+                }
+                return
+            }
+        }
         outputStrategy << mode.collect(inPackets, runtimeSanityChecks)
     }
 
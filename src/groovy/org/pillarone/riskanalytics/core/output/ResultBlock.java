@@ -0,0 +1,249 @@
+package org.pillarone.riskanalytics.core.output;
+
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The results of one PacketCollector in one iteration in columns, the block based alternative to a list of
+ * SingleValueResultPOJOs. A collector reuses its block for every iteration, so adding a result does not allocate once the
+ * columns are large enough. Output strategies must not keep a reference to the block.
+ * <p/>
+ * A series is a path, field, collector and period, as in a result file.
+ */
+public class ResultBlock {
+
+    /**
+     * Date of a result without date
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private int iteration;
+    private PathMapping path;
+    private int size;
+
+    private int[] periods;
+    private int[] valueIndices;
+    private FieldMapping[] fields;
+    private CollectorMapping[] collectors;
+    private double[] values;
+    private long[] dates;
+
+    // results grouped by series, see groupBySeries()
+    private boolean grouped;
+    private int seriesCount;
+    private int[] seriesOrder;
+    private int[] seriesStarts;
+    private int[] seriesIds;
+
+    // all series of the block so far, kept by reset() so a series has the same id in every iteration
+    private int knownSeriesCount;
+    private int[] knownPeriods = new int[4];
+    private FieldMapping[] knownFields = new FieldMapping[4];
+    private CollectorMapping[] knownCollectors = new CollectorMapping[4];
+
+    public ResultBlock() {
+        this(16);
+    }
+
+    public ResultBlock(int capacity) {
+        capacity = Math.max(1, capacity);
+        periods = new int[capacity];
+        valueIndices = new int[capacity];
+        fields = new FieldMapping[capacity];
+        collectors = new CollectorMapping[capacity];
+        values = new double[capacity];
+        dates = new long[capacity];
+    }
+
+    /**
+     * Removes all results, call it before the results of an iteration are added.
+     */
+    public void reset(int iteration, PathMapping path) {
+        this.iteration = iteration;
+        this.path = path;
+        Arrays.fill(fields, 0, size, null);
+        Arrays.fill(collectors, 0, size, null);
+        size = 0;
+        grouped = false;
+    }
+
+    /**
+     * @param date the date in millis or NO_DATE
+     */
+    public void add(int period, int valueIndex, FieldMapping field, CollectorMapping collector, double value, long date) {
+        if (size == values.length) {
+            int capacity = size * 2;
+            periods = Arrays.copyOf(periods, capacity);
+            valueIndices = Arrays.copyOf(valueIndices, capacity);
+            fields = Arrays.copyOf(fields, capacity);
+            collectors = Arrays.copyOf(collectors, capacity);
+            values = Arrays.copyOf(values, capacity);
+            dates = Arrays.copyOf(dates, capacity);
+        }
+        periods[size] = period;
+        valueIndices[size] = valueIndex;
+        fields[size] = field;
+        collectors[size] = collector;
+        values[size] = value;
+        dates[size] = date;
+        size++;
+        grouped = false;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public PathMapping getPath() {
+        return path;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPeriod(int index) {
+        return periods[index];
+    }
+
+    public int getValueIndex(int index) {
+        return valueIndices[index];
+    }
+
+    public FieldMapping getField(int index) {
+        return fields[index];
+    }
+
+    public CollectorMapping getCollector(int index) {
+        return collectors[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the date in millis or NO_DATE
+     */
+    public long getDate(int index) {
+        return dates[index];
+    }
+
+    /**
+     * Groups the results by series, keeping the order of the results of a series. The results of series s are
+     * getSeriesResult(getSeriesStart(s)) to getSeriesResult(getSeriesStart(s + 1) - 1).
+     *
+     * @return the number of series
+     */
+    public int groupBySeries() {
+        if (grouped) {
+            return seriesCount;
+        }
+        if (seriesOrder == null || seriesOrder.length < size) {
+            seriesOrder = new int[values.length];
+            seriesStarts = new int[values.length + 1];
+            seriesIds = new int[values.length];
+        }
+        // a block has few series, so a scan per series is faster than hashing
+        int ordered = 0;
+        seriesCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (isOrdered(i, ordered)) {
+                continue;
+            }
+            seriesIds[seriesCount] = getKnownSeries(i);
+            seriesStarts[seriesCount++] = ordered;
+            for (int j = i; j < size; j++) {
+                if (fields[j] == fields[i] && collectors[j] == collectors[i] && periods[j] == periods[i]) {
+                    seriesOrder[ordered++] = j;
+                }
+            }
+        }
+        seriesStarts[seriesCount] = ordered;
+        grouped = true;
+        return seriesCount;
+    }
+
+    private int getKnownSeries(int index) {
+        for (int id = 0; id < knownSeriesCount; id++) {
+            if (knownFields[id] == fields[index] && knownCollectors[id] == collectors[index] && knownPeriods[id] == periods[index]) {
+                return id;
+            }
+        }
+        if (knownSeriesCount == knownPeriods.length) {
+            int capacity = knownSeriesCount * 2;
+            knownPeriods = Arrays.copyOf(knownPeriods, capacity);
+            knownFields = Arrays.copyOf(knownFields, capacity);
+            knownCollectors = Arrays.copyOf(knownCollectors, capacity);
+        }
+        knownPeriods[knownSeriesCount] = periods[index];
+        knownFields[knownSeriesCount] = fields[index];
+        knownCollectors[knownSeriesCount] = collectors[index];
+        return knownSeriesCount++;
+    }
+
+    private boolean isOrdered(int index, int ordered) {
+        for (int s = 0; s < seriesCount; s++) {
+            int first = seriesOrder[seriesStarts[s]];
+            if (fields[first] == fields[index] && collectors[first] == collectors[index] && periods[first] == periods[index]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the first result of the series, for series == groupBySeries() the number of results
+     */
+    public int getSeriesStart(int series) {
+        return seriesStarts[series];
+    }
+
+    /**
+     * Output strategies can cache the data of a series (e.g. its ResultDescriptor) by this id instead of resolving the
+     * mappings in every iteration.
+     *
+     * @return the id of the series, the same for all iterations of this block and less than getKnownSeriesCount()
+     */
+    public int getSeriesId(int series) {
+        return seriesIds[series];
+    }
+
+    /**
+     * @return the number of series of all iterations of this block so far
+     */
+    public int getKnownSeriesCount() {
+        return knownSeriesCount;
+    }
+
+    /**
+     * @param position position between getSeriesStart(s) and getSeriesStart(s + 1) - 1
+     * @return the index of the result
+     */
+    public int getSeriesResult(int position) {
+        return seriesOrder[position];
+    }
+
+    /**
+     * Creates the results for output strategies which do not support blocks.
+     */
+    public List<SingleValueResultPOJO> toSingleValueResults() {
+        List<SingleValueResultPOJO> results = new ArrayList<SingleValueResultPOJO>(size);
+        for (int i = 0; i < size; i++) {
+            SingleValueResultPOJO result = new SingleValueResultPOJO();
+            result.setIteration(iteration);
+            result.setPeriod(periods[i]);
+            result.setPath(path);
+            result.setCollector(collectors[i]);
+            result.setField(fields[i]);
+            result.setValueIndex(valueIndices[i]);
+            result.setValue(values[i]);
+            result.setDate(dates[i] == NO_DATE ? null : new DateTime(dates[i]));
+            results.add(result);
+        }
+        return results;
+    }
+}
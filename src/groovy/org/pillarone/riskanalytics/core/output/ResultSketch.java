@@ -0,0 +1,189 @@
+package org.pillarone.riskanalytics.core.output;
+
+import org.pillarone.riskanalytics.core.util.IRiskMeasures;
+import org.pillarone.riskanalytics.core.util.QuantileSketch;
+
+import java.io.Serializable;
+
+/**
+ * Approximate key figures of a result series, collected while the results are produced. Count, mean, standard deviation,
+ * min and max are exact (up to rounding), percentiles, VaRs and TVaRs are calculated with the definitions of MathUtils on the
+ * QuantileSketch of the record values. As long as the sketch is exact they are equal to the key figures of the Calculator.
+ * <p/>
+ * Sketches of the same series are merged, iterations without a record are added as zeroes with addMissingIterations once all
+ * sketches are merged. While a simulation is running a copy can be completed with the iterations done so far (see
+ * SketchingOutputStrategy.getSketchesInProgress()).
+ */
+public class ResultSketch implements Serializable, IRiskMeasures {
+
+    private static final long serialVersionUID = 1L;
+
+    private final QuantileSketch quantiles;
+    private long count;
+    private double sum;
+    // running mean and sum of squared deviations (Welford), merged with the formula of Chan et al.
+    private double runningMean;
+    private double m2;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public ResultSketch() {
+        this(QuantileSketch.DEFAULT_COMPRESSION);
+    }
+
+    public ResultSketch(int compression) {
+        quantiles = new QuantileSketch(compression);
+    }
+
+    private ResultSketch(ResultSketch other) {
+        quantiles = new QuantileSketch(other.quantiles);
+        count = other.count;
+        sum = other.sum;
+        runningMean = other.runningMean;
+        m2 = other.m2;
+        min = other.min;
+        max = other.max;
+    }
+
+    /**
+     * @return an independent copy, e.g. to complete it with addMissingIterations while values are still added to this sketch
+     */
+    public ResultSketch copy() {
+        return new ResultSketch(this);
+    }
+
+    /**
+     * @param value the aggregated value of a record (sum of its single values)
+     */
+    public void add(double value) {
+        count++;
+        sum += value;
+        double delta = value - runningMean;
+        runningMean += delta / count;
+        m2 += delta * (value - runningMean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        quantiles.add(value);
+    }
+
+    public void merge(ResultSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        double delta = other.runningMean - runningMean;
+        m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+        runningMean += delta * other.count / total;
+        count = total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        quantiles.merge(other.quantiles);
+    }
+
+    /**
+     * Adds a zero for every iteration without a record (like ResultAccessor.getValuesSorted). Call it only once.
+     *
+     * @param iterations number of iterations of the simulation
+     */
+    public void addMissingIterations(int iterations) {
+        long missing = iterations - count;
+        if (missing <= 0 || count == 0) {
+            return;
+        }
+        long total = count + missing;
+        double delta = -runningMean;
+        m2 += delta * delta * ((double) count * missing / total);
+        runningMean += delta * missing / total;
+        count = total;
+        min = Math.min(min, 0d);
+        max = Math.max(max, 0d);
+        quantiles.add(0d, missing);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if the percentiles, VaRs and TVaRs are calculated from all values
+     */
+    public boolean isExact() {
+        return quantiles.isExact();
+    }
+
+    public double getMean() {
+        return sum / count;
+    }
+
+    public double getStdDev() {
+        return Math.sqrt(m2 / count);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getPercentile(double severity, QuantilePerspective perspective) {
+        severity = severity / 100d;
+        long size = count;
+        long g = (long) Math.floor((size + 1 / 3d) * severity + 1 / 3d);
+        double gamma = (size + 1 / 3d) * severity + 1 / 3d - g;
+        switch (perspective) {
+            case LOSS:
+                if (g == 0) {
+                    return quantiles.getValueAtRank(0);
+                } else if (g >= size) {
+                    return quantiles.getValueAtRank(size - 1);
+                } else {
+                    return (1 - gamma) * quantiles.getValueAtRank(g - 1) + gamma * quantiles.getValueAtRank(g);
+                }
+            case PROFIT:
+                if (g == 0) {
+                    return quantiles.getValueAtRank(size - 1);
+                } else if (g >= size) {
+                    return quantiles.getValueAtRank(0);
+                } else {
+                    return (1 - gamma) * quantiles.getValueAtRank(size - g) + gamma * quantiles.getValueAtRank(size - (g + 1));
+                }
+            default:
+                throw new IllegalArgumentException("percentile is calculated for loss or profit distribution: specify accordingly!");
+        }
+    }
+
+    public double getVar(double severity, QuantilePerspective perspective) {
+        double result = getPercentile(severity, perspective) - getMean();
+        switch (perspective) {
+            case LOSS:
+                return result;
+            case PROFIT:
+                return (result != 0.0) ? -result : result; //avoid negative zero
+            default:
+                throw new IllegalArgumentException("percentile is calculated for loss or profit distribution: specify accordingly!");
+        }
+    }
+
+    public double getTvar(double severity, QuantilePerspective perspective) {
+        severity = severity / 100d;
+        if (severity >= 1.0) {
+            throw new IllegalArgumentException("TVaR not defined for quantile-levels greater than or equal to 1.0");
+        }
+        long size = count;
+        long index = (long) Math.floor(size * severity);
+        double conditionalMean;
+        switch (perspective) {
+            case LOSS:
+                conditionalMean = quantiles.getSum(index, size, false) / (size * (1 - severity));
+                return conditionalMean - getMean();
+            case PROFIT:
+                conditionalMean = quantiles.getSum(0, size - index, true) / (size * (1 - severity));
+                return -(conditionalMean - getMean());
+            default:
+                throw new IllegalArgumentException("TVaR is calculated for loss or profit distribution: specify accordingly!");
+        }
+    }
+}
@@ -2,6 +2,7 @@
 
 import org.pillarone.riskanalytics.core.packets.Packet;
 import org.pillarone.riskanalytics.core.packets.PacketList;
+import org.pillarone.riskanalytics.core.packets.PacketValueExtractor;
 import org.pillarone.riskanalytics.core.util.Manual;
 
 import java.util.ArrayList;
@@ -26,7 +27,13 @@ public List<SingleValueResultPOJO> collect(PacketList results, boolean crashSimu
         List<SingleValueResultPOJO> result = new ArrayList<SingleValueResultPOJO>(results.size());
         int valueIndex = 0;
         for (Object p : results) {
-            result.addAll(createSingleValueResults((Packet) p, ((Packet)p).getValuesToSave(), valueIndex, crashSimulationOnError));
+            Packet packet = (Packet) p;
+            PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(packet);
+            if (extractor != null) {
+                result.addAll(createSingleValueResults(packet, extractor, extractValues(packet, extractor), valueIndex, crashSimulationOnError));
+            } else {
+                result.addAll(createSingleValueResults(packet, packet.getValuesToSave(), valueIndex, crashSimulationOnError));
+            }
             valueIndex++;
         }
         final List<SingleValueResultPOJO> aggregatedValues = aggregatedCollectingMode.collect(results, crashSimulationOnError);
@@ -37,6 +44,27 @@ public List<SingleValueResultPOJO> collect(PacketList results, boolean crashSimu
         return result;
     }
 
+    @Override
+    public boolean collect(PacketList results, ResultBlock block, boolean crashSimulationOnError) throws IllegalAccessException {
+        if (!isListCollectionOf(SingleValueCollectingModeStrategy.class)) {
+            return false;
+        }
+        int valueIndex = 0;
+        for (Object p : results) {
+            Packet packet = (Packet) p;
+            PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(packet);
+            if (extractor != null) {
+                addResults(block, packet, extractor, extractValues(packet, extractor), valueIndex, crashSimulationOnError);
+            } else {
+                addResults(block, packet, packet.getValuesToSave(), valueIndex, crashSimulationOnError);
+            }
+            valueIndex++;
+        }
+        // adds the aggregated values with its own collector
+        aggregatedCollectingMode.collect(results, block, crashSimulationOnError);
+        return true;
+    }
+
     public String getDisplayName(Locale locale) {
         if (displayName == null) {
             displayName = ResourceBundle.getBundle(RESOURCE_BUNDLE, locale, Thread.currentThread().getContextClassLoader()).getString("ICollectingModeStrategy." + IDENTIFIER);
@@ -0,0 +1,134 @@
+package org.pillarone.riskanalytics.core.output
+
+import groovy.transform.CompileStatic
+import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultDescriptor
+import org.pillarone.riskanalytics.core.util.GroovyUtils
+
+/**
+ * Collects a ResultSketch of every result series and passes the results on to the wrapped output strategy.
+ * Used for local simulations which calculate approximate key figures, the GridOutputStrategy collects the sketches itself.
+ * As in the result files the value of an iteration is the sum of the values of a series in one call.
+ * <p/>
+ * The sketches can be read while the simulation is running (see getSketchesInProgress()). The GridOutputStrategy ships its
+ * sketches with the JobResult, so on the grid they are only available to the master when the jobs are done.
+ */
+@CompileStatic
+public class SketchingOutputStrategy implements IResultBlockOutputStrategy {
+
+    private final ICollectorOutputStrategy delegate
+    private final Map<ResultDescriptor, ResultSketch> sketches = new HashMap<ResultDescriptor, ResultSketch>()
+    // the sketches by ResultBlock.getSeriesId() of the blocks of the collectors, only accessed while synchronized on sketches
+    private final Map<ResultBlock, ResultSketch[]> blockSketches = new IdentityHashMap<ResultBlock, ResultSketch[]>()
+
+    public SketchingOutputStrategy(ICollectorOutputStrategy delegate) {
+        this.delegate = delegate
+    }
+
+    ICollectorOutputStrategy getDelegate() {
+        return delegate
+    }
+
+    public ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
+        Map<ResultDescriptor, Double> sums = new LinkedHashMap<ResultDescriptor, Double>()
+        for (SingleValueResultPOJO result in results) {
+            ResultDescriptor descriptor = new ResultDescriptor(GroovyUtils.getId(result.field), GroovyUtils.getId(result.path),
+                    GroovyUtils.getId(result.collector), result.period)
+            Double sum = sums.get(descriptor)
+            sums.put(descriptor, sum == null ? result.value : sum + result.value)
+        }
+        synchronized (sketches) {
+            for (Map.Entry<ResultDescriptor, Double> entry in sums.entrySet()) {
+                getSketch(entry.key).add(entry.value)
+            }
+        }
+        delegate << results
+        return this
+    }
+
+    public ICollectorOutputStrategy leftShift(ResultBlock results) {
+        int seriesCount = results.groupBySeries()
+        synchronized (sketches) {
+            ResultSketch[] seriesSketches = getSketches(results)
+            for (int series = 0; series < seriesCount; series++) {
+                double sum = 0
+                for (int position = results.getSeriesStart(series); position < results.getSeriesStart(series + 1); position++) {
+                    sum += results.getValue(results.getSeriesResult(position))
+                }
+                int seriesId = results.getSeriesId(series)
+                if (seriesSketches[seriesId] == null) {
+                    int first = results.getSeriesResult(results.getSeriesStart(series))
+                    seriesSketches[seriesId] = getSketch(new ResultDescriptor(GroovyUtils.getId(results.getField(first)),
+                            GroovyUtils.getId(results.path), GroovyUtils.getId(results.getCollector(first)), results.getPeriod(first)))
+                }
+                seriesSketches[seriesId].add(sum)
+            }
+        }
+        if (delegate instanceof IResultBlockOutputStrategy) {
+            ((IResultBlockOutputStrategy) delegate) << results
+        } else {
+            delegate << results.toSingleValueResults()
+        }
+        return this
+    }
+
+    // the descriptors of a block are only created for the first result of a series
+    private ResultSketch[] getSketches(ResultBlock results) {
+        ResultSketch[] seriesSketches = blockSketches.get(results)
+        if (seriesSketches == null || seriesSketches.length < results.knownSeriesCount) {
+            ResultSketch[] grown = new ResultSketch[Math.max(8, results.knownSeriesCount * 2)]
+            if (seriesSketches != null) {
+                System.arraycopy(seriesSketches, 0, grown, 0, seriesSketches.length)
+            }
+            seriesSketches = grown
+            blockSketches.put(results, seriesSketches)
+        }
+        return seriesSketches
+    }
+
+    private ResultSketch getSketch(ResultDescriptor descriptor) {
+        ResultSketch sketch = sketches.get(descriptor)
+        if (sketch == null) {
+            sketch = new ResultSketch()
+            sketches.put(descriptor, sketch)
+        }
+        return sketch
+    }
+
+    public void finish() {
+        delegate.finish()
+    }
+
+    /**
+     * Approximate key figures while the simulation is running, e.g. to show them before the results are complete.
+     * Thread safe, the sketches of this strategy are not changed.
+     *
+     * @param iterationsDone the iterations simulated so far (see SimulationScope.iterationsDone)
+     * @return copies of the sketches completed with the iterations done without a result, by result file name
+     */
+    Map<String, ResultSketch> getSketchesInProgress(int iterationsDone) {
+        Map<String, ResultSketch> result = new HashMap<String, ResultSketch>()
+        synchronized (sketches) {
+            for (Map.Entry<ResultDescriptor, ResultSketch> entry in sketches.entrySet()) {
+                result.put(entry.key.fileName, entry.value.copy())
+            }
+        }
+        for (ResultSketch sketch in result.values()) {
+            sketch.addMissingIterations(iterationsDone)
+        }
+        return result
+    }
+
+    /**
+     * Completes the sketches with the iterations without a result, call it once after the simulation.
+     *
+     * @return the sketches by result file name (see Calculator.sketches)
+     */
+    Map<String, ResultSketch> completeSketches(int iterations) {
+        Map<String, ResultSketch> result = new HashMap<String, ResultSketch>()
+        for (Map.Entry<ResultDescriptor, ResultSketch> entry in sketches.entrySet()) {
+            entry.value.addMissingIterations(iterations)
+            result.put(entry.key.fileName, entry.value)
+        }
+        return result
+    }
+}
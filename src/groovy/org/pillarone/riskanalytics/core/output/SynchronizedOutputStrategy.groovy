@@ -0,0 +1,49 @@
+package org.pillarone.riskanalytics.core.output
+
+import groovy.transform.CompileStatic
+
+/**
+ * Lets several simulation runners of one VM write through a single output strategy which is not thread safe
+ * (see ParallelSimulationRunner). The results of a call are passed on as a whole, the wrapped strategy is finished
+ * as soon as all writers have called finish().
+ */
+@CompileStatic
+public class SynchronizedOutputStrategy implements IResultBlockOutputStrategy {
+
+    private final ICollectorOutputStrategy delegate
+    private int unfinishedWriters
+
+    /**
+     * @param writerCount number of runners which write through this strategy and call finish() when they are done
+     */
+    public SynchronizedOutputStrategy(ICollectorOutputStrategy delegate, int writerCount) {
+        this.delegate = delegate
+        this.unfinishedWriters = writerCount
+    }
+
+    ICollectorOutputStrategy getDelegate() {
+        return delegate
+    }
+
+    public synchronized ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
+        delegate << results
+        return this
+    }
+
+    public synchronized ICollectorOutputStrategy leftShift(ResultBlock results) {
+        if (delegate instanceof IResultBlockOutputStrategy) {
+            ((IResultBlockOutputStrategy) delegate) << results
+        } else {
+            delegate << results.toSingleValueResults()
+        }
+        return this
+    }
+
+    public synchronized void finish() {
+        unfinishedWriters--
+        if (unfinishedWriters == 0) {
+            delegate.finish()
+        }
+    }
+
+}
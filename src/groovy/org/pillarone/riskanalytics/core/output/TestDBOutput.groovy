@@ -9,7 +9,7 @@
  * kti collecting strategies don't memorize the simulation run reference but we need it for more easy testing of specific
  * paths, fields and values.
  */
-public class TestDBOutput implements ICollectorOutputStrategy {
+public class TestDBOutput implements IResultBlockOutputStrategy {
 
     private static final Log LOG = LogFactory.getLog(ICollectorOutputStrategy)
 
@@ -33,6 +33,10 @@ public ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
         return this
     }
 
+    public ICollectorOutputStrategy leftShift(ResultBlock results) {
+        return leftShift(results.toSingleValueResults())
+    }
+
     public void finish() {
         batchInsert.saveToDB()
         batchInsert.reset()
@@ -9,6 +9,8 @@ class PacketAggregatorRegistry {
 
     private static Log LOG = LogFactory.getLog(PacketAggregatorRegistry)
     private static HashMap<Class, IPacketAggregator> aggregatorMap = [:]
+    // aggregator per packet class, replaced when an aggregator is registered
+    private static volatile ClassValue<IPacketAggregator> resolvedAggregators = createResolvedAggregators()
 
     static {
         for(Class<IPacketAggregator> clazz in RegistryInitializationSupport.instance.findClasses(IPacketAggregator)) {
@@ -28,9 +30,26 @@ public static void registerAggregator(Class packetClass, IPacketAggregator aggre
         }
 
         aggregatorMap.put(packetClass, aggregator)
+        resolvedAggregators = createResolvedAggregators()
     }
 
+    /**
+     * @return the aggregator registered for the class or its nearest super class, the lookup is done once per class
+     */
     public static IPacketAggregator getAggregator(Class packetClass) {
+        return resolvedAggregators.get(packetClass)
+    }
+
+    private static ClassValue<IPacketAggregator> createResolvedAggregators() {
+        return new ClassValue<IPacketAggregator>() {
+            @Override
+            protected IPacketAggregator computeValue(Class<?> type) {
+                return findAggregator(type)
+            }
+        }
+    }
+
+    protected static IPacketAggregator findAggregator(Class packetClass) {
         if (aggregatorMap.empty) {
             throw new IllegalStateException("No aggregators registered.")
         }
@@ -2,6 +2,7 @@
 
 import groovy.transform.CompileStatic
 import org.pillarone.riskanalytics.core.packets.Packet
+import org.pillarone.riskanalytics.core.packets.PacketValueExtractor
 
 @CompileStatic
 class SumAggregator implements IPacketAggregator<Packet> {
@@ -9,6 +10,15 @@ class SumAggregator implements IPacketAggregator<Packet> {
     Packet aggregate(List<Packet> packets) {
 
         Packet aggregatedPacket = (Packet) packets[0].class.newInstance()
+        PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(aggregatedPacket)
+        if (extractor != null && extractor.hasSettableFields()) {
+            // sums the fields without creating a value map per packet
+            double[] sums = new double[extractor.fieldCount]
+            if (sumFields(packets, extractor, sums)) {
+                extractor.apply(aggregatedPacket, sums)
+                return aggregatedPacket
+            }
+        }
         Map<String, Number> packetValues = [:]
         for (int i = 0; i < packets.size(); i++) {
             Packet p = packets.get(i);
@@ -29,6 +39,28 @@ Packet aggregate(List<Packet> packets) {
         return aggregatedPacket
     }
 
+    /**
+     * Sums the fields of the packets into sums without creating an aggregated packet. The sums are the values to save of the
+     * packet aggregate() would return.
+     *
+     * @param extractor the default extractor of the first packet (see PacketValueExtractor.getDefaultExtractor) with settable fields
+     * @param sums array with at least extractor.fieldCount elements, it is overwritten
+     * @return false if not all packets are of the class of the first one (e.g. a subclass), the sums are incomplete then and
+     *         the packets have to be aggregated with aggregate()
+     */
+    static boolean sumFields(List<Packet> packets, PacketValueExtractor extractor, double[] sums) {
+        Arrays.fill(sums, 0, extractor.fieldCount, 0d)
+        Class packetClass = packets.get(0).getClass()
+        for (int i = 0; i < packets.size(); i++) {
+            Packet packet = packets.get(i)
+            if (packet.getClass() != packetClass) {
+                return false
+            }
+            extractor.accumulate(packet, sums)
+        }
+        return true
+    }
+
     @Override
     Class<Packet> getPacketClass() {
         return Packet
@@ -17,8 +17,11 @@ abstract class AbstractBulkInsert {
     long simulationRunId
     boolean initialized = false
 
+    /**
+     * Creates the temp file the results are written to.
+     */
     @CompileStatic
-    private void init() {
+    protected void init() {
         if (!initialized) {
             String filename = "${FileConstants.TEMP_FILE_DIRECTORY}${File.separatorChar}${simulationRunId}"
             LOG.info("Temp file at: $filename")
@@ -47,18 +50,20 @@ abstract protected void writeResult(List values)
     @CompileStatic
     final void saveToDB() {
         if (initialized) {
-            writer.flush()
-            writer.close()
+            if (writer != null) {
+                writer.flush()
+                writer.close()
+            }
             save()
-            tempFile.delete()
+            tempFile?.delete()
         }
     }
 
     @CompileStatic
     void reset() {
         if (initialized) {
-            writer.close()
-            tempFile.delete()
+            writer?.close()
+            tempFile?.delete()
             initialized = false
             simulationRun = null
         }
@@ -6,9 +6,14 @@
 
 abstract class AbstractCalculationsBulkInsert extends AbstractBulkInsert {
 
+    // reused for every row, the writer is flushed by saveToDB
+    private final List values = new ArrayList(10)
+
+    /**
+     * Thread safe, the key figures of different series may be calculated concurrently.
+     */
     @CompileStatic
-    void addResults(int period, String keyFigure, Double keyFigureParameter, long path, long field, long collector, Double value) {
-        List values = []
+    synchronized void addResults(int period, String keyFigure, Double keyFigureParameter, long path, long field, long collector, Double value) {
         values << simulationRunId
         values << period
         values << path
@@ -19,7 +24,6 @@ void addResults(int period, String keyFigure, Double keyFigureParameter, long pa
         values << value
         writeResult(values)
         values.clear()
-        writer.flush()
     }
 
     protected abstract String getNull()
@@ -0,0 +1,290 @@
+package org.pillarone.riskanalytics.core.output.batch.calculations;
+
+import org.pillarone.riskanalytics.core.util.Configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Inserts the key figures with a batched PreparedStatement instead of a temp file, usable on every database which generates
+ * the id of a post_simulation_calculation (e.g. H2, MySQL, SQL Server). Select it with calculationBulkInsert.
+ * <p/>
+ * Rows are collected in column buffers which are reused. A full buffer is inserted as one batch and committed. With
+ * ASYNC_COMMIT_KEY the batches are inserted on a background thread while the calculator fills the next buffer, the calculator
+ * only waits if both buffers are full. saveToDB() inserts the remaining rows and waits until all batches are committed.
+ * <p/>
+ * This class is in java because it is called for every key figure.
+ */
+public class JdbcCalculationsBulkInsert extends AbstractCalculationsBulkInsert {
+
+    /**
+     * Config key for the number of rows inserted with one batch
+     */
+    public static final String BATCH_SIZE_KEY = "calculationBulkInsertBatchSize";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Config key to insert and commit the batches on a background thread
+     */
+    public static final String ASYNC_COMMIT_KEY = "calculationBulkInsertAsyncCommit";
+
+    static final String INSERT = "INSERT INTO post_simulation_calculation " +
+            "(version, run_id, period, path_id, field_id, collector_id, key_figure, key_figure_parameter, result) VALUES (0, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final int batchSize;
+    private final boolean asyncCommit;
+
+    private final BlockingQueue<RowBuffer> freeBuffers = new LinkedBlockingQueue<RowBuffer>();
+    private RowBuffer current;
+    private ExecutorService committer;
+    private final List<Future<?>> pendingBatches = new ArrayList<Future<?>>();
+
+    private DataSource dataSource;
+    // used by one thread at a time: the calling thread or the committer
+    private Connection connection;
+    private PreparedStatement statement;
+    private int insertedRows;
+
+    public JdbcCalculationsBulkInsert() {
+        this(Configuration.getInteger(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE), Configuration.getBoolean(ASYNC_COMMIT_KEY, true));
+    }
+
+    public JdbcCalculationsBulkInsert(int batchSize, boolean asyncCommit) {
+        this.batchSize = Math.max(1, batchSize);
+        this.asyncCommit = asyncCommit;
+    }
+
+    /**
+     * No temp file is needed.
+     */
+    @Override
+    protected void init() {
+        if (!isInitialized()) {
+            freeBuffers.clear();
+            freeBuffers.add(new RowBuffer(batchSize));
+            if (asyncCommit) {
+                freeBuffers.add(new RowBuffer(batchSize));
+                committer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "JdbcCalculationsBulkInsert");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            current = null;
+            insertedRows = 0;
+            setInitialized(true);
+        }
+    }
+
+    /**
+     * Adds the row to the column buffers without creating a row list.
+     */
+    @Override
+    public synchronized void addResults(int period, String keyFigure, Double keyFigureParameter, long path, long field, long collector, Double value) {
+        addRow(period, keyFigure, keyFigureParameter, path, field, collector, value);
+    }
+
+    /**
+     * @param values a row as created by AbstractCalculationsBulkInsert.addResults(): run id, period, path, field, collector,
+     *               key figure, key figure parameter and value. The run id is ignored, all rows belong to the simulation run.
+     */
+    @Override
+    protected synchronized void writeResult(List values) {
+        addRow(((Number) values.get(1)).intValue(), (String) values.get(5), toDouble(values.get(6)), ((Number) values.get(2)).longValue(),
+                ((Number) values.get(3)).longValue(), ((Number) values.get(4)).longValue(), toDouble(values.get(7)));
+    }
+
+    private static Double toDouble(Object value) {
+        return value != null ? ((Number) value).doubleValue() : null;
+    }
+
+    private void addRow(int period, String keyFigure, Double keyFigureParameter, long path, long field, long collector, Double value) {
+        if (current == null) {
+            if (dataSource == null) {
+                // resolved here, the committer thread must not touch the domain object
+                dataSource = getSimulationRun().getDataSource();
+            }
+            current = takeBuffer();
+        }
+        current.add(period, keyFigure, keyFigureParameter, path, field, collector, value);
+        if (current.size == batchSize) {
+            submit(current);
+            current = null;
+        }
+    }
+
+    private RowBuffer takeBuffer() {
+        try {
+            return freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a free row buffer", e);
+        }
+    }
+
+    private void submit(final RowBuffer rows) {
+        if (committer == null) {
+            insert(rows);
+            return;
+        }
+        pendingBatches.add(committer.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                insert(rows);
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Inserts and commits the rows and returns the buffer for reuse.
+     */
+    private void insert(RowBuffer rows) {
+        try {
+            if (connection == null) {
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(INSERT);
+            }
+            long runId = getSimulationRunId();
+            for (int i = 0; i < rows.size; i++) {
+                statement.setLong(1, runId);
+                statement.setInt(2, rows.periods[i]);
+                statement.setLong(3, rows.paths[i]);
+                statement.setLong(4, rows.fields[i]);
+                statement.setLong(5, rows.collectors[i]);
+                statement.setString(6, rows.keyFigures[i]);
+                if (rows.hasParameter[i]) {
+                    statement.setDouble(7, rows.parameters[i]);
+                } else {
+                    statement.setNull(7, Types.DECIMAL);
+                }
+                if (rows.hasValue[i]) {
+                    statement.setDouble(8, rows.values[i]);
+                } else {
+                    statement.setNull(8, Types.DOUBLE);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            insertedRows += rows.size;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Key figures of run " + getSimulationRunId() + " could not be saved", e);
+        } finally {
+            rows.clear();
+            freeBuffers.add(rows);
+        }
+    }
+
+    /**
+     * Inserts the remaining rows and waits until all batches are committed.
+     */
+    @Override
+    protected synchronized void save() {
+        long time = System.currentTimeMillis();
+        try {
+            if (current != null && current.size > 0) {
+                submit(current);
+            }
+            current = null;
+            for (Future<?> batch : pendingBatches) {
+                batch.get();
+            }
+            LOG.info(insertedRows + " post_simulation_calculation rows saved in " + (System.currentTimeMillis() - time) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving key figures", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        release();
+    }
+
+    private void release() {
+        pendingBatches.clear();
+        if (committer != null) {
+            committer.shutdownNow();
+            committer = null;
+        }
+        closeConnection();
+        current = null;
+        dataSource = null;
+        setInitialized(false);
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            try {
+                statement.close();
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn("Error closing connection", e);
+            }
+            connection = null;
+            statement = null;
+        }
+    }
+
+    @Override
+    protected String getNull() {
+        return null;
+    }
+
+    static class RowBuffer {
+        final int[] periods;
+        final long[] paths;
+        final long[] fields;
+        final long[] collectors;
+        final String[] keyFigures;
+        final double[] parameters;
+        final boolean[] hasParameter;
+        final double[] values;
+        final boolean[] hasValue;
+        int size;
+
+        RowBuffer(int capacity) {
+            periods = new int[capacity];
+            paths = new long[capacity];
+            fields = new long[capacity];
+            collectors = new long[capacity];
+            keyFigures = new String[capacity];
+            parameters = new double[capacity];
+            hasParameter = new boolean[capacity];
+            values = new double[capacity];
+            hasValue = new boolean[capacity];
+        }
+
+        void add(int period, String keyFigure, Double keyFigureParameter, long path, long field, long collector, Double value) {
+            periods[size] = period;
+            paths[size] = path;
+            fields[size] = field;
+            collectors[size] = collector;
+            keyFigures[size] = keyFigure;
+            hasParameter[size] = keyFigureParameter != null;
+            parameters[size] = keyFigureParameter != null ? keyFigureParameter : 0;
+            hasValue[size] = value != null;
+            values[size] = value != null ? value : 0;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+}
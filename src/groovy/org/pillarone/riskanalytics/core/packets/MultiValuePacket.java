@@ -1,20 +1,21 @@
 package org.pillarone.riskanalytics.core.packets;
 
 import org.pillarone.riskanalytics.core.packets.Packet;
-import org.pillarone.riskanalytics.core.util.PacketUtils;
 
-import java.lang.reflect.Field;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
+ * The values to save are all numeric fields of the class and its super classes up to MultiValuePacket. They are read by a
+ * PacketValueExtractor, which is resolved once per class.
+ *
  * @author stefan.kunz (at) intuitive-collaboration (dot) com
  */
 abstract public class MultiValuePacket extends Packet {
 
-    private static final String PATH_SEPARATOR = " ";
+    static final String PATH_SEPARATOR = " ";
 
 
     @Override
@@ -23,21 +24,7 @@ public Map<String, Number> getValuesToSave() throws IllegalAccessException {
     }
 
     public Map<String, Number> getValuesToSave(String prefix) throws IllegalAccessException {
-        Map<String, Number> map = new HashMap<String, Number>();
-        Class currentClass = getClass();
-        do {
-            for (Field field : currentClass.getDeclaredFields()) {
-                if (!(field.getName().startsWith("__timeStamp")) && ((Number.class.isAssignableFrom(field.getType()) ||
-                    (field.getType().isPrimitive() && Number.class.isAssignableFrom((Class) PacketUtils.primitiveToWrapperClass.get(field.getType())))))) {
-                    field.setAccessible(true);
-                    String fieldName = prefix == null ? field.getName() : prefix + PATH_SEPARATOR + field.getName();
-                    map.put(fieldName, (Number) field.get(this));
-                }
-            }
-            currentClass = currentClass.getSuperclass();
-        } while (currentClass != MultiValuePacket.class);
-
-        return map;
+        return PacketValueExtractor.getExtractor(getClass()).getValues(this, prefix);
     }
 
     public List<String> getFieldNames() {
@@ -45,18 +32,14 @@ public List<String> getFieldNames() {
     }
 
     public List<String> getFieldNames(String prefix) {
-        List<String> fieldNames = new ArrayList<String>();
-        Class currentClass = getClass();
-        do {
-            for (Field field : currentClass.getDeclaredFields()) {
-                if (!(field.getName().startsWith("__timeStamp")) && ((Number.class.isAssignableFrom(field.getType()) ||
-                    (field.getType().isPrimitive() && Number.class.isAssignableFrom((Class) PacketUtils.primitiveToWrapperClass.get(field.getType())))))) {
-                    String fieldName = prefix == null ? field.getName() : prefix + PATH_SEPARATOR + field.getName();
-                    fieldNames.add(fieldName);
-                }
-            }
-            currentClass = currentClass.getSuperclass();
-        } while (currentClass != MultiValuePacket.class);
+        String[] names = PacketValueExtractor.getExtractor(getClass()).getFieldNames();
+        if (prefix == null) {
+            return new ArrayList<String>(Arrays.asList(names));
+        }
+        List<String> fieldNames = new ArrayList<String>(names.length);
+        for (String name : names) {
+            fieldNames.add(prefix + PATH_SEPARATOR + name);
+        }
         return fieldNames;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,257 @@
+package org.pillarone.riskanalytics.core.packets;
+
+import org.pillarone.riskanalytics.core.util.PacketUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the numeric fields of a MultiValuePacket class through method handles, which are resolved once per class.
+ * The fields are those saved by MultiValuePacket.getValuesToSave(), the index of a field is its position in getFieldNames().
+ * <p/>
+ * extract() copies the values of a packet into an array without allocation. It may only replace getValuesToSave() for classes
+ * which do not override it, see hasDefaultValuesToSave().
+ */
+public final class PacketValueExtractor {
+
+    private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType DOUBLE_GETTER = MethodType.methodType(double.class, Object.class);
+    private static final MethodType DOUBLE_SETTER = MethodType.methodType(void.class, Object.class, double.class);
+    private static final MethodType OBJECT_SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<PacketValueExtractor> EXTRACTORS = new ClassValue<PacketValueExtractor>() {
+        @Override
+        protected PacketValueExtractor computeValue(Class<?> type) {
+            return new PacketValueExtractor(type);
+        }
+    };
+
+    private final String[] fieldNames;
+    private final Class[] fieldTypes;
+    // (Object)Object, boxes primitive values
+    private final MethodHandle[] getters;
+    // (Object)double for primitive fields, null for wrapper fields
+    private final MethodHandle[] doubleGetters;
+    // (Object,double)void for primitive fields, (Object,Object)void for wrapper fields, null for static fields
+    private final MethodHandle[] setters;
+    private final boolean defaultValuesToSave;
+    private final boolean settableFields;
+
+    private PacketValueExtractor(Class<?> packetClass) {
+        List<Field> fields = new ArrayList<Field>();
+        Class currentClass = packetClass;
+        do {
+            for (Field field : currentClass.getDeclaredFields()) {
+                if (!(field.getName().startsWith("__timeStamp")) && ((Number.class.isAssignableFrom(field.getType()) ||
+                    (field.getType().isPrimitive() && Number.class.isAssignableFrom((Class) PacketUtils.primitiveToWrapperClass.get(field.getType())))))) {
+                    fields.add(field);
+                }
+            }
+            currentClass = currentClass.getSuperclass();
+        } while (currentClass != MultiValuePacket.class);
+
+        int count = fields.size();
+        fieldNames = new String[count];
+        fieldTypes = new Class[count];
+        getters = new MethodHandle[count];
+        doubleGetters = new MethodHandle[count];
+        setters = new MethodHandle[count];
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            for (int i = 0; i < count; i++) {
+                Field field = fields.get(i);
+                field.setAccessible(true);
+                fieldNames[i] = field.getName();
+                fieldTypes[i] = field.getType();
+                boolean isStatic = Modifier.isStatic(field.getModifiers());
+                MethodHandle getter = lookup.unreflectGetter(field);
+                if (isStatic) {
+                    getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                }
+                getters[i] = getter.asType(OBJECT_GETTER);
+                if (field.getType().isPrimitive()) {
+                    doubleGetters[i] = getter.asType(DOUBLE_GETTER);
+                }
+                if (!isStatic && !Modifier.isFinal(field.getModifiers())) {
+                    MethodHandle setter = lookup.unreflectSetter(field);
+                    setters[i] = field.getType().isPrimitive() ? MethodHandles.explicitCastArguments(setter, DOUBLE_SETTER) : setter.asType(OBJECT_SETTER);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Fields of " + packetClass.getName() + " are not accessible", e);
+        }
+        boolean settable = true;
+        for (MethodHandle setter : setters) {
+            settable &= setter != null;
+        }
+        settableFields = settable;
+        defaultValuesToSave = isDeclaredByMultiValuePacket(packetClass, "getValuesToSave") &&
+                isDeclaredByMultiValuePacket(packetClass, "getValuesToSave", String.class);
+    }
+
+    private static boolean isDeclaredByMultiValuePacket(Class<?> packetClass, String name, Class... parameterTypes) {
+        try {
+            return packetClass.getMethod(name, parameterTypes).getDeclaringClass() == MultiValuePacket.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the extractor of the class, it is created on first use and shared by all threads
+     */
+    public static PacketValueExtractor getExtractor(Class<? extends MultiValuePacket> packetClass) {
+        return EXTRACTORS.get(packetClass);
+    }
+
+    /**
+     * @return the extractor of the packet if its values to save are its numeric fields, otherwise null
+     */
+    public static PacketValueExtractor getDefaultExtractor(Packet packet) {
+        if (!(packet instanceof MultiValuePacket)) {
+            return null;
+        }
+        PacketValueExtractor extractor = EXTRACTORS.get(packet.getClass());
+        return extractor.defaultValuesToSave ? extractor : null;
+    }
+
+    /**
+     * @return false if the class overrides getValuesToSave() and therefore may save other values than its fields
+     */
+    public boolean hasDefaultValuesToSave() {
+        return defaultValuesToSave;
+    }
+
+    /**
+     * @return true if apply() sets all fields, i.e. the class has no static or final numeric fields
+     */
+    public boolean hasSettableFields() {
+        return settableFields;
+    }
+
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    public String getFieldName(int index) {
+        return fieldNames[index];
+    }
+
+    /**
+     * @return the field names in index order, not to be modified
+     */
+    public String[] getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Copies the values of the packet into out[0] to out[getFieldCount() - 1], a null value is copied as NaN.
+     */
+    public void extract(Packet packet, double[] out) {
+        try {
+            for (int i = 0; i < fieldNames.length; i++) {
+                MethodHandle doubleGetter = doubleGetters[i];
+                if (doubleGetter != null) {
+                    out[i] = (double) doubleGetter.invokeExact((Object) packet);
+                } else {
+                    Object value = getters[i].invokeExact((Object) packet);
+                    out[i] = value == null ? Double.NaN : ((Number) value).doubleValue();
+                }
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Adds the values of the packet to sums[0] to sums[getFieldCount() - 1]. The packet must be of the class of this extractor.
+     * All fields are summed, use it only if hasSettableFields() as apply() does not set static and final fields.
+     */
+    public void accumulate(Packet packet, double[] sums) {
+        try {
+            for (int i = 0; i < fieldNames.length; i++) {
+                MethodHandle doubleGetter = doubleGetters[i];
+                if (doubleGetter != null) {
+                    sums[i] += (double) doubleGetter.invokeExact((Object) packet);
+                } else {
+                    Object boxed = getters[i].invokeExact((Object) packet);
+                    sums[i] += boxed == null ? Double.NaN : ((Number) boxed).doubleValue();
+                }
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @return the values as MultiValuePacket.getValuesToSave() with keys prefixed by prefix and a space if prefix is not null
+     */
+    public Map<String, Number> getValues(Packet packet, String prefix) {
+        Map<String, Number> map = new HashMap<String, Number>(fieldNames.length * 2);
+        try {
+            for (int i = 0; i < fieldNames.length; i++) {
+                Object value = getters[i].invokeExact((Object) packet);
+                map.put(prefix == null ? fieldNames[i] : prefix + MultiValuePacket.PATH_SEPARATOR + fieldNames[i], (Number) value);
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+        return map;
+    }
+
+    /**
+     * Sets the fields of the packet to the values in values[0] to values[getFieldCount() - 1]. Static and final fields are not
+     * set, values of non double fields are converted as by a cast.
+     */
+    public void apply(Packet packet, double[] values) {
+        try {
+            for (int i = 0; i < fieldNames.length; i++) {
+                MethodHandle setter = setters[i];
+                if (setter == null) {
+                    continue;
+                }
+                if (fieldTypes[i].isPrimitive()) {
+                    setter.invokeExact((Object) packet, values[i]);
+                } else {
+                    setter.invokeExact((Object) packet, box(values[i], fieldTypes[i]));
+                }
+            }
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static Object box(double value, Class type) {
+        if (type == Double.class || type == Number.class) {
+            return value;
+        } else if (type == Integer.class) {
+            return (int) value;
+        } else if (type == Long.class) {
+            return (long) value;
+        } else if (type == Float.class) {
+            return (float) value;
+        } else if (type == Short.class) {
+            return (short) value;
+        } else if (type == Byte.class) {
+            return (byte) value;
+        }
+        throw new IllegalArgumentException("Values of type " + type.getName() + " can not be set");
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
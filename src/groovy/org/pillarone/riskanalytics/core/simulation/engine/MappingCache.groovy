@@ -6,6 +6,7 @@
 import org.hibernate.HibernateException
 import org.pillarone.riskanalytics.core.output.CollectorMapping
 import org.pillarone.riskanalytics.core.output.FieldMapping
+import org.pillarone.riskanalytics.core.output.MappingDictionary
 import org.pillarone.riskanalytics.core.output.PathMapping
 
 /**
@@ -14,6 +15,7 @@
  *
  * During initialization all existing field & collector mappings and all path mappings belonging to this model
  * are pre-loaded. This is more than necessary, but a lot faster than loading single objects.
+ * All mappings are also added to the shared MappingDictionary.
  */
 public class MappingCache implements Serializable {
 
@@ -55,6 +57,7 @@ public synchronized void initCache() {
     protected void addCollectors(List<CollectorMapping> collectorMappings) {
         for (CollectorMapping collectorMapping: collectorMappings) {
             collectors.put(collectorMapping.collectorName, collectorMapping);
+            MappingDictionary.instance.addCollector(collectorMapping)
         }
         LOG.debug("loaded ${collectors.size()} collector mappings")
     }
@@ -62,6 +65,7 @@ protected void addCollectors(List<CollectorMapping> collectorMappings) {
     protected void addFields(List<FieldMapping> fieldMappings) {
         for (FieldMapping fieldMapping: fieldMappings) {
             fields.put(fieldMapping.fieldName, fieldMapping);
+            MappingDictionary.instance.addField(fieldMapping)
         }
         LOG.debug("loaded ${fields.size()} field mappings")
     }
@@ -69,6 +73,7 @@ protected void addFields(List<FieldMapping> fieldMappings) {
     protected void addPaths(List<PathMapping> pathMappings) {
         for (PathMapping pathMapping: pathMappings) {
             paths.put(pathMapping.pathName, pathMapping);
+            MappingDictionary.instance.addPath(pathMapping)
         }
         LOG.debug("loaded ${paths.size()} path mappings")
     }
@@ -92,6 +97,9 @@ public synchronized PathMapping lookupPath(String path) {
                 }
             }
             paths[path] = pathMapping
+            if (pathMapping != null) {
+                MappingDictionary.instance.addPath(pathMapping)
+            }
         }
         return pathMapping;
     }
@@ -115,6 +123,9 @@ public synchronized CollectorMapping lookupCollector(String collector) {
                 }
             }
             collectors.put(collector, collectorMapping)
+            if (collectorMapping != null) {
+                MappingDictionary.instance.addCollector(collectorMapping)
+            }
         }
         return collectorMapping;
     }
@@ -137,14 +148,32 @@ public synchronized FieldMapping lookupField(String field) {
                 }
             }
             fields.put(field, fieldMapping)
+            if (fieldMapping != null) {
+                MappingDictionary.instance.addField(fieldMapping)
+            }
         }
         return fieldMapping;
     }
 
+    /**
+     * @return the cached FieldMapping with the given id or null (does not access the database)
+     */
+    public synchronized FieldMapping getCachedField(long id) {
+        return (FieldMapping) fields.values().find { FieldMapping mapping -> mapping.id == id }
+    }
+
+    /**
+     * @return the cached CollectorMapping with the given id or null (does not access the database)
+     */
+    public synchronized CollectorMapping getCachedCollector(long id) {
+        return (CollectorMapping) collectors.values().find { CollectorMapping mapping -> mapping.id == id }
+    }
+
     public void clear() {
         collectors.clear()
         fields.clear()
         paths.clear()
+        MappingDictionary.instance.clear()
         initialized = false
     }
 }
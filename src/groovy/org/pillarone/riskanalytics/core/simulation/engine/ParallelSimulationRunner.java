@@ -0,0 +1,274 @@
+package org.pillarone.riskanalytics.core.simulation.engine;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.DateTime;
+import org.pillarone.riskanalytics.core.components.DataSourceDefinition;
+import org.pillarone.riskanalytics.core.components.ResourceRegistry;
+import org.pillarone.riskanalytics.core.output.CollectingModeFactory;
+import org.pillarone.riskanalytics.core.output.ICollectorOutputStrategy;
+import org.pillarone.riskanalytics.core.output.PacketCollector;
+import org.pillarone.riskanalytics.core.output.ResultSketch;
+import org.pillarone.riskanalytics.core.output.SketchingOutputStrategy;
+import org.pillarone.riskanalytics.core.output.SynchronizedOutputStrategy;
+import org.pillarone.riskanalytics.core.parameterization.ParameterizationHelper;
+import org.pillarone.riskanalytics.core.simulation.SimulationState;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.SimulationBlock;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.SimulationBlockQueue;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.SimulationTask;
+import org.pillarone.riskanalytics.core.simulation.item.Resource;
+import org.pillarone.riskanalytics.core.simulation.item.ResultConfiguration;
+import org.pillarone.riskanalytics.core.simulation.item.Simulation;
+import org.pillarone.riskanalytics.core.util.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a simulation on several threads of this VM without a grid. Every worker thread has its own SimulationRunner and
+ * therefore its own model instance, scopes, collectors and random number generator (MathUtils keeps one per thread), the
+ * model is built by the preSimulationActions of the runner as for a single runner.
+ * <p/>
+ * The workers take the blocks of SimulationTask.generateBlocks() from a shared SimulationBlockQueue. As the random numbers
+ * of a block only depend on its stream offset, the results do not depend on the number of workers. All workers write
+ * through a SynchronizedOutputStrategy around the output strategy of the configuration. With approximate key figures a single
+ * SketchingOutputStrategy around it collects the sketches of all workers (see getSketchesInProgress()).
+ * <p/>
+ * Post simulation calculations are not done, as with SimulationRunner.createRunner().
+ */
+public class ParallelSimulationRunner {
+
+    private static Log LOG = LogFactory.getLog(ParallelSimulationRunner.class);
+
+    /**
+     * Config key for the number of worker threads
+     */
+    public static final String THREAD_COUNT_KEY = "localSimulationThreads";
+
+    private final SimulationConfiguration simulationConfiguration;
+    private final int threadCount;
+
+    private final List<SimulationRunner> runners = new ArrayList<SimulationRunner>();
+    private volatile SimulationState simulationState = SimulationState.NOT_RUNNING;
+    private volatile boolean cancelled;
+    private volatile SimulationError error;
+    private volatile SketchingOutputStrategy sketchingStrategy;
+
+    public ParallelSimulationRunner(SimulationConfiguration simulationConfiguration) {
+        this(simulationConfiguration, Configuration.getInteger(THREAD_COUNT_KEY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param threadCount the maximum number of worker threads, less are used if there are less blocks
+     */
+    public ParallelSimulationRunner(SimulationConfiguration simulationConfiguration, int threadCount) {
+        this.simulationConfiguration = simulationConfiguration;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Runs the simulation and returns when all workers are done. Any exception is caught and the error object will be initialized.
+     */
+    public void start() {
+        setSimulationState(SimulationState.INITIALIZING);
+        long start = System.currentTimeMillis();
+        Simulation simulation = simulationConfiguration.getSimulation();
+        simulation.setStart(new DateTime(start));
+        List<Thread> workers = new ArrayList<Thread>();
+        try {
+            List<SimulationBlock> blocks = simulationConfiguration.getSimulationBlocks();
+            if (blocks == null || blocks.isEmpty()) {
+                blocks = SimulationTask.generateBlocks(SimulationTask.SIMULATION_BLOCK_SIZE, simulation.getNumberOfIterations());
+            }
+            if (simulationConfiguration.getMappingCache() == null) {
+                simulationConfiguration.createMappingCache(simulation.getTemplate());
+            }
+            if (simulationConfiguration.getResultDataSource() == null) {
+                List<DataSourceDefinition> dataSourceDefinitions = ParameterizationHelper.collectDataSourceDefinitions(simulation.getParameterization().getParameters());
+                ResultData dataSource = new ResultData();
+                dataSource.load(dataSourceDefinitions, simulation);
+                simulationConfiguration.setResultDataSource(dataSource);
+            }
+            final List<Resource> resources = ParameterizationHelper.collectUsedResources(simulation.getRuntimeParameters());
+            resources.addAll(ParameterizationHelper.collectUsedResources(simulation.getParameterization().getParameters()));
+            for (Resource resource : resources) {
+                resource.load();
+            }
+
+            SimulationBlockQueue blockQueue = new SimulationBlockQueue(blocks);
+            int workerCount = Math.min(threadCount, blocks.size());
+            ICollectorOutputStrategy outputStrategy = new SynchronizedOutputStrategy(simulationConfiguration.getOutputStrategy(), workerCount);
+            if (simulation.isApproximateKeyFigures()) {
+                sketchingStrategy = new SketchingOutputStrategy(outputStrategy);
+                outputStrategy = sketchingStrategy;
+            }
+            for (int i = 0; i < workerCount; i++) {
+                final SimulationRunner runner = createRunner(blockQueue, outputStrategy);
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    runners.add(runner);
+                }
+                workers.add(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            ResourceRegistry.clear();
+                            ResourceRegistry.preLoad(resources);
+                            runner.start();
+                            if (runner.getError() != null) {
+                                workerFailed(runner.getError());
+                            }
+                        } catch (Throwable t) {
+                            workerFailed(createError(t));
+                        }
+                    }
+                }, "SimulationWorker-" + i));
+            }
+            LOG.info("Simulating " + blocks.size() + " blocks with " + workerCount + " threads");
+            setSimulationState(SimulationState.RUNNING);
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (Throwable t) {
+            if (t instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            workerFailed(createError(t));
+            // the workers must not write results after this method returned
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (error != null) {
+            LOG.error("Simulation failed", error.getError());
+            setSimulationState(SimulationState.ERROR);
+            return;
+        }
+        if (cancelled) {
+            LOG.info("Simulation cancelled after " + getIterationsDone() + " iterations");
+            return;
+        }
+        long end = System.currentTimeMillis();
+        simulation.setEnd(new DateTime(end));
+        LOG.info(getIterationsDone() + " iterations completed in " + (end - start) + "ms");
+        setSimulationState(SimulationState.FINISHED);
+    }
+
+    private SimulationRunner createRunner(SimulationBlockQueue blockQueue, ICollectorOutputStrategy outputStrategy) {
+        // every runner needs its own copy of the parameters, their values are cached by the parameter holders
+        SimulationConfiguration configuration = simulationConfiguration.clone();
+        configuration.prepareSimulationForGrid();
+        configuration.setOutputStrategy(outputStrategy);
+        // the prepared template shares the collectors of the original one, which keep the packets and results of an iteration
+        ResultConfiguration template = configuration.getSimulation().getTemplate();
+        template.setCollectors(copyCollectors(template.getCollectors()));
+
+        SimulationRunner runner = SimulationRunner.createRunner();
+        runner.setSimulationConfiguration(configuration);
+        runner.getCurrentScope().setSimulationBlockSource(blockQueue);
+        return runner;
+    }
+
+    private static List<PacketCollector> copyCollectors(List<PacketCollector> collectors) {
+        List<PacketCollector> copies = new ArrayList<PacketCollector>(collectors.size());
+        for (PacketCollector collector : collectors) {
+            PacketCollector copy = new PacketCollector(CollectingModeFactory.getNewInstance(collector.getMode()));
+            copy.setPath(collector.getPath());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private SimulationError createError(Throwable t) {
+        SimulationError simulationError = new SimulationError();
+        simulationError.setSimulationRunID(simulationConfiguration.getSimulation().getId());
+        simulationError.setError(t);
+        return simulationError;
+    }
+
+    /**
+     * Keeps the first error and stops all other workers.
+     */
+    private void workerFailed(SimulationError simulationError) {
+        synchronized (this) {
+            if (error != null) {
+                return;
+            }
+            error = simulationError;
+        }
+        stopRunners();
+    }
+
+    private synchronized void stopRunners() {
+        for (SimulationRunner runner : runners) {
+            runner.cancel();
+        }
+    }
+
+    public void cancel() {
+        LOG.info("Simulation cancelled by user");
+        synchronized (this) {
+            cancelled = true;
+        }
+        simulationState = SimulationState.CANCELED;
+        stopRunners();
+    }
+
+    public SimulationState getSimulationState() {
+        return simulationState;
+    }
+
+    // a cancelled simulation keeps its state
+    private void setSimulationState(SimulationState simulationState) {
+        if (!cancelled) {
+            this.simulationState = simulationState;
+        }
+    }
+
+    /**
+     * @return the first error of a worker or null
+     */
+    public SimulationError getError() {
+        return error;
+    }
+
+    public Simulation getSimulation() {
+        return simulationConfiguration.getSimulation();
+    }
+
+    public synchronized int getIterationsDone() {
+        int iterationsDone = 0;
+        for (SimulationRunner runner : runners) {
+            iterationsDone += runner.getCurrentScope().getIterationsDone();
+        }
+        return iterationsDone;
+    }
+
+    public int getProgress() {
+        int numberOfIterations = simulationConfiguration.getSimulation().getNumberOfIterations();
+        return numberOfIterations > 0 ? (int) (getIterationsDone() * 100L / numberOfIterations) : 0;
+    }
+
+    /**
+     * @return the approximate key figures of the results simulated so far by all workers by result file name or null if the
+     *         simulation does not collect approximate key figures (see SketchingOutputStrategy)
+     */
+    public Map<String, ResultSketch> getSketchesInProgress() {
+        SketchingOutputStrategy strategy = sketchingStrategy;
+        return strategy != null ? strategy.getSketchesInProgress(getIterationsDone()) : null;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+}
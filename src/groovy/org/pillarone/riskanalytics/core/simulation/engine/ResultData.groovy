@@ -69,39 +69,43 @@ void load(List<DataSourceDefinition> definitions, Simulation simulation) {
                     try {
                         long time = System.currentTimeMillis()
                         IterationFileAccessor ifa = ResultAccessor.createFileAccessor(run, definition.path, field, definition.collectorName, period)
-                        while(ifa.fetchNext()) {
-                            if (definition.collectorName == AggregatedCollectingModeStrategy.IDENTIFIER) {
+                        try {
+                            while(ifa.fetchNext()) {
+                                if (definition.collectorName == AggregatedCollectingModeStrategy.IDENTIFIER) {
 
-                                IterationPathPair pair = new IterationPathPair(ifa.iteration, definition.path)
-                                AggregatedExternalPacket packet = packets.get(pair)
+                                    IterationPathPair pair = new IterationPathPair(ifa.iteration, definition.path)
+                                    AggregatedExternalPacket packet = packets.get(pair)
 
-                                if(packet == null) {
-                                    packet = new AggregatedExternalPacket(basedOn: definition, iteration: ifa.iteration, period: period)
-                                    packet.addValue(field, ifa.value)
+                                    if(packet == null) {
+                                        packet = new AggregatedExternalPacket(basedOn: definition, iteration: ifa.iteration, period: period)
+                                        packet.addValue(field, ifa.value)
 
-                                    packets.put(pair, packet)
-                                    list << packet
-                                } else {
-                                    packet.addValue(field, ifa.value)
-                                }
+                                        packets.put(pair, packet)
+                                        list << packet
+                                    } else {
+                                        packet.addValue(field, ifa.value)
+                                    }
 
 
-                            } else if(definition.collectorName == SingleValueCollectingModeStrategy.IDENTIFIER) {
-                                IterationPathPair pair = new IterationPathPair(ifa.iteration, definition.path)
-                                SingleExternalPacket packet = packets.get(pair)
+                                } else if(definition.collectorName == SingleValueCollectingModeStrategy.IDENTIFIER) {
+                                    IterationPathPair pair = new IterationPathPair(ifa.iteration, definition.path)
+                                    SingleExternalPacket packet = packets.get(pair)
 
-                                if(packet == null) {
-                                    packet = new SingleExternalPacket(basedOn: definition, iteration: ifa.iteration, period: period)
-                                    packet.addValue(field, ifa.singleValues)
+                                    if(packet == null) {
+                                        packet = new SingleExternalPacket(basedOn: definition, iteration: ifa.iteration, period: period)
+                                        packet.addValue(field, ifa.singleValues)
 
-                                    packets.put(pair, packet)
-                                    list << packet
+                                        packets.put(pair, packet)
+                                        list << packet
+                                    } else {
+                                        packet.addValue(field, ifa.singleValues)
+                                    }
                                 } else {
-                                    packet.addValue(field, ifa.singleValues)
+                                    throw new IllegalStateException("Unsupported collector for external data: ${definition.collectorName}")
                                 }
-                            } else {
-                                throw new IllegalStateException("Unsupported collector for external data: ${definition.collectorName}")
                             }
+                        } finally {
+                            ifa.close()
                         }
                         LOG.info("External data for ${definition} loaded in ${System.currentTimeMillis() - time}ms")
                     } catch (Exception e) {
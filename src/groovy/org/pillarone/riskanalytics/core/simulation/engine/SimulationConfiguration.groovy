@@ -55,6 +55,8 @@ void prepareSimulationForGrid() {
         preparedSimulation.periodCount = simulation.periodCount
         preparedSimulation.runtimeParameters = simulation.runtimeParameters.collect { (ParameterHolder) it.clone() }
         preparedSimulation.keyFiguresToPreCalculate = simulation.keyFiguresToPreCalculate
+        preparedSimulation.compressResults = simulation.compressResults
+        preparedSimulation.approximateKeyFigures = simulation.approximateKeyFigures
 
         preparedSimulation.parameterization = new Parameterization(simulation.parameterization.name, simulation.parameterization.modelClass)
         preparedSimulation.parameterization.periodCount = simulation.parameterization.periodCount
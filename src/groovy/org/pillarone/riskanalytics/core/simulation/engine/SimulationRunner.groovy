@@ -7,8 +7,11 @@
 import org.pillarone.riskanalytics.core.components.Component
 import org.pillarone.riskanalytics.core.model.Model
 import org.pillarone.riskanalytics.core.output.PacketCollector
+import org.pillarone.riskanalytics.core.output.ResultSketch
+import org.pillarone.riskanalytics.core.output.SketchingOutputStrategy
 import org.pillarone.riskanalytics.core.simulation.SimulationState
 import org.pillarone.riskanalytics.core.simulation.engine.actions.*
+import org.pillarone.riskanalytics.core.simulation.engine.grid.output.GridOutputStrategy
 import org.pillarone.riskanalytics.core.simulation.item.Simulation
 import org.pillarone.riskanalytics.core.simulation.item.parameter.ParameterHolder
 import org.pillarone.riskanalytics.core.util.GroovyUtils
@@ -207,6 +210,18 @@ int getProgress() {
         }
     }
 
+    /**
+     * @return the approximate key figures of the results simulated so far by result file name or null if the simulation does not
+     *         collect approximate key figures locally (see SketchingOutputStrategy)
+     */
+    @CompileStatic
+    Map<String, ResultSketch> getSketchesInProgress() {
+        if (currentScope.outputStrategy instanceof SketchingOutputStrategy) {
+            return ((SketchingOutputStrategy) currentScope.outputStrategy).getSketchesInProgress(currentScope.iterationsDone)
+        }
+        return null
+    }
+
     /**
      * Configure the runner with the passed configuration.
      * All information about the simulation will be gathered from the configuration and the actions and scopes get the requiered parameter.
@@ -217,6 +232,11 @@ public void setSimulationConfiguration(SimulationConfiguration configuration) {
         currentScope.simulation = simulation
         currentScope.model = (Model) simulation.modelClass.newInstance()
         currentScope.outputStrategy = configuration.outputStrategy
+        // the grid jobs sketch themselves, the workers of a ParallelSimulationRunner share its sketching strategy
+        if (simulation.approximateKeyFigures && !(configuration.outputStrategy instanceof GridOutputStrategy)
+                && !(configuration.outputStrategy instanceof SketchingOutputStrategy)) {
+            currentScope.outputStrategy = new SketchingOutputStrategy(configuration.outputStrategy)
+        }
         currentScope.iterationScope.numberOfPeriods = simulation.periodCount
         currentScope.simulationBlocks = configuration.simulationBlocks
 
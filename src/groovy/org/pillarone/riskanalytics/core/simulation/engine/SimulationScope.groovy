@@ -14,10 +14,13 @@
 import org.pillarone.riskanalytics.core.simulation.item.Simulation
 import org.pillarone.riskanalytics.core.simulation.item.Parameterization
 import org.pillarone.riskanalytics.core.simulation.item.ResultConfiguration
+import org.pillarone.riskanalytics.core.simulation.engine.grid.ISimulationBlockSource
 import org.pillarone.riskanalytics.core.simulation.engine.grid.SimulationBlock
 import org.pillarone.riskanalytics.core.simulation.engine.id.IIdGenerator
 import org.pillarone.riskanalytics.core.simulation.engine.id.CountingIdGenerator
 import org.pillarone.riskanalytics.core.output.FileOutput
+import org.pillarone.riskanalytics.core.output.SketchingOutputStrategy
+import org.pillarone.riskanalytics.core.output.SynchronizedOutputStrategy
 
 /**
  * The SimulationScope provides information, that is valid throughout the whole simulation.
@@ -47,6 +50,10 @@ public class SimulationScope {
     MappingCache mappingCache
 
     List<SimulationBlock> simulationBlocks
+    /**
+     * If set the blocks are taken from this source while simulating instead of from simulationBlocks (see ParallelSimulationRunner)
+     */
+    ISimulationBlockSource simulationBlockSource
     IIdGenerator idGenerator
 
     private volatile SimulationState simulationState = SimulationState.NOT_RUNNING
@@ -65,8 +72,12 @@ public void setSimulation(Simulation simulation) {
     }
 
     public CollectorFactory getCollectorFactory() {
-        if (outputStrategy instanceof FileOutput) {
-            outputStrategy.simulationScope = this
+        ICollectorOutputStrategy output = outputStrategy instanceof SketchingOutputStrategy ? ((SketchingOutputStrategy) outputStrategy).delegate : outputStrategy
+        if (output instanceof SynchronizedOutputStrategy) {
+            output = ((SynchronizedOutputStrategy) output).delegate
+        }
+        if (output instanceof FileOutput) {
+            output.simulationScope = this
         }
         return new CollectorFactory(outputStrategy)
     }
@@ -74,6 +85,9 @@ public CollectorFactory getCollectorFactory() {
     int getProgress() {
         if (model instanceof DeterministicModel) {
             return (int) (iterationScope.periodScope.currentPeriod / iterationScope.numberOfPeriods * 100.0)
+        } else if (simulationBlockSource != null) {
+            // the blocks of this runner are not known in advance
+            return (int) (iterationsDone / numberOfIterations * 100.0)
         } else {
             return (int) (iterationsDone / ((int) simulationBlocks*.blockSize.sum()) * 100.0)
         }
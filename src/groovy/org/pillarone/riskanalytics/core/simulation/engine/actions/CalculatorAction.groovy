@@ -3,6 +3,7 @@
 import groovy.transform.CompileStatic
 import org.pillarone.riskanalytics.core.model.DeterministicModel
 import org.pillarone.riskanalytics.core.output.Calculator
+import org.pillarone.riskanalytics.core.output.SketchingOutputStrategy
 import org.pillarone.riskanalytics.core.simulation.SimulationState
 import org.pillarone.riskanalytics.core.simulation.engine.SimulationScope
 
@@ -15,6 +16,9 @@ public class CalculatorAction implements Action {
     public void perform() {
         if (!(simulationScope.model instanceof DeterministicModel)) {
             calculator = new Calculator(simulationScope.simulation)
+            if (simulationScope.outputStrategy instanceof SketchingOutputStrategy) {
+                calculator.sketches = ((SketchingOutputStrategy) simulationScope.outputStrategy).completeSketches(simulationScope.iterationsDone)
+            }
             simulationScope.simulationState = SimulationState.POST_SIMULATION_CALCULATIONS
             calculator.calculate()
         }
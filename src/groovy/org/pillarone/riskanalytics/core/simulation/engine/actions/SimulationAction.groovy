@@ -4,6 +4,7 @@
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 import org.pillarone.riskanalytics.core.simulation.engine.SimulationScope
+import org.pillarone.riskanalytics.core.simulation.engine.grid.ISimulationBlockSource
 import org.pillarone.riskanalytics.core.simulation.engine.grid.SimulationBlock
 
 import org.pillarone.riskanalytics.core.util.MathUtils
@@ -12,6 +13,7 @@
  * The SimulationAction is responsible for iterating over the number of iterations.
  * Each iteration is executed by calling the IterationActions perform method.
  * The performed iterations get logged to the SimulationScope.iterationsDone property.
+ * If the scope has a simulation block source, the blocks are taken from it one by one and added to the simulationBlocks of the scope.
  */
 
 @CompileStatic
@@ -23,15 +25,20 @@ public class SimulationAction implements Action {
     SimulationScope simulationScope
     private volatile boolean canceled = false
     private int numberOfIterationsLocal=0;
+    private int blockIndex = 0
 
     /**
      * Loops over the number of iteration and calls iterationAction.perform().
      */
     public void perform() {
         LOG.debug "start perform"
-        LOG.info "Using simulation blocks: ${simulationScope.simulationBlocks}"
-        for (SimulationBlock simulationBlock: simulationScope.simulationBlocks) {
-            if (canceled) {
+        if (simulationScope.simulationBlockSource == null) {
+            LOG.info "Using simulation blocks: ${simulationScope.simulationBlocks}"
+        }
+        blockIndex = 0
+        while (!canceled) {
+            SimulationBlock simulationBlock = nextBlock()
+            if (simulationBlock == null) {
                 break
             }
             initializeSimulationBlock(simulationBlock)
@@ -45,6 +52,19 @@ public void perform() {
         LOG.debug "end perform"
     }
 
+    private SimulationBlock nextBlock() {
+        ISimulationBlockSource blockSource = simulationScope.simulationBlockSource
+        if (blockSource == null) {
+            List<SimulationBlock> simulationBlocks = simulationScope.simulationBlocks
+            return simulationBlocks != null && blockIndex < simulationBlocks.size() ? simulationBlocks.get(blockIndex++) : null
+        }
+        SimulationBlock simulationBlock = blockSource.nextBlock()
+        if (simulationBlock != null) {
+            simulationScope.simulationBlocks.add(simulationBlock)
+        }
+        return simulationBlock
+    }
+
     private void initializeSimulationBlock(SimulationBlock simulationBlock) {
         MathUtils.getRandomStreamBase().resetStartStream()
         for (int i = 0; i < simulationBlock.streamOffset; i++) {
@@ -0,0 +1,15 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid;
+
+/**
+ * Hands out the blocks of a simulation to the SimulationAction one at a time, so the blocks of a run can be shared by several
+ * SimulationRunners instead of being assigned up front (see SimulationScope.getSimulationBlockSource()).
+ */
+public interface ISimulationBlockSource {
+
+    /**
+     * Called by the simulation thread whenever it has finished a block.
+     *
+     * @return the next block to simulate or null if there are no more blocks
+     */
+    SimulationBlock nextBlock();
+}
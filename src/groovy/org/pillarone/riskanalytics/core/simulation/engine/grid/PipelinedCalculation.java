@@ -0,0 +1,99 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pillarone.riskanalytics.core.dataaccess.ResultPathDescriptor;
+import org.pillarone.riskanalytics.core.output.Calculator;
+import org.pillarone.riskanalytics.core.output.CollectorMapping;
+import org.pillarone.riskanalytics.core.output.FieldMapping;
+import org.pillarone.riskanalytics.core.output.MappingDictionary;
+import org.pillarone.riskanalytics.core.output.PathMapping;
+import org.pillarone.riskanalytics.core.output.SingleValueCollectingModeStrategy;
+import org.pillarone.riskanalytics.core.simulation.engine.MappingCache;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.output.AsyncResultWriter;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultDescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Calculates the key figures of a result series as soon as its file is complete, while the results of other series are still
+ * received. The file has just been written, so it is usually read from the file system cache. Series which are not complete
+ * before all jobs are finished (e.g. series not produced by every job) are calculated by Calculator.calculate() afterwards.
+ */
+public class PipelinedCalculation implements AsyncResultWriter.SeriesListener {
+
+    private static Log LOG = LogFactory.getLog(PipelinedCalculation.class);
+
+    private final Calculator calculator;
+    private final MappingCache mappingCache;
+    private final Long singleCollectorId;
+    private final ExecutorService executor;
+    private final List<Future<?>> calculations = new ArrayList<Future<?>>();
+
+    /**
+     * Call it with access to the database, the series are resolved with the mapping cache only.
+     */
+    public PipelinedCalculation(Calculator calculator, MappingCache mappingCache) {
+        this.calculator = calculator;
+        this.mappingCache = mappingCache;
+        this.singleCollectorId = MappingDictionary.getInstance().getCollectorId(SingleValueCollectingModeStrategy.IDENTIFIER);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, calculator.getParallelism()));
+    }
+
+    public void seriesCompleted(ResultDescriptor descriptor) {
+        // single values are not calculated (see ResultAccessor.getDistinctPaths)
+        if (singleCollectorId != null && singleCollectorId == descriptor.getCollectorId()) {
+            return;
+        }
+        PathMapping path = mappingCache.lookupPath(descriptor.getPath());
+        FieldMapping field = mappingCache.getCachedField(descriptor.getFieldId());
+        CollectorMapping collector = mappingCache.getCachedCollector(descriptor.getCollectorId());
+        if (path == null || field == null || collector == null) {
+            LOG.debug("Mappings of " + descriptor + " not cached, series is calculated after the simulation");
+            return;
+        }
+        final ResultPathDescriptor series = new ResultPathDescriptor(path, field, collector, (int) descriptor.getPeriod());
+        Future<?> calculation = executor.submit(new Runnable() {
+            public void run() {
+                if (!calculator.isStopped()) {
+                    calculator.calculateSeries(series);
+                }
+            }
+        });
+        synchronized (calculations) {
+            calculations.add(calculation);
+        }
+    }
+
+    /**
+     * Waits until all submitted series are calculated. Call it after all results are written.
+     *
+     * @return the number of series calculated during the simulation
+     */
+    public int awaitCompletion() throws Exception {
+        executor.shutdown();
+        List<Future<?>> submitted;
+        synchronized (calculations) {
+            submitted = new ArrayList<Future<?>>(calculations);
+        }
+        try {
+            for (Future<?> calculation : submitted) {
+                calculation.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        return submitted.size();
+    }
+
+    public void cancel() {
+        calculator.setStopped(true);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The blocks of a run which are not yet simulated, shared by all runners of the run. A runner which finishes early simply takes
+ * the next block, so a slow runner does not delay the others.
+ */
+public class SimulationBlockQueue implements ISimulationBlockSource {
+
+    private final Queue<SimulationBlock> blocks;
+
+    public SimulationBlockQueue(List<SimulationBlock> blocks) {
+        this.blocks = new ConcurrentLinkedQueue<SimulationBlock>(blocks);
+    }
+
+    public SimulationBlock nextBlock() {
+        return blocks.poll();
+    }
+
+    /**
+     * @return the number of blocks which are not yet taken
+     */
+    public int size() {
+        return blocks.size();
+    }
+}
@@ -25,6 +25,7 @@ class SimulationJob extends GridJobAdapterEx {
     protected SimulationConfiguration simulationConfiguration
     private SimulationRunner runner = SimulationRunner.createRunner()
     private UUID jobIdentifier
+    private UUID taskIdentifier
     private int jobCount = 0;
 
     Map<Class, IPacketAggregator> aggregatorMap = [:]
@@ -33,11 +34,13 @@ class SimulationJob extends GridJobAdapterEx {
     public SimulationJob(SimulationConfiguration simulationConfiguration, UUID jobId, UUID masterNodeId) {
         this.jobIdentifier = jobId
         this.simulationConfiguration = simulationConfiguration
-        this.simulationConfiguration.outputStrategy = new GridOutputStrategy(masterNodeId, runner, jobIdentifier);
+        this.simulationConfiguration.outputStrategy = new GridOutputStrategy(masterNodeId, runner, jobIdentifier,
+                simulationConfiguration.simulation.compressResults, simulationConfiguration.simulation.approximateKeyFigures);
     }
 
     JobResult execute() {
         Date start = new Date()
+        StealingBlockQueue blockQueue = null
 
         try {
             initMDCForLogging()
@@ -62,13 +65,24 @@ JobResult execute() {
             ExpandoMetaClass.enableGlobally()
             runner.jobCount = jobCount
             runner.simulationConfiguration = simulationConfiguration
-            runner.start()
+            if (taskIdentifier != null) {
+                // the assigned blocks may be simulated by other jobs of the task on this node and vice versa,
+                // once the model of this job is initialized
+                blockQueue = StealingBlockQueue.create(taskIdentifier, simulationConfiguration.simulationBlocks)
+                runner.currentScope.simulationBlocks = new ArrayList<SimulationBlock>()
+                runner.currentScope.simulationBlockSource = blockQueue
+            }
+            try {
+                runner.start()
+            } finally {
+                blockQueue?.unregister()
+            }
 
             GridOutputStrategy outputStrategy = (GridOutputStrategy) this.simulationConfiguration.outputStrategy
             final JobResult result = new JobResult(
                     totalMessagesSent: outputStrategy.totalMessages, start: start, end: new Date(),
                     nodeName: jobIdentifier.toString(), simulationException: runner.error?.error,
-                    completedIterations: runner.currentScope.iterationsDone
+                    completedIterations: runner.currentScope.iterationsDone, sketches: outputStrategy.sketches
             )
             final IPeriodCounter periodCounter = runner.currentScope.iterationScope.periodScope.periodCounter
             if (periodCounter instanceof ILimitedPeriodCounter) {
@@ -95,6 +109,13 @@ void setJobCount(int jobCount) {
         this.jobCount = jobCount;
     }
 
+    /**
+     * @param taskIdentifier the identifier shared by all jobs of a task, they exchange blocks on a node (see StealingBlockQueue)
+     */
+    void setTaskIdentifier(UUID taskIdentifier) {
+        this.taskIdentifier = taskIdentifier
+    }
+
     private void initSpringContext() {
         if (Holders.grailsApplication == null) { //if not on the main node, create dummy application with required beans
             GenericApplicationContext ctx = new GenericApplicationContext()
@@ -10,6 +10,7 @@
 import org.pillarone.riskanalytics.core.components.DataSourceDefinition;
 import org.pillarone.riskanalytics.core.output.Calculator;
 import org.pillarone.riskanalytics.core.output.PathMapping;
+import org.pillarone.riskanalytics.core.output.ResultSketch;
 import org.pillarone.riskanalytics.core.output.aggregation.PacketAggregatorRegistry;
 import org.pillarone.riskanalytics.core.parameterization.ParameterizationHelper;
 import org.pillarone.riskanalytics.core.simulation.SimulationState;
@@ -17,14 +18,19 @@
 import org.pillarone.riskanalytics.core.simulation.engine.SimulationConfiguration;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.mapping.AbstractNodeMappingStrategy;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.mapping.INodeMappingStrategy;
+import org.pillarone.riskanalytics.core.simulation.engine.grid.output.AsyncResultWriter;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.JobResult;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultDescriptor;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultTransferObject;
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultWriter;
 import org.pillarone.riskanalytics.core.simulation.item.Resource;
 import org.pillarone.riskanalytics.core.simulation.item.Simulation;
+import org.pillarone.riskanalytics.core.util.Configuration;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -36,14 +42,20 @@ public class SimulationTask extends GridTaskAdapter<SimulationConfiguration, Obj
     public static final int SIMULATION_BLOCK_SIZE = 1000;
     public static final int MESSAGE_TIMEOUT = 60000;
 
+    /**
+     * Config key to calculate the key figures of a series as soon as its result file is complete (see PipelinedCalculation)
+     */
+    public static final String PIPELINED_CALCULATION_KEY = "pipelinedPostSimulationCalculation";
+
     private AtomicInteger messageCount = new AtomicInteger(0);
-    private ResultWriter resultWriter;
+    private AsyncResultWriter resultWriter;
 
     private SimulationConfiguration simulationConfiguration;
     private SimulationState currentState = SimulationState.NOT_RUNNING;
     private List<Throwable> simulationErrors = new LinkedList<Throwable>();
     private Map<UUID, Integer> progress = new HashMap<UUID, Integer>();
     private Calculator calculator;
+    private PipelinedCalculation pipelinedCalculation;
 
     private long time;
     private int totalJobs = 0;
@@ -112,9 +124,11 @@ public final Map<? extends GridJob, GridNode> map(List<GridNode> subgrid,
             for (Resource resource : allResources) {
                 resource.load();
             }
+            UUID taskId = UUID.randomUUID();
             for (int i = 0; i < Math.min(cpuCount, simulationBlocks.size()); i++) {
                 UUID jobId = UUID.randomUUID();
                 SimulationJob job = new SimulationJob(configurations.get(i), jobId, grid.localNode().id());
+                job.setTaskIdentifier(taskId);
                 job.setAggregatorMap(PacketAggregatorRegistry.getAllAggregators());
                 job.setLoadedResources(allResources);
                 jobIds.add(jobId);
@@ -122,7 +136,13 @@ public final Map<? extends GridJob, GridNode> map(List<GridNode> subgrid,
                 LOG.info("Created a new job with block count " + configurations.get(i).getSimulationBlocks().size());
             }
 
-            resultWriter = new ResultWriter(simulationConfiguration.getSimulation().getId());
+            ResultWriter writer = ResultWriter.createWriter(simulationConfiguration.getSimulation().getId());
+            resultWriter = new AsyncResultWriter(writer, Configuration.getInteger(AsyncResultWriter.QUEUE_SIZE_KEY, AsyncResultWriter.DEFAULT_QUEUE_SIZE));
+            if (Configuration.getBoolean(PIPELINED_CALCULATION_KEY, false) && writer.canCloseSeries()) {
+                calculator = new Calculator(simulationConfiguration.getSimulation());
+                pipelinedCalculation = new PipelinedCalculation(calculator, simulationConfiguration.getMappingCache());
+                resultWriter.setSeriesListener(jobs.size(), pipelinedCalculation);
+            }
             //grid.addMessageListener(this);
             grid.listen(resultTransferListener);
 
@@ -151,6 +171,9 @@ public final Map<? extends GridJob, GridNode> map(List<GridNode> subgrid,
             simulationConfiguration.getSimulation().save();
             return jobsToNodes;
         } catch (Exception e) {
+            if (pipelinedCalculation != null) {
+                pipelinedCalculation.cancel();
+            }
             getSimulation().delete();
             simulationErrors.add(e);
             if (!cancelled) {
@@ -178,11 +201,15 @@ public Object reduce(List<GridJobResult> gridJobResults) {
             int periodCount = 1;
             int completedIterations = 0;
             boolean error = false;
+            Map<String, ResultSketch> sketches = new HashMap<String, ResultSketch>();
             for (GridJobResult res : gridJobResults) {
                 JobResult jobResult = res.getData();
                 periodCount = jobResult.getNumberOfSimulatedPeriods();
                 totalMessageCount += jobResult.getTotalMessagesSent();
                 completedIterations += jobResult.getCompletedIterations();
+                if (jobResult.getSketches() != null) {
+                    mergeSketches(jobResult.getSketches(), sketches);
+                }
 
                 LOG.info("Job " + jobResult.getNodeName() + " executed in " + (jobResult.getEnd().getTime() - jobResult.getStart().getTime()) + " ms");
                 Throwable simulationException = jobResult.getSimulationException();
@@ -194,33 +221,39 @@ public Object reduce(List<GridJobResult> gridJobResults) {
             }
             Simulation simulation = simulationConfiguration.getSimulation();
 
-            synchronized (this) {
-                while (messageCount.get() < totalMessageCount) {
-                    long timeout = System.currentTimeMillis();
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Not all messages received yet - waiting");
-                    }
-                    try {
-                        wait(MESSAGE_TIMEOUT);
-                    } catch (InterruptedException e) {
-                        error = true;
-                        simulationErrors.add(e);
-                        // Restore the interrupted status - http://www.ibm.com/developerworks/library/j-jtp05236/
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                    LOG.debug("got new message. messageCount: " + messageCount.get() + "/totalMessageCount: " + totalMessageCount);
-                    if (System.currentTimeMillis() - timeout > MESSAGE_TIMEOUT) {
+            Future<Integer> written = resultWriter.drain(totalMessageCount);
+            int received = -1;
+            while (true) {
+                try {
+                    written.get(MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (messageCount.get() == received) {
                         error = true;
                         simulationErrors.add(new TimeoutException("Not all messages received - timeout reached"));
                         break;
                     }
+                    received = messageCount.get();
+                    LOG.debug("Not all messages written yet. messageCount: " + received + "/totalMessageCount: " + totalMessageCount);
+                } catch (ExecutionException e) {
+                    error = true;
+                    simulationErrors.add(e.getCause());
+                    break;
+                } catch (InterruptedException e) {
+                    error = true;
+                    simulationErrors.add(e);
+                    // Restore the interrupted status - http://www.ibm.com/developerworks/library/j-jtp05236/
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
             resultWriter.close();
             resultTransferListener.removeListener();
 
             if (error || cancelled) {
+                if (pipelinedCalculation != null) {
+                    pipelinedCalculation.cancel();
+                }
                 simulation.delete();
                 if (!cancelled) {
                     setSimulationState(SimulationState.ERROR);
@@ -228,7 +261,19 @@ public Object reduce(List<GridJobResult> gridJobResults) {
                 return false;
             }
             LOG.info("Received " + messageCount + " messages. Sent " + totalMessageCount + " messages.");
-            calculator = new Calculator(simulation);
+            if (pipelinedCalculation != null) {
+                int calculatedSeries = pipelinedCalculation.awaitCompletion();
+                LOG.info("Calculated " + calculatedSeries + " series while receiving the results");
+                calculator.loadPathDescriptors();
+            } else {
+                calculator = new Calculator(simulation);
+            }
+            if (simulation.isApproximateKeyFigures()) {
+                for (ResultSketch sketch : sketches.values()) {
+                    sketch.addMissingIterations(completedIterations);
+                }
+                calculator.setSketches(sketches);
+            }
             setSimulationState(SimulationState.POST_SIMULATION_CALCULATIONS);
             calculator.calculate();
             if (cancelled) {
@@ -243,6 +288,9 @@ public Object reduce(List<GridJobResult> gridJobResults) {
             LOG.info("Task completed in " + (System.currentTimeMillis() - time) + "ms");
             return true;
         } catch (Exception e) {
+            if (pipelinedCalculation != null) {
+                pipelinedCalculation.cancel();
+            }
             getSimulation().delete();
             simulationErrors.add(e);
             if (!cancelled) {
@@ -253,10 +301,28 @@ public Object reduce(List<GridJobResult> gridJobResults) {
         }
     }
 
-    public synchronized void onMessage(Object serializable) {
+    /**
+     * Merges the sketches of a job into the sketches per result file name.
+     */
+    private void mergeSketches(Map<ResultDescriptor, ResultSketch> jobSketches, Map<String, ResultSketch> sketches) {
+        for (Map.Entry<ResultDescriptor, ResultSketch> entry : jobSketches.entrySet()) {
+            ResultDescriptor rd = entry.getKey();
+            rd.setPathId(simulationConfiguration.getMappingCache().lookupPath(rd.getPath()).pathID());
+            ResultSketch sketch = sketches.get(rd.getFileName());
+            if (sketch == null) {
+                sketches.put(rd.getFileName(), entry.getValue());
+            } else {
+                sketch.merge(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Called by the listener thread for every result. The result is only queued, it is written by the AsyncResultWriter.
+     */
+    public void onMessage(Object serializable) throws InterruptedException {
         ResultTransferObject result = (ResultTransferObject) serializable;
-        LOG.debug("got result from resultTransferListener: " + result.getProgress() + "Will now write result ....");
-        long before = System.currentTimeMillis();
+        LOG.debug("got result from resultTransferListener: " + result.getProgress() + "Will now queue result ....");
         if (!jobIds.contains(result.getJobIdentifier())) {
             return;
         }
@@ -265,11 +331,10 @@ public synchronized void onMessage(Object serializable) {
         //TODO: should be done before simulation start
         PathMapping pm = simulationConfiguration.getMappingCache().lookupPath(rd.getPath());
         rd.setPathId(pm.pathID());
-        resultWriter.writeResult(result);
-        long diff = System.currentTimeMillis() - before;
-        LOG.debug("wrote result in " + diff + " ms");
-        progress.put(result.getJobIdentifier(), result.getProgress());
-        notify();
+        resultWriter.submit(result);
+        synchronized (this) {
+            progress.put(result.getJobIdentifier(), result.getProgress());
+        }
     }
 
     public SimulationState getSimulationState() {
@@ -295,7 +360,7 @@ public synchronized List<Throwable> getSimulationErrors() {
 
     public synchronized void cancel() {
         cancelled = true;
-        if (currentState == SimulationState.POST_SIMULATION_CALCULATIONS) {
+        if (calculator != null && (currentState == SimulationState.POST_SIMULATION_CALCULATIONS || pipelinedCalculation != null)) {
             calculator.setStopped(true);
         }
         setSimulationState(SimulationState.CANCELED);
@@ -306,11 +371,12 @@ public synchronized int getProgress() {
             if (progress.isEmpty()) {
                 return 0;
             }
+            // jobs share their blocks on a node, so the progress of a job is its part of all iterations
             int sum = 0;
             for (Integer value : progress.values()) {
                 sum += value;
             }
-            return sum / totalJobs;
+            return Math.min(100, sum);
         } else {
             return calculator.getProgress();
         }
@@ -329,7 +395,11 @@ public synchronized DateTime getEstimatedSimulationEnd() {
         return null;
     }
 
-    private List<SimulationBlock> generateBlocks(int blockSize, int iterations) {
+    /**
+     * Splits the iterations into blocks of blockSize iterations. Every block gets its own random number substream, the
+     * substreams 100 - 109, 200 - 209, ... are reserved for business logic.
+     */
+    public static List<SimulationBlock> generateBlocks(int blockSize, int iterations) {
         List<SimulationBlock> simBlocks = new ArrayList<SimulationBlock>();
         int iterationOffset = 0;
         int streamOffset = 0;
@@ -344,7 +414,7 @@ private List<SimulationBlock> generateBlocks(int blockSize, int iterations) {
         return simBlocks;
     }
 
-    private int nextOffset(int currentOffset) {
+    private static int nextOffset(int currentOffset) {
         currentOffset++;
         while ((currentOffset >= 100 && currentOffset % 100 < 10)) {
             currentOffset++;
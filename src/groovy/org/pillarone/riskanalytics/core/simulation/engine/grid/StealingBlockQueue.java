@@ -0,0 +1,132 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * The blocks assigned to one SimulationJob. All queues of a task on a node are registered, so a job which has finished its
+ * own blocks takes the unstarted blocks of the other jobs of the task on the same node instead of waiting for them.
+ * <p/>
+ * A queue is only registered when its job asks for its first block, i.e. after the model of the job is initialized, and the
+ * job keeps this block. So every job simulates at least one block and sends the last chunks of its series, which the
+ * pipelined calculation waits for (see AsyncResultWriter.setSeriesListener()), even if the other jobs take all its other blocks.
+ * <p/>
+ * A job takes its own blocks from the head and steals from the tail of the queue with the most blocks left. Blocks keep the
+ * stream offset they got from SimulationTask.generateBlocks(), so the results do not depend on which job simulates a block.
+ */
+public class StealingBlockQueue implements ISimulationBlockSource {
+
+    private static Log LOG = LogFactory.getLog(StealingBlockQueue.class);
+
+    // registered queues per task, only accessed while synchronized on QUEUES
+    private static final Map<UUID, List<StealingBlockQueue>> QUEUES = new HashMap<UUID, List<StealingBlockQueue>>();
+
+    private final UUID taskIdentifier;
+    private final Deque<SimulationBlock> blocks;
+    private int stolenBlocks;
+    private boolean registered;
+
+    private StealingBlockQueue(UUID taskIdentifier, List<SimulationBlock> blocks) {
+        this.taskIdentifier = taskIdentifier;
+        this.blocks = new ConcurrentLinkedDeque<SimulationBlock>(blocks);
+    }
+
+    /**
+     * Creates the queue of a job. Its blocks are available to the other jobs of the task on this node from the first call of
+     * nextBlock() on. The queue must be unregistered when the job is done.
+     */
+    public static StealingBlockQueue create(UUID taskIdentifier, List<SimulationBlock> blocks) {
+        return new StealingBlockQueue(taskIdentifier, blocks);
+    }
+
+    private void register() {
+        synchronized (QUEUES) {
+            List<StealingBlockQueue> queues = QUEUES.get(taskIdentifier);
+            if (queues == null) {
+                queues = new ArrayList<StealingBlockQueue>();
+                QUEUES.put(taskIdentifier, queues);
+            }
+            queues.add(this);
+        }
+        registered = true;
+    }
+
+    public void unregister() {
+        synchronized (QUEUES) {
+            List<StealingBlockQueue> queues = QUEUES.get(taskIdentifier);
+            if (queues != null) {
+                queues.remove(this);
+                if (queues.isEmpty()) {
+                    QUEUES.remove(taskIdentifier);
+                }
+            }
+        }
+        if (stolenBlocks > 0) {
+            LOG.info("Simulated " + stolenBlocks + " blocks of other jobs");
+        }
+    }
+
+    public SimulationBlock nextBlock() {
+        SimulationBlock block = blocks.pollFirst();
+        if (!registered) {
+            // the first block is taken before the others can steal
+            register();
+        }
+        if (block == null) {
+            block = steal();
+            if (block != null) {
+                stolenBlocks++;
+            }
+        }
+        return block;
+    }
+
+    private SimulationBlock steal() {
+        while (true) {
+            StealingBlockQueue victim = null;
+            int victimSize = 0;
+            synchronized (QUEUES) {
+                List<StealingBlockQueue> queues = QUEUES.get(taskIdentifier);
+                if (queues != null) {
+                    for (StealingBlockQueue queue : queues) {
+                        int size = queue.blocks.size();
+                        if (queue != this && size > victimSize) {
+                            victim = queue;
+                            victimSize = size;
+                        }
+                    }
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            SimulationBlock block = victim.blocks.pollLast();
+            if (block != null) {
+                return block;
+            }
+            // the victim took its last block in the meantime, look for another one
+        }
+    }
+
+    /**
+     * @return the number of blocks of this queue which are not yet taken
+     */
+    public int size() {
+        return blocks.size();
+    }
+
+    /**
+     * @return the number of blocks taken from the queues of other jobs
+     */
+    public int getStolenBlocks() {
+        return stolenBlocks;
+    }
+}
@@ -0,0 +1,295 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid.output;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the receipt of results on the master node from writing them. Results are put into a bounded queue and written by a
+ * dedicated thread, the listener thread is only blocked while the queue is full (back-pressure). The writer thread takes all
+ * queued results at once and coalesces consecutive uncompressed chunks of the same file into a single write.
+ * <p/>
+ * A single writer thread is used because the ResultWriter (and the segment file of the PackedResultWriter) is not thread safe.
+ * <p/>
+ * With a SeriesListener the file of a series is completed as soon as all chunks of all jobs are written (see
+ * ResultTransferObject.getChunkCount()), so it can be read while the results of other series are still received.
+ */
+public class AsyncResultWriter {
+
+    private static Log LOG = LogFactory.getLog(AsyncResultWriter.class);
+
+    /**
+     * Config key for the number of results which may be queued before the listener is blocked
+     */
+    public static final String QUEUE_SIZE_KEY = "resultWriterQueueSize";
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private static final ResultTransferObject END_OF_RESULTS = new ResultTransferObject(null, null, new byte[0], 0);
+
+    private final ResultWriter resultWriter;
+    private final BlockingQueue<ResultTransferObject> queue;
+    private final Thread writerThread;
+
+    private int jobCount;
+    private SeriesListener seriesListener;
+    // written chunks, received last chunks and expected chunks per file
+    private final Map<String, int[]> chunkCounts = new HashMap<String, int[]>();
+
+    private final Object lock = new Object();
+    private int submittedResults;
+    private int writtenResults;
+    private Throwable failure;
+
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong blockedSubmits = new AtomicLong();
+    private volatile int maxQueueSize;
+    private long writes;
+    private long writtenBytes;
+
+    public AsyncResultWriter(ResultWriter resultWriter, int queueSize) {
+        this.resultWriter = resultWriter;
+        this.queue = new ArrayBlockingQueue<ResultTransferObject>(queueSize);
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeResults();
+            }
+        }, "AsyncResultWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public interface SeriesListener {
+        /**
+         * Called by the writer thread as soon as the file of the series is complete.
+         */
+        void seriesCompleted(ResultDescriptor descriptor);
+    }
+
+    /**
+     * Completes the file of a series once all jobs have sent all their chunks of it and passes it to the listener. Files of
+     * series which are not produced by every job are completed by close(). Must be called before the first result is submitted
+     * and only if the ResultWriter can close series.
+     */
+    public void setSeriesListener(int jobCount, SeriesListener listener) {
+        if (!resultWriter.canCloseSeries()) {
+            throw new IllegalStateException(resultWriter.getClass().getSimpleName() + " can't complete single series");
+        }
+        this.jobCount = jobCount;
+        this.seriesListener = listener;
+    }
+
+    /**
+     * Queues a result, blocks if the queue is full. The descriptor of the result must be complete (path id set).
+     */
+    public void submit(ResultTransferObject result) throws InterruptedException {
+        synchronized (lock) {
+            submittedResults++;
+        }
+        if (!queue.offer(result)) {
+            long start = System.nanoTime();
+            queue.put(result);
+            blockedNanos.addAndGet(System.nanoTime() - start);
+            blockedSubmits.incrementAndGet();
+        }
+        int size = queue.size();
+        if (size > maxQueueSize) {
+            maxQueueSize = size;
+        }
+    }
+
+    /**
+     * @param resultCount number of results which have to be submitted and written
+     * @return a future which is done as soon as resultCount results are written. It fails if a result could not be written.
+     */
+    public Future<Integer> drain(final int resultCount) {
+        return new Future<Integer>() {
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return false;
+            }
+
+            public boolean isCancelled() {
+                return false;
+            }
+
+            public boolean isDone() {
+                synchronized (lock) {
+                    return failure != null || writtenResults >= resultCount;
+                }
+            }
+
+            public Integer get() throws InterruptedException, ExecutionException {
+                synchronized (lock) {
+                    while (failure == null && writtenResults < resultCount) {
+                        lock.wait();
+                    }
+                    return getResult();
+                }
+            }
+
+            public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                long end = System.nanoTime() + unit.toNanos(timeout);
+                synchronized (lock) {
+                    while (failure == null && writtenResults < resultCount) {
+                        long remaining = end - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new TimeoutException(writtenResults + " of " + resultCount + " results written");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                    return getResult();
+                }
+            }
+
+            private Integer getResult() throws ExecutionException {
+                if (failure != null) {
+                    throw new ExecutionException(failure);
+                }
+                return writtenResults;
+            }
+        };
+    }
+
+    private void writeResults() {
+        List<ResultTransferObject> batch = new ArrayList<ResultTransferObject>();
+        boolean finished = false;
+        while (!finished) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+            if (batch.get(batch.size() - 1) == END_OF_RESULTS) {
+                batch.remove(batch.size() - 1);
+                finished = true;
+            }
+            if (failure == null) {
+                try {
+                    write(batch);
+                } catch (Throwable t) {
+                    LOG.error("Error writing results", t);
+                    synchronized (lock) {
+                        failure = t;
+                        lock.notifyAll();
+                    }
+                }
+            }
+            // after a failure results are discarded, so the listener is never blocked
+            synchronized (lock) {
+                writtenResults += batch.size();
+                lock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<ResultTransferObject> batch) throws Exception {
+        Map<String, List<ResultTransferObject>> chunksPerFile = new LinkedHashMap<String, List<ResultTransferObject>>();
+        for (ResultTransferObject result : batch) {
+            String fileName = result.getResultDescriptor().getFileName();
+            List<ResultTransferObject> chunks = chunksPerFile.get(fileName);
+            if (chunks == null) {
+                chunks = new ArrayList<ResultTransferObject>();
+                chunksPerFile.put(fileName, chunks);
+            }
+            chunks.add(result);
+        }
+        for (List<ResultTransferObject> chunks : chunksPerFile.values()) {
+            int i = 0;
+            while (i < chunks.size()) {
+                ResultTransferObject first = chunks.get(i++);
+                if (first.isCompressed() || i == chunks.size() || chunks.get(i).isCompressed()) {
+                    write(first);
+                    continue;
+                }
+                ByteArrayOutputStream coalesced = new ByteArrayOutputStream();
+                coalesced.write(first.getData());
+                ResultTransferObject last = first;
+                while (i < chunks.size() && !chunks.get(i).isCompressed()) {
+                    last = chunks.get(i++);
+                    coalesced.write(last.getData());
+                }
+                write(new ResultTransferObject(first.getResultDescriptor(), last.getJobIdentifier(), coalesced.toByteArray(), last.getProgress()));
+            }
+            if (seriesListener != null) {
+                countChunks(chunks);
+            }
+        }
+    }
+
+    private void countChunks(List<ResultTransferObject> chunks) {
+        ResultDescriptor descriptor = chunks.get(0).getResultDescriptor();
+        String fileName = descriptor.getFileName();
+        int[] counts = chunkCounts.get(fileName);
+        if (counts == null) {
+            counts = new int[3];
+            chunkCounts.put(fileName, counts);
+        }
+        for (ResultTransferObject chunk : chunks) {
+            counts[0]++;
+            if (chunk.isFinalChunk()) {
+                counts[1]++;
+                counts[2] += chunk.getChunkCount();
+            }
+        }
+        if (counts[1] == jobCount && counts[0] == counts[2]) {
+            resultWriter.closeSeries(fileName);
+            seriesListener.seriesCompleted(descriptor);
+        }
+    }
+
+    private void write(ResultTransferObject result) {
+        resultWriter.writeResult(result);
+        writes++;
+        writtenBytes += result.getData().length;
+    }
+
+    /**
+     * Writes all queued results and closes the ResultWriter.
+     */
+    public void close() throws InterruptedException {
+        queue.put(END_OF_RESULTS);
+        writerThread.join();
+        resultWriter.close();
+        LOG.info("Wrote " + writtenResults + " results with " + writes + " writes (" + writtenBytes + " bytes). Max queue size: " +
+                maxQueueSize + ", listener blocked " + blockedSubmits.get() + " times for " + getBlockedMillis() + " ms");
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @return the number of submits which had to wait for the writer thread
+     */
+    public long getBlockedSubmits() {
+        return blockedSubmits.get();
+    }
+
+    /**
+     * @return the total time the listener waited for the writer thread
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    public int getSubmittedResults() {
+        synchronized (lock) {
+            return submittedResults;
+        }
+    }
+
+    public int getWrittenResults() {
+        synchronized (lock) {
+            return writtenResults;
+        }
+    }
+}
@@ -4,7 +4,11 @@
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 import org.gridgain.grid.Grid
+import org.pillarone.riskanalytics.core.dataaccess.ResultSeriesCodec
 import org.pillarone.riskanalytics.core.output.ICollectorOutputStrategy
+import org.pillarone.riskanalytics.core.output.IResultBlockOutputStrategy
+import org.pillarone.riskanalytics.core.output.ResultBlock
+import org.pillarone.riskanalytics.core.output.ResultSketch
 import org.pillarone.riskanalytics.core.output.SingleValueResultPOJO
 import org.pillarone.riskanalytics.core.simulation.engine.SimulationRunner
 import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
@@ -13,26 +17,56 @@
 import org.pillarone.riskanalytics.core.util.GroovyUtils
 
 @CompileStatic
-class GridOutputStrategy implements ICollectorOutputStrategy, Serializable {
+class GridOutputStrategy implements IResultBlockOutputStrategy, Serializable {
 
     private static final int PACKET_LIMIT = 100000
     private static Log LOG = LogFactory.getLog(GridOutputStrategy)
 
-    private HashMap<ResultDescriptor, ByteArrayOutputStream> streamCache = new HashMap<ResultDescriptor, ByteArrayOutputStream>();
+    // kept for the whole job, the streams are reset when the results are sent
+    private HashMap<ResultDescriptor, SeriesOutput> streamCache = new HashMap<ResultDescriptor, SeriesOutput>();
+    // the outputs by ResultBlock.getSeriesId() of the blocks of the collectors
+    private transient IdentityHashMap<ResultBlock, SeriesOutput[]> blockOutputs
+    private HashMap<ResultDescriptor, ResultSketch> sketches
 
     private Grid grid
     private UUID masterNodeId
     private SimulationRunner runner
     private UUID jobIdentifier
+    private boolean compressed
 
     private int resultCount = 0
 
     int totalMessages = 0
 
     public GridOutputStrategy(UUID masterNodeId, SimulationRunner runner, UUID jobIdentifier) {
+        this(masterNodeId, runner, jobIdentifier, false)
+    }
+
+    /**
+     * @param compressed true to encode the results with the ResultSeriesCodec before they are sent to the master
+     */
+    public GridOutputStrategy(UUID masterNodeId, SimulationRunner runner, UUID jobIdentifier, boolean compressed) {
+        this(masterNodeId, runner, jobIdentifier, compressed, false)
+    }
+
+    /**
+     * @param sketched true to collect a ResultSketch of every result series, returned with the JobResult
+     */
+    public GridOutputStrategy(UUID masterNodeId, SimulationRunner runner, UUID jobIdentifier, boolean compressed, boolean sketched) {
         this.masterNodeId = masterNodeId
         this.runner = runner
         this.jobIdentifier = jobIdentifier
+        this.compressed = compressed
+        if (sketched) {
+            sketches = new HashMap<ResultDescriptor, ResultSketch>()
+        }
+    }
+
+    /**
+     * @return the sketches of the series (path as name) of this job or null if not sketched
+     */
+    HashMap<ResultDescriptor, ResultSketch> getSketches() {
+        return sketches
     }
 
     private Grid getGrid() {
@@ -43,7 +77,7 @@ private Grid getGrid() {
     }
 
     void finish() {
-        sendResults()
+        sendResults(true)
     }
 
     ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
@@ -65,31 +99,116 @@ ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
 
         for (ResultDescriptor descriptor: singleResults.keySet()) {
             List<IterationValue> values = singleResults.get(descriptor);
-            ByteArrayOutputStream buffer = streamCache.get(descriptor);
-            if (buffer == null) {
-                buffer = new ByteArrayOutputStream();
-                streamCache.put(descriptor, buffer);
-            }
-            DataOutputStream dos = new DataOutputStream(buffer);
+            SeriesOutput output = getOutput(descriptor)
+            DataOutputStream dos = output.stream
             dos.writeInt(iteration);
             dos.writeInt(values.size());
+            double sum = 0
             for (IterationValue i: values) {
                 dos.writeDouble(i.value);
                 dos.writeLong(i.tstamp);
+                sum += i.value
+            }
+            if (output.sketch != null) {
+                output.sketch.add(sum)
             }
+        }
 
+        if (resultCount > PACKET_LIMIT) {
+            sendResults()
         }
+        return this
+    }
 
+    /**
+     * Writes the series of the block without creating intermediate objects per result. The outputs of the series are
+     * cached by block, so the descriptor of a series is only created for its first result.
+     */
+    ICollectorOutputStrategy leftShift(ResultBlock results) {
+        int seriesCount = results.groupBySeries()
+        SeriesOutput[] outputs = getOutputs(results)
+        for (int series = 0; series < seriesCount; series++) {
+            int start = results.getSeriesStart(series)
+            int end = results.getSeriesStart(series + 1)
+            int seriesId = results.getSeriesId(series)
+            SeriesOutput output = outputs[seriesId]
+            if (output == null) {
+                int first = results.getSeriesResult(start)
+                output = getOutput(new ResultDescriptor(GroovyUtils.getId(results.getField(first)), results.path.pathName,
+                        GroovyUtils.getId(results.getCollector(first)), results.getPeriod(first)))
+                outputs[seriesId] = output
+            }
+            DataOutputStream dos = output.stream
+            dos.writeInt(results.iteration)
+            dos.writeInt(end - start)
+            double sum = 0
+            for (int position = start; position < end; position++) {
+                int index = results.getSeriesResult(position)
+                long date = results.getDate(index)
+                dos.writeDouble(results.getValue(index))
+                dos.writeLong(date == ResultBlock.NO_DATE ? 0 : date)
+                sum += results.getValue(index)
+            }
+            if (output.sketch != null) {
+                output.sketch.add(sum)
+            }
+        }
+        resultCount += results.size
         if (resultCount > PACKET_LIMIT) {
             sendResults()
         }
         return this
     }
 
+    private SeriesOutput[] getOutputs(ResultBlock results) {
+        if (blockOutputs == null) {
+            blockOutputs = new IdentityHashMap<ResultBlock, SeriesOutput[]>()
+        }
+        SeriesOutput[] outputs = blockOutputs.get(results)
+        if (outputs == null || outputs.length < results.knownSeriesCount) {
+            SeriesOutput[] grown = new SeriesOutput[Math.max(8, results.knownSeriesCount * 2)]
+            if (outputs != null) {
+                System.arraycopy(outputs, 0, grown, 0, outputs.length)
+            }
+            outputs = grown
+            blockOutputs.put(results, outputs)
+        }
+        return outputs
+    }
+
+    private SeriesOutput getOutput(ResultDescriptor descriptor) {
+        SeriesOutput output = streamCache.get(descriptor)
+        if (output == null) {
+            output = new SeriesOutput(descriptor)
+            if (sketches != null) {
+                output.sketch = new ResultSketch()
+                sketches.put(descriptor, output.sketch)
+            }
+            streamCache.put(descriptor, output)
+        }
+        return output
+    }
+
     protected void sendResults() {
-        for (Map.Entry<ResultDescriptor, ByteArrayOutputStream> entry: streamCache.entrySet()) {
-            ResultDescriptor resultDescriptor = entry.key
-            ByteArrayOutputStream stream = entry.value
+        sendResults(false)
+    }
+
+    /**
+     * @param last true to send the last chunk of every series of this job, it contains the number of chunks sent for the series
+     * (see ResultTransferObject.getChunkCount()). Series without pending results get an empty last chunk.
+     */
+    protected void sendResults(boolean last) {
+        int sentStreams = 0
+        for (SeriesOutput output: streamCache.values()) {
+            // series without pending results only get an empty last chunk if they were sent before
+            if (output.buffer.size() == 0 && (!last || output.sentChunks == 0)) {
+                continue
+            }
+            ResultDescriptor resultDescriptor = output.descriptor
+            ByteArrayOutputStream stream = output.buffer
+            int chunks = ++output.sentChunks
+            boolean encoded = compressed && stream.size() > 0
+            byte[] data = encoded ? ResultSeriesCodec.encode(stream.toByteArray()) : stream.toByteArray()
             /*GridRichNode master
             for (GridRichNode node in getGrid().allNodes) {
                 if (node.getId() == this.masterNodeId) {
@@ -97,19 +216,55 @@ protected void sendResults() {
                 }
             }
             getGrid().sendMessage(master, new ResultTransferObject(resultDescriptor, jobIdentifier, stream.toByteArray(), runner.getProgress()));*/
-            getGrid().send(new ResultTransferObject(resultDescriptor, jobIdentifier, stream.toByteArray(),
-                    runner.getProgress()), new GridPredicate<GridRichNode>() {
+            getGrid().send(new ResultTransferObject(resultDescriptor, jobIdentifier, data,
+                    runner.getProgress(), encoded, last ? chunks : 0), new GridPredicate<GridRichNode>() {
                 @Override public boolean apply(GridRichNode n) {
                     return (n.id() == masterNodeId);
                 }
             }
             );
             totalMessages++
-            stream.reset()
+            sentStreams++
+            output.reset()
         }
-        LOG.debug("Sent results back for ${streamCache.size()} streams. Total count: ${totalMessages}")
-        streamCache.clear()
+        LOG.debug("Sent results back for ${sentStreams} streams. Total count: ${totalMessages}")
         resultCount = 0
+        if (last) {
+            streamCache.clear()
+            blockOutputs = null
+        }
+    }
+}
+
+/**
+ * The pending results of a series and the number of chunks sent for it.
+ */
+@CompileStatic
+class SeriesOutput {
+
+    // a buffer which has grown beyond this size is not kept after its chunk is sent
+    private static final int RETAINED_BUFFER_SIZE = 8 * 1024
+
+    final ResultDescriptor descriptor
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream()
+    DataOutputStream stream = new DataOutputStream(buffer)
+    ResultSketch sketch
+    int sentChunks
+
+    SeriesOutput(ResultDescriptor descriptor) {
+        this.descriptor = descriptor
+    }
+
+    /**
+     * Empties the buffer after its chunk is sent. A reset keeps the capacity, so large buffers are replaced instead.
+     */
+    void reset() {
+        if (buffer.size() > RETAINED_BUFFER_SIZE) {
+            buffer = new ByteArrayOutputStream()
+            stream = new DataOutputStream(buffer)
+        } else {
+            buffer.reset()
+        }
     }
 }
 
@@ -1,6 +1,7 @@
 package org.pillarone.riskanalytics.core.simulation.engine.grid.output
 
 import groovy.transform.CompileStatic
+import org.pillarone.riskanalytics.core.output.ResultSketch
 
 @CompileStatic
 class JobResult implements Serializable {
@@ -12,4 +13,8 @@ class JobResult implements Serializable {
     Throwable simulationException
     Date start
     Date end
+    /**
+     * Sketches of the result series of this job (path as name) if the simulation calculates approximate key figures
+     */
+    Map<ResultDescriptor, ResultSketch> sketches
 }
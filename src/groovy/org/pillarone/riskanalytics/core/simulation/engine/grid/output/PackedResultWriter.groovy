@@ -0,0 +1,142 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid.output
+
+import groovy.transform.CompileStatic
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+import org.pillarone.riskanalytics.core.dataaccess.ResultContainer
+import org.pillarone.riskanalytics.core.dataaccess.ResultFileSummary
+import org.pillarone.riskanalytics.core.output.CollectorMapping
+import org.pillarone.riskanalytics.core.output.FieldMapping
+import org.pillarone.riskanalytics.core.output.PathMapping
+
+/**
+ * Writes all results of a run into a single segment file (see ResultContainer) instead of one file per series.
+ * Chunks are collected per series and appended as extent once EXTENT_SIZE is reached, so a series consists of a few large
+ * extents. The directory and the manifest are written on close, the container has no series before.
+ */
+class PackedResultWriter extends ResultWriter {
+
+    private static Log LOG = LogFactory.getLog(PackedResultWriter)
+
+    public static final int EXTENT_SIZE = 64 * 1024
+    public static final long MAX_BUFFERED_BYTES = 32 * 1024 * 1024
+
+    private FileOutputStream segment
+    private long segmentLength = 0
+    private long bufferedBytes = 0
+
+    private Map<String, ResultContainer.Entry> entries = new LinkedHashMap<String, ResultContainer.Entry>()
+    private Map<String, ByteArrayOutputStream> buffers = new HashMap<String, ByteArrayOutputStream>()
+
+    PackedResultWriter(long simulationRunId) {
+        super(simulationRunId)
+        segment = new FileOutputStream(new File(simulationRunPath, ResultContainer.SEGMENT_FILE))
+    }
+
+    @Override
+    @CompileStatic
+    void writeResult(ResultTransferObject intermediateResult) {
+        ResultDescriptor descriptor = intermediateResult.getResultDescriptor()
+        String fileName = descriptor.getFileName()
+        byte[] records = getRecords(intermediateResult)
+        if (records.length == 0) {
+            // empty last chunk of a job
+            return
+        }
+
+        ResultContainer.Entry entry = entries.get(fileName)
+        boolean newSeries = entry == null
+        if (newSeries) {
+            entry = new ResultContainer.Entry(descriptor.pathId, (int) descriptor.period, descriptor.fieldId, descriptor.collectorId)
+            entry.setSummary(new ResultFileSummary())
+            entries.put(fileName, entry)
+        }
+        entry.getSummary().addRecords(records)
+
+        ByteArrayOutputStream buffer = buffers.get(fileName)
+        if (buffer == null) {
+            buffer = new ByteArrayOutputStream(Math.min(EXTENT_SIZE, intermediateResult.getData().length * 4))
+            buffers.put(fileName, buffer)
+        }
+        int size = buffer.size()
+        writeChunk(buffer, fileName, newSeries, intermediateResult, records)
+        bufferedBytes += buffer.size() - size
+
+        if (buffer.size() >= EXTENT_SIZE) {
+            flush(fileName)
+        }
+        if (bufferedBytes > MAX_BUFFERED_BYTES) {
+            flushAll()
+        }
+    }
+
+    @CompileStatic
+    private void flush(String fileName) {
+        ByteArrayOutputStream buffer = buffers.remove(fileName)
+        if (buffer != null && buffer.size() > 0) {
+            buffer.writeTo(segment)
+            entries.get(fileName).addExtent(segmentLength, buffer.size())
+            segmentLength += buffer.size()
+            bufferedBytes -= buffer.size()
+        }
+    }
+
+    @CompileStatic
+    private void flushAll() {
+        for (String fileName in new ArrayList<String>(buffers.keySet())) {
+            flush(fileName)
+        }
+    }
+
+    /**
+     * The container can only be read after close.
+     */
+    @Override
+    boolean canCloseSeries() {
+        return false
+    }
+
+    /**
+     * Does nothing, the series of the container are completed by close() when the directory is written.
+     */
+    @Override
+    void closeSeries(String fileName) {
+    }
+
+    /**
+     * Writes the remaining chunks, the directory and the manifest.
+     */
+    @Override
+    void close() {
+        flushAll()
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(segment))
+        ResultContainer.writeDirectory(dos, entries.values(), segmentLength)
+        dos.close()
+        writeManifest()
+        ResultContainer.evict(new File(simulationRunPath))
+        LOG.info("Wrote ${entries.size()} series (${segmentLength} bytes) to ${simulationRunPath}")
+    }
+
+    private void writeManifest() {
+        Properties manifest = new Properties()
+        manifest.setProperty(ResultContainer.MANIFEST_VERSION, ResultContainer.VERSION.toString())
+        for (PathMapping path in PathMapping.getAll(entries.values()*.pathId.unique())) {
+            if (path != null) {
+                manifest.setProperty(ResultContainer.MANIFEST_PATH_PREFIX + path.id, path.pathName)
+            }
+        }
+        for (FieldMapping field in FieldMapping.getAll(entries.values()*.fieldId.unique())) {
+            if (field != null) {
+                manifest.setProperty(ResultContainer.MANIFEST_FIELD_PREFIX + field.id, field.fieldName)
+            }
+        }
+        for (CollectorMapping collector in CollectorMapping.getAll(entries.values()*.collectorId.unique())) {
+            if (collector != null) {
+                manifest.setProperty(ResultContainer.MANIFEST_COLLECTOR_PREFIX + collector.id, collector.collectorName)
+            }
+        }
+        new File(simulationRunPath, ResultContainer.MANIFEST_FILE).withOutputStream { OutputStream stream ->
+            manifest.store(stream, null)
+        }
+    }
+}
@@ -9,12 +9,31 @@ public class ResultTransferObject implements Serializable {
     private byte[] data;
     private int progress;
     private UUID jobIdentifier;
+    private boolean compressed;
+    private int chunkCount;
 
     public ResultTransferObject(ResultDescriptor resultDescriptor, UUID id, byte[] data, int progress) {
+        this(resultDescriptor, id, data, progress, false);
+    }
+
+    /**
+     * @param compressed true if the data is a chunk encoded by the ResultSeriesCodec
+     */
+    public ResultTransferObject(ResultDescriptor resultDescriptor, UUID id, byte[] data, int progress, boolean compressed) {
+        this(resultDescriptor, id, data, progress, compressed, 0);
+    }
+
+    /**
+     * @param chunkCount 0 or, for the last chunk of the series sent by the job, the number of chunks of the series sent by the
+     *                   job (including this one)
+     */
+    public ResultTransferObject(ResultDescriptor resultDescriptor, UUID id, byte[] data, int progress, boolean compressed, int chunkCount) {
         this.data = data;
         this.resultDescriptor = resultDescriptor;
         this.progress = progress;
         this.jobIdentifier = id;
+        this.compressed = compressed;
+        this.chunkCount = chunkCount;
     }
 
     public byte[] getData() {
@@ -32,4 +51,19 @@ public int getProgress() {
     public UUID getJobIdentifier() {
         return jobIdentifier;
     }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return true if this is the last chunk of the series sent by the job
+     */
+    public boolean isFinalChunk() {
+        return chunkCount > 0;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
 }
@@ -3,16 +3,29 @@
 import groovy.transform.CompileStatic
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
+import org.pillarone.riskanalytics.core.dataaccess.IterationIndex
+import org.pillarone.riskanalytics.core.dataaccess.ResultFileSummary
+import org.pillarone.riskanalytics.core.dataaccess.ResultSeriesCodec
 import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
+import org.pillarone.riskanalytics.core.util.Configuration
 
 @CompileStatic
 class ResultWriter {
 
-    private String simulationRunPath;
+    /**
+     * Config key to write the results of a run into a single container (see PackedResultWriter)
+     */
+    public static final String PACKED_RESULT_STORAGE = "packedResultStorage"
+
+    protected String simulationRunPath;
     private static Log LOG = LogFactory.getLog(ResultWriter)
 
     //TODO: check 'too many open files' problems
     private Map<String, FileOutputStream> streamCache = new HashMap<String, FileOutputStream>()
+    private Map<String, ResultFileSummary> summaries = new HashMap<String, ResultFileSummary>()
+    private Map<String, IterationIndex> indices = new HashMap<String, IterationIndex>()
+    private Set<String> encodedFiles = new HashSet<String>()
+    private Set<String> closedFiles = new HashSet<String>()
 
     public ResultWriter(long simulationRunId) {
 
@@ -24,24 +37,110 @@ public ResultWriter(long simulationRunId) {
         file.mkdirs();
     }
 
+    /**
+     * @return a writer for the configured storage layout
+     */
+    static ResultWriter createWriter(long simulationRunId) {
+        if (Configuration.getBoolean(PACKED_RESULT_STORAGE, false)) {
+            return new PackedResultWriter(simulationRunId)
+        }
+        return new ResultWriter(simulationRunId)
+    }
+
 
     void writeResult(ResultTransferObject intermediateResult) {
         String fileName = intermediateResult.getResultDescriptor().getFileName()
-        byte[] content = intermediateResult.getData()
+        byte[] records = getRecords(intermediateResult)
+        if (records.length == 0) {
+            // empty last chunk of a job
+            return
+        }
+        if (closedFiles.contains(fileName)) {
+            throw new IllegalStateException("Results received for the completed file " + fileName)
+        }
 
         FileOutputStream stream = streamCache.get(fileName)
-        if (stream == null) {
+        boolean newFile = stream == null
+        if (newFile) {
             File tempFile = new File(simulationRunPath + File.separator + fileName);
             stream = new FileOutputStream(tempFile, true);
             streamCache.put(fileName, stream)
+            summaries.put(fileName, new ResultFileSummary())
+            indices.put(fileName, new IterationIndex())
+        }
+
+        IterationIndex index = indices.get(fileName)
+        long offset = index.dataLength // offsets refer to the decoded records
+        writeChunk(stream, fileName, newFile, intermediateResult, records)
+        summaries.get(fileName).addRecords(records)
+        index.addRecords(records, offset)
+    }
+
+    /**
+     * @return the raw records of the transfer object
+     */
+    protected static byte[] getRecords(ResultTransferObject intermediateResult) {
+        byte[] content = intermediateResult.getData()
+        return intermediateResult.isCompressed() ? ResultSeriesCodec.decode(content) : content
+    }
+
+    /**
+     * Appends a chunk in the encoding of the file, which is given by the first chunk of the file.
+     */
+    protected void writeChunk(OutputStream out, String fileName, boolean newFile, ResultTransferObject intermediateResult, byte[] records) {
+        boolean compressed = intermediateResult.isCompressed()
+        if (newFile && compressed) {
+            encodedFiles.add(fileName)
+            out.write(ResultSeriesCodec.getFileHeader())
         }
+        if (encodedFiles.contains(fileName)) {
+            ResultSeriesCodec.writeChunk(out, compressed ? intermediateResult.getData() : ResultSeriesCodec.encode(records))
+        } else {
+            out.write(records)
+        }
+    }
 
-        stream.write(content);
+    /**
+     * @return true if single files can be completed with closeSeries before the writer is closed
+     */
+    boolean canCloseSeries() {
+        return true
     }
 
+    /**
+     * Completes the file of a series which won't get any more results, so it can be read before the writer is closed.
+     */
+    void closeSeries(String fileName) {
+        FileOutputStream stream = streamCache.remove(fileName)
+        if (stream != null) {
+            closeFile(fileName, stream)
+            summaries.remove(fileName)
+            indices.remove(fileName)
+            encodedFiles.remove(fileName)
+        }
+        closedFiles.add(fileName)
+    }
+
+    /**
+     * Appends the summary footer to every file, closes it and stores the iteration index of larger files.
+     */
     void close() {
-        for(FileOutputStream stream in streamCache.values()) {
-            stream.close()
+        for (Map.Entry<String, FileOutputStream> entry in streamCache.entrySet()) {
+            closeFile(entry.key, entry.value)
+        }
+        streamCache.clear()
+        summaries.clear()
+        indices.clear()
+        encodedFiles.clear()
+        closedFiles.clear()
+    }
+
+    private void closeFile(String fileName, FileOutputStream stream) {
+        stream.write(summaries.get(fileName).toByteArray())
+        stream.close()
+        IterationIndex index = indices.get(fileName)
+        if (index.isSparse()) {
+            index.write(IterationIndex.getIndexFile(new File(simulationRunPath + File.separator + fileName)))
         }
     }
 
@@ -22,16 +22,37 @@
 import org.pillarone.riskanalytics.core.parameter.comment.Tag
 import org.pillarone.riskanalytics.core.simulation.SimulationState
 import org.pillarone.riskanalytics.core.simulation.item.parameter.ParameterHolder
+import org.pillarone.riskanalytics.core.util.Configuration
 import org.pillarone.riskanalytics.core.simulation.item.parameter.comment.FunctionComment
 
 class Simulation extends ParametrizedItem {
 
     private final static Log LOG = LogFactory.getLog(Simulation)
+
+    /**
+     * Config key for the default of compressResults
+     */
+    public static final String COMPRESS_RESULTS = "compressResults"
+
+    /**
+     * Config key for the default of approximateKeyFigures
+     */
+    public static final String APPROXIMATE_KEY_FIGURES = "approximateKeyFigures"
+
     Parameterization parameterization
     ResultConfiguration template
     ModelStructure structure // TODO (Sep 9, 2009, msh): implement as query
     VersionNumber modelVersionNumber // TODO (Sep 9, 2009, msh): use ModelItem
     Map keyFiguresToPreCalculate
+    /**
+     * Results are encoded with the ResultSeriesCodec for the grid transfer and in the result files
+     */
+    boolean compressResults
+    /**
+     * Key figures are calculated from quantile sketches collected during the simulation instead of the sorted result values
+     * (see ResultSketch), only the pdf reads the result files
+     */
+    boolean approximateKeyFigures
 
     DateTime beginOfFirstPeriod
     int numberOfIterations
@@ -58,6 +79,8 @@ class Simulation extends ParametrizedItem {
     public Simulation(String name) {
         super(name)
         keyFiguresToPreCalculate = Holders.config?.keyFiguresToCalculate
+        compressResults = Configuration.getBoolean(COMPRESS_RESULTS, false)
+        approximateKeyFigures = Configuration.getBoolean(APPROXIMATE_KEY_FIGURES, false)
         tags = []
     }
 
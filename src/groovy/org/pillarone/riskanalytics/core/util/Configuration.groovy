@@ -17,4 +17,18 @@ public static boolean getBoolean(String key, boolean defaultValue) {
 
         return defaultValue
     }
+
+    public static int getInteger(String key, int defaultValue) {
+        ConfigObject config = Holders.config
+        if (config != null) {
+            if (config.containsKey(key)) {
+                def value = config[key]
+                if (value instanceof Integer) {
+                    return value
+                }
+            }
+        }
+
+        return defaultValue
+    }
 }
@@ -0,0 +1,23 @@
+package org.pillarone.riskanalytics.core.util;
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective;
+
+/**
+ * Key figures of the values of a result series, with the definitions of MathUtils.
+ */
+public interface IRiskMeasures {
+
+    double getMean();
+
+    double getStdDev();
+
+    double getMin();
+
+    double getMax();
+
+    double getPercentile(double severity, QuantilePerspective perspective);
+
+    double getVar(double severity, QuantilePerspective perspective);
+
+    double getTvar(double severity, QuantilePerspective perspective);
+}
@@ -266,6 +266,13 @@ public static double calculateTvarOfSortedValues(double[] sortedValues, double s
      * @return
      */
     public static double calculateTvarOfSortedValues(double[] sortedValues, double severity, QuantilePerspective perspective) {
+        return calculateTvarOfSortedValues(sortedValues, severity, calculateMean(sortedValues), perspective);
+    }
+
+    /**
+     * @param mean the mean of the values (calculateMean), avoids summing all values again if several TVaRs are calculated
+     */
+    public static double calculateTvarOfSortedValues(double[] sortedValues, double severity, double mean, QuantilePerspective perspective) {
         severity = severity / 100d;
         if (severity >= 1.0) {
             throw new IllegalArgumentException("TVaR not defined for quantile-levels greater than or equal to 1.0");
@@ -280,13 +287,13 @@ public static double calculateTvarOfSortedValues(double[] sortedValues, double s
                     sum += sortedValues[i];
                 }
                 conditionalMean = sum / (size * (1 - severity));
-                return conditionalMean - calculateMean(sortedValues);
+                return conditionalMean - mean;
             case PROFIT:
                 for (int i = index; i < size; i++) {
                     sum += sortedValues[size - (i + 1)];
                 }
                 conditionalMean = sum / (size * (1 - severity));
-                return -(conditionalMean - calculateMean(sortedValues));
+                return -(conditionalMean - mean);
             default:
                 throw new IllegalArgumentException("TVaR is calculated for loss or profit distribution: specify accordingly!");
         }
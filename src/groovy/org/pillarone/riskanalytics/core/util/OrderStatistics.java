@@ -0,0 +1,202 @@
+package org.pillarone.riskanalytics.core.util;
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Percentiles, VaRs and TVaRs of unsorted values without sorting all of them. The values needed by a key figure are moved to
+ * the position they would have in the sorted array with a three way quickselect (median of three pivots, falling back to a sort
+ * of the remaining range if the partitions degenerate), values already in their final position bound later selections. The
+ * tail of a TVaR is selected and then sorted, so it is summed in the same order as in MathUtils.
+ * <p/>
+ * A selection costs a few passes over the values, a sort log2(n). If more quantiles are requested than selectionLimit(n) the
+ * values are sorted instead. The results are identical to the MathUtils functions on the sorted values (with the same mean).
+ * <p/>
+ * The values are reordered in place.
+ */
+public class OrderStatistics {
+
+    private static final int SORT_LIMIT = 16;
+
+    private final double[] values;
+    // positions which hold the value of the sorted array
+    private final BitSet fixed;
+    private boolean sorted;
+
+    public OrderStatistics(double[] values) {
+        this.values = values;
+        this.fixed = new BitSet(values.length);
+    }
+
+    /**
+     * @return the maximum number of quantiles which are selected rather than sorted for n values
+     */
+    public static int selectionLimit(int n) {
+        return Math.max(1, (31 - Integer.numberOfLeadingZeros(n)) / 4);
+    }
+
+    public double getPercentile(double severity, QuantilePerspective perspective) {
+        selectPercentile(severity, perspective);
+        return MathUtils.calculatePercentileOfSortedValues(values, severity, perspective);
+    }
+
+    /**
+     * @param mean the mean of the values (calculateMean)
+     */
+    public double getVar(double severity, double mean, QuantilePerspective perspective) {
+        selectPercentile(severity, perspective);
+        return MathUtils.calculateVarOfSortedValues(values, severity, mean, perspective);
+    }
+
+    /**
+     * @param mean the mean of the values (calculateMean)
+     */
+    public double getTvar(double severity, double mean, QuantilePerspective perspective) {
+        if (severity < 100d) {
+            int size = values.length;
+            int index = (int) Math.floor(size * (severity / 100d));
+            switch (perspective) {
+                case LOSS:
+                    sortRange(index, size);
+                    break;
+                case PROFIT:
+                    sortRange(0, size - index);
+                    break;
+            }
+        }
+        return MathUtils.calculateTvarOfSortedValues(values, severity, mean, perspective);
+    }
+
+    public double[] getPercentiles(double[] severities, QuantilePerspective perspective) {
+        sortIfBeyondLimit(severities.length);
+        double[] result = new double[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            result[i] = getPercentile(severities[i], perspective);
+        }
+        return result;
+    }
+
+    public double[] getVars(double[] severities, double mean, QuantilePerspective perspective) {
+        sortIfBeyondLimit(severities.length);
+        double[] result = new double[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            result[i] = getVar(severities[i], mean, perspective);
+        }
+        return result;
+    }
+
+    private void sortIfBeyondLimit(int quantiles) {
+        if (!sorted && quantiles > selectionLimit(values.length)) {
+            Arrays.sort(values);
+            sorted = true;
+        }
+    }
+
+    /**
+     * Selects the positions read by MathUtils.calculatePercentileOfSortedValues.
+     */
+    private void selectPercentile(double severity, QuantilePerspective perspective) {
+        severity = severity / 100d;
+        int size = values.length;
+        int g = (int) Math.floor((size + 1 / 3d) * severity + 1 / 3d);
+        if (g <= 0) {
+            select(perspective == QuantilePerspective.LOSS ? 0 : size - 1);
+        } else if (g >= size) {
+            select(perspective == QuantilePerspective.LOSS ? size - 1 : 0);
+        } else if (perspective == QuantilePerspective.LOSS) {
+            select(g - 1);
+            select(g);
+        } else {
+            select(size - g);
+            select(size - (g + 1));
+        }
+    }
+
+    /**
+     * Moves the values of the positions from (inclusive) to to (exclusive) into sorted order.
+     */
+    private void sortRange(int from, int to) {
+        if (sorted || from >= to || fixed.nextClearBit(from) >= to) {
+            return;
+        }
+        if (from > 0) {
+            select(from);
+        }
+        if (to < values.length) {
+            select(to - 1);
+        }
+        Arrays.sort(values, from, to);
+        fixed.set(from, to);
+    }
+
+    /**
+     * Moves the value of the given rank to its position in the sorted array.
+     */
+    void select(int rank) {
+        if (sorted || rank < 0 || rank >= values.length || fixed.get(rank)) {
+            return;
+        }
+        // values left of a fixed position are not larger, right of it not smaller than the value at the position
+        int lo = rank == 0 ? 0 : fixed.previousSetBit(rank - 1) + 1;
+        int hi = fixed.nextSetBit(rank + 1);
+        hi = hi < 0 ? values.length - 1 : hi - 1;
+        int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(hi - lo + 1));
+        while (true) {
+            if (hi - lo < SORT_LIMIT || depthLimit-- == 0) {
+                Arrays.sort(values, lo, hi + 1);
+                fixed.set(lo, hi + 1);
+                return;
+            }
+            double pivot = medianOfThree(values[lo], values[(lo + hi) >>> 1], values[hi]);
+            // three way partition: [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi] > pivot
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                double value = values[i];
+                int c = compare(value, pivot);
+                if (c < 0) {
+                    values[i++] = values[lt];
+                    values[lt++] = value;
+                } else if (c > 0) {
+                    values[i] = values[gt];
+                    values[gt--] = value;
+                } else {
+                    i++;
+                }
+            }
+            fixed.set(lt, gt + 1);
+            if (rank < lt) {
+                hi = lt - 1;
+            } else if (rank > gt) {
+                lo = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Same order as Arrays.sort (-0.0 before 0.0, NaN last).
+     */
+    private static int compare(double a, double b) {
+        return a < b ? -1 : (a > b ? 1 : Double.compare(a, b));
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (compare(a, b) > 0) {
+            double t = a;
+            a = b;
+            b = t;
+        }
+        if (compare(b, c) > 0) {
+            b = c;
+            if (compare(a, b) > 0) {
+                b = a;
+            }
+        }
+        return b;
+    }
+}
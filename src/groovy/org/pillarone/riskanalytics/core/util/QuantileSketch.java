@@ -0,0 +1,324 @@
+package org.pillarone.riskanalytics.core.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Mergeable quantile sketch of a stream of values (merging t-digest). Values are buffered and merged into centroids (mean and
+ * weight) when the buffer is full. The size of a centroid is limited by the arcsine scale function: centroids near the lowest
+ * and highest ranks hold only a few values and the extreme values are kept as they are, so the error is smallest in the tails
+ * (VaR, TVaR) and largest around the median. The sketch uses O(compression) memory independent of the number of values and
+ * does not depend on random numbers.
+ * <p/>
+ * Equal values are counted in one centroid without losing precision. As long as there are at most 5 * compression values (or
+ * all values are merged into centroids of equal values) all queries are exact. Sketches are not thread safe.
+ * <p/>
+ * The buffer grows up to 5 * compression values as values are added, so the sketches of small series stay small.
+ */
+public class QuantileSketch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_COMPRESSION = 200;
+
+    private static final int INITIAL_BUFFER_SIZE = 16;
+
+    private final double compression;
+
+    private double[] means = new double[0];
+    private long[] weights = new long[0];
+    // true if all values of the centroid are equal (e.g. the zeroes of iterations without a record)
+    private boolean[] pure = new boolean[0];
+    private int centroidCount;
+
+    private final int bufferLimit;
+    private double[] bufferValues;
+    private long[] bufferWeights;
+    private boolean[] bufferPure;
+    private int buffered;
+
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private boolean exact = true;
+
+    public QuantileSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    public QuantileSketch(int compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("compression must be at least 10");
+        }
+        this.compression = compression;
+        this.bufferLimit = 5 * compression;
+        this.bufferValues = new double[INITIAL_BUFFER_SIZE];
+        this.bufferWeights = new long[INITIAL_BUFFER_SIZE];
+        this.bufferPure = new boolean[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Creates an independent copy of the sketch.
+     */
+    public QuantileSketch(QuantileSketch other) {
+        this.compression = other.compression;
+        this.bufferLimit = other.bufferLimit;
+        this.means = Arrays.copyOf(other.means, other.centroidCount);
+        this.weights = Arrays.copyOf(other.weights, other.centroidCount);
+        this.pure = Arrays.copyOf(other.pure, other.centroidCount);
+        this.centroidCount = other.centroidCount;
+        this.bufferValues = other.bufferValues.clone();
+        this.bufferWeights = other.bufferWeights.clone();
+        this.bufferPure = other.bufferPure.clone();
+        this.buffered = other.buffered;
+        this.count = other.count;
+        this.min = other.min;
+        this.max = other.max;
+        this.exact = other.exact;
+    }
+
+    public void add(double value) {
+        add(value, 1, true);
+    }
+
+    /**
+     * Adds the value weight times.
+     */
+    public void add(double value, long weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight);
+        }
+        add(value, weight, true);
+    }
+
+    public void merge(QuantileSketch other) {
+        for (int i = 0; i < other.buffered; i++) {
+            add(other.bufferValues[i], other.bufferWeights[i], other.bufferPure[i]);
+        }
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i], other.pure[i]);
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        exact &= other.exact;
+    }
+
+    private void add(double value, long weight, boolean pureValue) {
+        if (weight == 0) {
+            return;
+        }
+        if (buffered == bufferValues.length) {
+            if (buffered < bufferLimit) {
+                int size = Math.min(bufferLimit, buffered * 2);
+                bufferValues = Arrays.copyOf(bufferValues, size);
+                bufferWeights = Arrays.copyOf(bufferWeights, size);
+                bufferPure = Arrays.copyOf(bufferPure, size);
+            } else {
+                compress();
+            }
+        }
+        bufferValues[buffered] = value;
+        bufferWeights[buffered] = weight;
+        bufferPure[buffered++] = pureValue;
+        count += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * @return the number of added values (the sum of the weights)
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if no different values were merged into a centroid yet, all queries are exact
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return the number of centroids and buffered values
+     */
+    public int getSize() {
+        return centroidCount + buffered;
+    }
+
+    /**
+     * @param rank 0 based rank in the sorted values, less than getCount()
+     * @return the (approximate) value at this rank, interpolated between the centers of the neighbouring centroids
+     */
+    public double getValueAtRank(long rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IllegalArgumentException("Rank " + rank + " out of range [0, " + count + ")");
+        }
+        if (rank == 0) {
+            return min;
+        }
+        if (rank == count - 1) {
+            return max;
+        }
+        compress();
+        long start = 0;
+        int i = 0;
+        while (start + weights[i] <= rank) {
+            start += weights[i++];
+        }
+        if (weights[i] == 1 || pure[i]) {
+            return means[i];
+        }
+        long end = start + weights[i];
+        double position = rank + 0.5;
+        double center = start + weights[i] / 2d;
+        double result;
+        if (position < center) {
+            double leftPosition = 0;
+            double leftValue = min;
+            if (i > 0) {
+                leftPosition = pure[i - 1] ? start - 0.5 : start - weights[i - 1] / 2d;
+                leftValue = means[i - 1];
+            }
+            result = interpolate(leftPosition, leftValue, center, means[i], position);
+        } else {
+            double rightPosition = count;
+            double rightValue = max;
+            if (i < centroidCount - 1) {
+                rightPosition = pure[i + 1] ? end + 0.5 : end + weights[i + 1] / 2d;
+                rightValue = means[i + 1];
+            }
+            result = interpolate(center, means[i], rightPosition, rightValue, position);
+        }
+        return Math.max(min, Math.min(max, result));
+    }
+
+    /**
+     * @return the (approximate) sum of the values with a rank from fromRank (inclusive) to toRank (exclusive), summed in ascending
+     *         or descending order of the values. The values of a centroid are assumed to be equal to its mean.
+     */
+    public double getSum(long fromRank, long toRank, boolean descending) {
+        if (fromRank >= toRank) {
+            return 0;
+        }
+        compress();
+        long[] starts = new long[centroidCount];
+        long start = 0;
+        for (int i = 0; i < centroidCount; i++) {
+            starts[i] = start;
+            start += weights[i];
+        }
+        double sum = 0;
+        for (int j = 0; j < centroidCount; j++) {
+            int i = descending ? centroidCount - 1 - j : j;
+            long overlap = Math.min(starts[i] + weights[i], toRank) - Math.max(starts[i], fromRank);
+            if (overlap > 0) {
+                sum += overlap == 1 ? means[i] : means[i] * overlap;
+            }
+        }
+        return sum;
+    }
+
+    private static double interpolate(double x0, double y0, double x1, double y1, double x) {
+        if (x1 <= x0) {
+            return y0;
+        }
+        return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+    }
+
+    /**
+     * Merges the buffered values into the centroids. Up to the buffer size every distinct value keeps its own centroid.
+     */
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+        sortBuffer();
+        int n = centroidCount + buffered;
+        boolean keepAll = exact && n <= bufferLimit;
+        double normalizer = compression / (2 * Math.PI);
+        double[] newMeans = new double[n];
+        long[] newWeights = new long[n];
+        boolean[] newPure = new boolean[n];
+        int size = 0;
+        long weightSoFar = 0;
+        // largest cumulated weight of the current centroid allowed by the scale function
+        double weightLimit = 0;
+        int c = 0;
+        int b = 0;
+        while (c < centroidCount || b < buffered) {
+            double value;
+            long weight;
+            boolean pureValue;
+            if (b == buffered || (c < centroidCount && means[c] <= bufferValues[b])) {
+                value = means[c];
+                weight = weights[c];
+                pureValue = pure[c++];
+            } else {
+                value = bufferValues[b];
+                weight = bufferWeights[b];
+                pureValue = bufferPure[b++];
+            }
+            if (size > 0) {
+                int last = size - 1;
+                boolean sameValue = newPure[last] && pureValue && newMeans[last] == value;
+                if (sameValue || (!keepAll && weightSoFar + newWeights[last] + weight <= weightLimit)) {
+                    long total = newWeights[last] + weight;
+                    if (!sameValue) {
+                        newMeans[last] += (value - newMeans[last]) * weight / total;
+                        newPure[last] = false;
+                        exact = false;
+                    }
+                    newWeights[last] = total;
+                    continue;
+                }
+                weightSoFar += newWeights[last];
+            }
+            double k = normalizer * Math.asin(2 * weightSoFar / (double) count - 1) + 1;
+            weightLimit = k / normalizer >= Math.PI / 2 ? Double.POSITIVE_INFINITY : count * (Math.sin(k / normalizer) + 1) / 2;
+            newMeans[size] = value;
+            newWeights[size] = weight;
+            newPure[size++] = pureValue;
+        }
+        means = Arrays.copyOf(newMeans, size);
+        weights = Arrays.copyOf(newWeights, size);
+        pure = Arrays.copyOf(newPure, size);
+        centroidCount = size;
+        buffered = 0;
+    }
+
+    /**
+     * Sorts the buffered values, single values (the usual case) with a primitive sort.
+     */
+    private void sortBuffer() {
+        boolean singleValues = true;
+        for (int i = 0; i < buffered && singleValues; i++) {
+            singleValues = bufferWeights[i] == 1 && bufferPure[i];
+        }
+        if (singleValues) {
+            Arrays.sort(bufferValues, 0, buffered);
+            return;
+        }
+        Integer[] order = new Integer[buffered];
+        for (int i = 0; i < buffered; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(bufferValues[a], bufferValues[b]);
+            }
+        });
+        double[] values = new double[buffered];
+        long[] weights = new long[buffered];
+        boolean[] pure = new boolean[buffered];
+        for (int i = 0; i < buffered; i++) {
+            values[i] = bufferValues[order[i]];
+            weights[i] = bufferWeights[order[i]];
+            pure[i] = bufferPure[order[i]];
+        }
+        System.arraycopy(values, 0, bufferValues, 0, buffered);
+        System.arraycopy(weights, 0, bufferWeights, 0, buffered);
+        System.arraycopy(pure, 0, bufferPure, 0, buffered);
+    }
+}
@@ -0,0 +1,126 @@
+package org.pillarone.riskanalytics.core.util;
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective;
+
+/**
+ * Key figures of one sorted sample. The mean and the standard deviation are calculated once and shared by all VaRs and TVaRs,
+ * percentiles and VaRs need constant time. The sums of the tails are built once with the first TVaR of a perspective, so
+ * k TVaRs cost O(n + k) instead of O(n * k).
+ * <p/>
+ * The definitions are those of the corresponding MathUtils functions. Mean, standard deviation, percentiles and VaRs are
+ * identical, the TVaRs add the tail values in a different order and may differ in the last digits.
+ */
+public class RiskMeasures implements IRiskMeasures {
+
+    private final double[] sortedValues;
+    private final double mean;
+    private double stdDev = Double.NaN;
+    // tailSums[i] is the sum of sortedValues[i] to sortedValues[n - 1], headSums[i] the sum of the first i values
+    private double[] tailSums;
+    private double[] headSums;
+
+    /**
+     * @param sortedValues values in ascending order, not modified
+     */
+    public RiskMeasures(double[] sortedValues) {
+        if (sortedValues.length == 0) {
+            throw new IllegalArgumentException("No values");
+        }
+        this.sortedValues = sortedValues;
+        this.mean = MathUtils.calculateMean(sortedValues);
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStdDev() {
+        if (Double.isNaN(stdDev)) {
+            stdDev = MathUtils.calculateStandardDeviation(sortedValues, mean);
+        }
+        return stdDev;
+    }
+
+    public double getMin() {
+        return sortedValues[0];
+    }
+
+    public double getMax() {
+        return sortedValues[sortedValues.length - 1];
+    }
+
+    public double getPercentile(double severity, QuantilePerspective perspective) {
+        return MathUtils.calculatePercentileOfSortedValues(sortedValues, severity, perspective);
+    }
+
+    public double getVar(double severity, QuantilePerspective perspective) {
+        return MathUtils.calculateVarOfSortedValues(sortedValues, severity, mean, perspective);
+    }
+
+    /**
+     * Conditional tail expectation as MathUtils.calculateTvarOfSortedValues().
+     */
+    public double getTvar(double severity, QuantilePerspective perspective) {
+        double level = severity / 100d;
+        if (level >= 1.0) {
+            throw new IllegalArgumentException("TVaR not defined for quantile-levels greater than or equal to 1.0");
+        }
+        int size = sortedValues.length;
+        int index = (int) Math.floor(size * level);
+        switch (perspective) {
+            case LOSS:
+                return getTailSums()[index] / (size * (1 - level)) - mean;
+            case PROFIT:
+                // the tail of the profit perspective are the smallest values
+                return -(getHeadSums()[size - index] / (size * (1 - level)) - mean);
+            default:
+                throw new IllegalArgumentException("TVaR is calculated for loss or profit distribution: specify accordingly!");
+        }
+    }
+
+    private double[] getTailSums() {
+        if (tailSums == null) {
+            int size = sortedValues.length;
+            tailSums = new double[size + 1];
+            for (int i = size - 1; i >= 0; i--) {
+                tailSums[i] = tailSums[i + 1] + sortedValues[i];
+            }
+        }
+        return tailSums;
+    }
+
+    private double[] getHeadSums() {
+        if (headSums == null) {
+            int size = sortedValues.length;
+            headSums = new double[size + 1];
+            for (int i = 0; i < size; i++) {
+                headSums[i + 1] = headSums[i] + sortedValues[i];
+            }
+        }
+        return headSums;
+    }
+
+    public double[] getPercentiles(double[] severities, QuantilePerspective perspective) {
+        double[] result = new double[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            result[i] = getPercentile(severities[i], perspective);
+        }
+        return result;
+    }
+
+    public double[] getVars(double[] severities, QuantilePerspective perspective) {
+        double[] result = new double[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            result[i] = getVar(severities[i], perspective);
+        }
+        return result;
+    }
+
+    public double[] getTvars(double[] severities, QuantilePerspective perspective) {
+        double[] result = new double[severities.length];
+        for (int i = 0; i < severities.length; i++) {
+            result[i] = getTvar(severities[i], perspective);
+        }
+        return result;
+    }
+}
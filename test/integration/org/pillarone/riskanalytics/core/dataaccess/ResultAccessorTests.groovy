@@ -16,6 +16,7 @@
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultTransferObject
 import org.pillarone.riskanalytics.core.simulation.engine.grid.output.ResultDescriptor
 import org.pillarone.riskanalytics.core.output.SingleValueCollectingModeStrategy
+import org.pillarone.riskanalytics.core.output.QuantilePerspective
 
 import static org.junit.Assert.*
 
@@ -91,6 +92,74 @@ writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, p
         assertEquals(5, ResultAccessor.getAllResults(simulationRun).size())
     }
 
+    @Test
+    void testScan() {
+        writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: 0, value: 1)
+        writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: 1, value: 2)
+        writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path2, field: field, collector: collector, period: 0, iteration: 0, value: 10)
+        writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path2, field: field, collector: collector, period: 1, iteration: 0, value: 20)
+
+        Map<String, Double> sums = [:]
+        ResultAccessor.scan(simulationRun, ResultFilter.ALL, new ResultVisitor() {
+            boolean startSeries(ResultPathDescriptor descriptor) {
+                return descriptor.period == 0
+            }
+
+            void visit(ResultPathDescriptor descriptor, int iteration, double value) {
+                sums[descriptor.path.pathName] = (sums[descriptor.path.pathName] ?: 0d) + value
+            }
+
+            void endSeries(ResultPathDescriptor descriptor) {
+            }
+        })
+        assertEquals([testPath1: 3d, testPath2: 10d], sums)
+
+        ResultIterator iterator = ResultAccessor.iterator(simulationRun, { ResultPathDescriptor descriptor -> descriptor.path.id == path2.id } as ResultFilter)
+        List<Double> values = []
+        while (iterator.next()) {
+            values << iterator.value
+            assertEquals path2.pathName, iterator.descriptor.path.pathName
+        }
+        iterator.close()
+        assertEquals([10d, 20d], values.sort())
+    }
+
+    @Test
+    void testCompareRuns() {
+        SimulationRun secondRun = new SimulationRun(name: "testRun2", parameterization: simulationRun.parameterization, resultConfiguration: simulationRun.resultConfiguration,
+                model: simulationRun.model, periodCount: 2, iterations: 5, randomSeed: 0).save(flush: true)
+        [1, 2, 3, 4, 5].eachWithIndex { int value, int index ->
+            writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: index + 1, value: value)
+        }
+        resultWriter = new ResultWriter(secondRun.id)
+        [2, 2, 3, 4, 9].eachWithIndex { int value, int index ->
+            writeResult new SingleValueResult(simulationRun: secondRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: index + 1, value: value)
+        }
+        writeResult new SingleValueResult(simulationRun: secondRun, valueIndex: 0, path: path2, field: field, collector: collector, period: 0, iteration: 1, value: 1)
+
+        RunComparison comparison = new RunComparison(2)
+        comparison.setPercentiles(50d)
+        comparison.setVarSeverities(80d)
+        comparison.setTvarSeverities(80d)
+        comparison.iterationDifferences = true
+        List<RunComparison.SeriesComparison> comparisons = []
+        ResultAccessor.compareRuns(simulationRun, secondRun, comparison, { RunComparison.SeriesComparison it -> comparisons << it } as RunComparison.Listener)
+
+        assertEquals 2, comparisons.size()
+        RunComparison.SeriesComparison path1Comparison = comparisons.find { it.descriptor.path.pathName == path1.pathName }
+        assertEquals 1d, path1Comparison.meanDelta, 1e-10
+        assertEquals ResultAccessor.getStdDev(simulationRun, 0, path1.pathName, collector.collectorName, field.fieldName), path1Comparison.first.stdDev, 0
+        assertEquals ResultAccessor.getPercentile(secondRun, 0, path1.pathName, collector.collectorName, field.fieldName, 50d, QuantilePerspective.LOSS), path1Comparison.second.getPercentile(0), 0
+        assertEquals ResultAccessor.getVar(secondRun, 0, path1.pathName, collector.collectorName, field.fieldName, 80d, QuantilePerspective.LOSS), path1Comparison.second.getVar(0), 0
+        assertEquals ResultAccessor.getTvar(simulationRun, 0, path1.pathName, collector.collectorName, field.fieldName, 80d, QuantilePerspective.LOSS), path1Comparison.first.getTvar(0), 0
+        assertEquals 2, path1Comparison.iterationDifference.changedIterations
+        assertEquals 4d, path1Comparison.iterationDifference.max, 0
+
+        RunComparison.SeriesComparison path2Comparison = comparisons.find { it.descriptor.path.pathName == path2.pathName }
+        assertFalse path2Comparison.complete
+        assertNull path2Comparison.first
+    }
+
     @Test
     void testGetMean() {
         writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: 0, value: 1)
@@ -292,6 +361,28 @@ writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, p
         assertEquals 2, values[0]
     }
 
+    @Test
+    void testCombinedIterationCriteria() {
+        for (int iteration = 1; iteration <= 5; iteration++) {
+            writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: iteration, value: iteration * 10)
+            writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path2, field: field, collector: collector, period: 0, iteration: iteration, value: iteration % 2)
+        }
+
+        IterationFilter filter = IterationFilter.and(
+                ResultAccessor.getIterationCriterion(0, path1.pathName, field.fieldName, collector.collectorName, ">", 10),
+                IterationFilter.not(ResultAccessor.getIterationCriterion(0, path2.pathName, field.fieldName, collector.collectorName, "=", 1)))
+        IterationBitmap iterations = ResultAccessor.getConstrainedIterations(simulationRun, filter)
+        assertEquals([2, 4], iterations.toList())
+
+        filter = IterationFilter.or(
+                ResultAccessor.getIterationCriterion(0, path1.pathName, field.fieldName, collector.collectorName, "<=", 10),
+                ResultAccessor.getIterationCriterion(0, path1.pathName, field.fieldName, collector.collectorName, ">=", 40))
+        assertEquals([1, 4, 5], ResultAccessor.getConstrainedIterations(simulationRun, filter).toList())
+
+        Map<Integer, Double> values = ResultAccessor.getIterationConstrainedValues(simulationRun, 0, path1.pathName, field.fieldName, collector.collectorName, iterations)
+        assertEquals([2: 20d, 4: 40d], values)
+    }
+
     @Test
     void testIterationConstrainedValues() {
         writeResult new SingleValueResult(simulationRun: simulationRun, valueIndex: 0, path: path1, field: field, collector: collector, period: 0, iteration: 1, value: 20)
@@ -81,6 +81,20 @@ void testResults() {
 
     }
 
+    @Test
+    void testParallelResults() {
+        int initialRecordCount = PostSimulationCalculation.count()
+        Simulation simulation = new Simulation(run.name)
+        simulation.load()
+
+        Calculator calculator = new Calculator(simulation)
+        calculator.parallelism = 4
+        calculator.calculate()
+
+        assertEquals initialRecordCount + 14, PostSimulationCalculation.count()
+        assertEquals 7, PostSimulationCalculation.countByRunAndKeyFigure(run, PostSimulationCalculation.MEAN)
+    }
+
     @Test
     void testEstimatedEnd() {
         Simulation simulation = new Simulation(run.name)
@@ -0,0 +1,99 @@
+package org.pillarone.riskanalytics.core.output.batch.calculations
+
+import models.core.CoreModel
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.pillarone.riskanalytics.core.output.AggregatedCollectingModeStrategy
+import org.pillarone.riskanalytics.core.output.CollectorMapping
+import org.pillarone.riskanalytics.core.output.FieldMapping
+import org.pillarone.riskanalytics.core.output.PathMapping
+import org.pillarone.riskanalytics.core.output.PostSimulationCalculation
+import org.pillarone.riskanalytics.core.output.SimulationRun
+
+import static org.junit.Assert.*
+
+class JdbcCalculationsBulkInsertTests {
+
+    // the rows are committed on connections of their own and must be visible to the domain classes
+    static transactional = false
+
+    List<SimulationRun> runs = []
+    PathMapping path1
+    PathMapping path2
+    FieldMapping field
+    CollectorMapping collector
+
+    @Before
+    void setUp() {
+        path1 = new PathMapping(pathName: "jdbcBulkInsertPath1").save(flush: true)
+        path2 = new PathMapping(pathName: "jdbcBulkInsertPath2").save(flush: true)
+        field = new FieldMapping(fieldName: "jdbcBulkInsertField").save(flush: true)
+        collector = CollectorMapping.findByCollectorName(AggregatedCollectingModeStrategy.IDENTIFIER)
+        if (collector == null) {
+            collector = new CollectorMapping(collectorName: AggregatedCollectingModeStrategy.IDENTIFIER).save(flush: true)
+        }
+    }
+
+    @After
+    void tearDown() {
+        SimulationRun.withTransaction {
+            for (SimulationRun run in runs) {
+                PostSimulationCalculation.findAllByRun(run)*.delete()
+                run.delete()
+            }
+            path1.delete()
+            path2.delete()
+            field.delete()
+        }
+    }
+
+    @Test
+    void testRowsEqualGenericBulkInsert() {
+        List<String> expected = insert(new GenericBulkInsert(), "generic")
+        assertEquals 5, expected.size()
+
+        assertEquals expected, insert(new JdbcCalculationsBulkInsert(2, false), "jdbc")
+        assertEquals expected, insert(new JdbcCalculationsBulkInsert(2, true), "jdbcAsync")
+        assertEquals expected, insert(new JdbcCalculationsBulkInsert(1000, true), "jdbcSingleBatch")
+    }
+
+    @Test
+    void testWriteResult() {
+        JdbcCalculationsBulkInsert bulkInsert = new JdbcCalculationsBulkInsert(2, false)
+        SimulationRun run = createRun("jdbcWriteResult")
+        bulkInsert.simulationRun = run
+        bulkInsert.writeResult([run.id, 1, path2.id, field.id, collector.id, PostSimulationCalculation.VAR, 99.5d, -3d])
+        bulkInsert.writeResult([run.id, 0, path1.id, field.id, collector.id, PostSimulationCalculation.MEAN, null, 2d])
+        bulkInsert.saveToDB()
+
+        assertEquals(["mean null jdbcBulkInsertPath1 jdbcBulkInsertField P0: 2.0", "var 99.5 jdbcBulkInsertPath2 jdbcBulkInsertField P1: -3.0"], rows(run))
+    }
+
+    private List<String> insert(AbstractCalculationsBulkInsert bulkInsert, String name) {
+        SimulationRun run = createRun(name)
+        bulkInsert.simulationRun = run
+        bulkInsert.addResults(0, PostSimulationCalculation.MEAN, null, path1.id, field.id, collector.id, 1.5d)
+        bulkInsert.addResults(0, PostSimulationCalculation.STDEV, null, path1.id, field.id, collector.id, 0.25d)
+        bulkInsert.addResults(0, PostSimulationCalculation.PERCENTILE, 99.5d, path1.id, field.id, collector.id, 12d)
+        bulkInsert.addResults(1, PostSimulationCalculation.TVAR, 99d, path2.id, field.id, collector.id, -4d)
+        bulkInsert.addResults(1, PostSimulationCalculation.IS_STOCHASTIC, null, path2.id, field.id, collector.id, 0d)
+        bulkInsert.saveToDB()
+        return rows(run)
+    }
+
+    private SimulationRun createRun(String name) {
+        SimulationRun run = new SimulationRun(name: name, model: CoreModel.name, periodCount: 2, iterations: 10)
+        assertNotNull run.save(flush: true)
+        runs << run
+        return run
+    }
+
+    private static List<String> rows(SimulationRun run) {
+        SimulationRun.withNewSession {
+            PostSimulationCalculation.findAllByRun(run).collect { PostSimulationCalculation calculation ->
+                "${calculation.keyFigure} ${calculation.keyFigureParameter?.doubleValue()} ${calculation.path.pathName} ${calculation.field.fieldName} P${calculation.period}: ${calculation.result}".toString()
+            }.sort()
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.pillarone.riskanalytics.core.simulation.engine
+
+import models.core.CoreModel
+import org.junit.Before
+import org.junit.Test
+import org.pillarone.riskanalytics.core.fileimport.FileImportService
+import org.pillarone.riskanalytics.core.output.ICollectorOutputStrategy
+import org.pillarone.riskanalytics.core.output.ResultSketch
+import org.pillarone.riskanalytics.core.output.SingleValueResultPOJO
+import org.pillarone.riskanalytics.core.simulation.SimulationState
+import org.pillarone.riskanalytics.core.simulation.item.Parameterization
+import org.pillarone.riskanalytics.core.simulation.item.ResultConfiguration
+import org.pillarone.riskanalytics.core.simulation.item.Simulation
+import org.pillarone.riskanalytics.core.simulation.item.VersionNumber
+
+import static org.junit.Assert.*
+
+class ParallelSimulationRunnerTests {
+
+    ParallelSimulationRunner runner
+
+    @Before
+    void setUp() {
+        FileImportService.importModelsIfNeeded(["Core"])
+    }
+
+    @Test
+    void testResultsIndependentOfThreadCount() {
+        RecordingOutput singleThreaded = run("single", 1)
+        RecordingOutput parallel = run("parallel", 3)
+
+        assertEquals 1, singleThreaded.finished
+        assertEquals 1, parallel.finished
+        assertFalse singleThreaded.results.isEmpty()
+        // the last block has the iterations 2000 - 2499
+        assertTrue parallel.results.any { it.split(' ')[0].toInteger() >= 2000 }
+        assertEquals singleThreaded.results.sort(), parallel.results.sort()
+    }
+
+    @Test
+    void testWorkersUseOwnCollectors() {
+        RecordingOutput parallel = run("ownCollectors", 3)
+
+        // the collectors of CoreResultConfiguration without wildcards are shared by the original template
+        List<String> paths = ["Core:exampleOutputComponent:outValue1", "Core:exampleOutputComponent:outValue2", "Core:exampleInputOutputComponent:outValue"]
+        for (String path in paths) {
+            assertTrue path, parallel.results.any { it.split(' ')[3] == path }
+        }
+        // a collector used by several workers would write the packets of one iteration more than once
+        List<String> keys = parallel.results.collect { String result -> result.substring(0, result.lastIndexOf(' ')) }
+        assertEquals keys.size(), keys.unique(false).size()
+    }
+
+    @Test
+    void testSketchesOfAllWorkers() {
+        run("sketched", 3, true)
+
+        Map<String, ResultSketch> sketches = runner.sketchesInProgress
+        assertFalse sketches.isEmpty()
+        for (ResultSketch sketch in sketches.values()) {
+            assertEquals 2500, sketch.count
+        }
+    }
+
+    private RecordingOutput run(String name, int threadCount, boolean approximateKeyFigures = false) {
+        Simulation simulation = new Simulation(name)
+        simulation.modelClass = CoreModel
+        simulation.parameterization = new Parameterization("CoreParameters", CoreModel)
+        simulation.parameterization.load()
+        simulation.template = new ResultConfiguration("CoreResultConfiguration", CoreModel)
+        simulation.template.load()
+        simulation.modelVersionNumber = new VersionNumber("1")
+        simulation.periodCount = simulation.parameterization.periodCount
+        simulation.numberOfIterations = 2500
+        simulation.randomSeed = 1
+        simulation.approximateKeyFigures = approximateKeyFigures
+        simulation.save()
+
+        RecordingOutput output = new RecordingOutput()
+        runner = new ParallelSimulationRunner(new SimulationConfiguration(simulation, output), threadCount)
+        runner.start()
+
+        assertNull "${runner.error?.error?.message}", runner.error
+        assertEquals SimulationState.FINISHED, runner.simulationState
+        assertEquals 2500, runner.iterationsDone
+        assertEquals 100, runner.progress
+        assertNotNull simulation.end
+        return output
+    }
+}
+
+class RecordingOutput implements ICollectorOutputStrategy {
+
+    List<String> results = []
+    int finished
+
+    ICollectorOutputStrategy leftShift(List<SingleValueResultPOJO> results) {
+        for (SingleValueResultPOJO result in results) {
+            this.results << "$result.iteration $result.period $result.valueIndex $result.path.pathName $result.field.fieldName $result.value".toString()
+        }
+        return this
+    }
+
+    void finish() {
+        finished++
+    }
+}
@@ -0,0 +1,103 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid.output
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class AsyncResultWriterTests extends GroovyTestCase {
+
+    void testCoalescedWrites() {
+        RecordingResultWriter resultWriter = new RecordingResultWriter()
+        AsyncResultWriter writer = new AsyncResultWriter(resultWriter, 10)
+        for (int i = 0; i < 100; i++) {
+            writer.submit(new ResultTransferObject(new ResultDescriptor(1, i % 2, 3, 0), UUID.randomUUID(), [i] as byte[], 0))
+        }
+        assertEquals 100, writer.drain(100).get(10, TimeUnit.SECONDS)
+        shouldFail(TimeoutException) {
+            writer.drain(101).get(10, TimeUnit.MILLISECONDS)
+        }
+        writer.close()
+
+        assertTrue resultWriter.closed
+        assertEquals((0..<100).findAll { it % 2 == 0 }, resultWriter.data["0_0_1_3"].toByteArray().collect { it as int })
+        assertEquals((0..<100).findAll { it % 2 == 1 }, resultWriter.data["1_0_1_3"].toByteArray().collect { it as int })
+        assertTrue resultWriter.writeCount <= 100
+        assertEquals 100, writer.submittedResults
+    }
+
+    void testFailedWrite() {
+        RecordingResultWriter resultWriter = new RecordingResultWriter(failing: true)
+        AsyncResultWriter writer = new AsyncResultWriter(resultWriter, 10)
+        for (int i = 0; i < 20; i++) {
+            writer.submit(new ResultTransferObject(new ResultDescriptor(1, 2, 3, 0), UUID.randomUUID(), [i] as byte[], 0))
+        }
+        shouldFail(ExecutionException) {
+            writer.drain(20).get(10, TimeUnit.SECONDS)
+        }
+        writer.close()
+        assertEquals 20, writer.writtenResults
+    }
+
+    void testSeriesCompletion() {
+        RecordingResultWriter resultWriter = new RecordingResultWriter()
+        AsyncResultWriter writer = new AsyncResultWriter(resultWriter, 10)
+        List<String> completed = []
+        writer.setSeriesListener(2, { ResultDescriptor descriptor -> completed << descriptor.fileName } as AsyncResultWriter.SeriesListener)
+        UUID firstJob = UUID.randomUUID()
+        UUID secondJob = UUID.randomUUID()
+        ResultDescriptor both = new ResultDescriptor(1, 2, 3, 0)
+        ResultDescriptor firstOnly = new ResultDescriptor(1, 4, 3, 0)
+
+        // the last chunk of a job may arrive before its other chunks
+        writer.submit(new ResultTransferObject(both, firstJob, [2] as byte[], 0, false, 2))
+        writer.submit(new ResultTransferObject(firstOnly, firstJob, [5] as byte[], 0, false, 1))
+        writer.submit(new ResultTransferObject(both, secondJob, [3] as byte[], 0, false, 1))
+        writer.drain(3).get(10, TimeUnit.SECONDS)
+        assertTrue completed.empty
+
+        writer.submit(new ResultTransferObject(both, firstJob, [1] as byte[], 0))
+        writer.drain(4).get(10, TimeUnit.SECONDS)
+        assertEquals(["2_0_1_3"], completed)
+        assertEquals(["2_0_1_3"], resultWriter.closedSeries)
+
+        writer.close()
+        assertEquals(["2_0_1_3"], completed)
+        assertTrue resultWriter.closed
+    }
+}
+
+class RecordingResultWriter extends ResultWriter {
+
+    Map<String, ByteArrayOutputStream> data = [:]
+    int writeCount = 0
+    boolean closed = false
+    boolean failing = false
+    List<String> closedSeries = []
+
+    RecordingResultWriter() {
+        super(0)
+    }
+
+    @Override
+    void writeResult(ResultTransferObject intermediateResult) {
+        if (failing) {
+            throw new IOException("disk full")
+        }
+        String fileName = intermediateResult.resultDescriptor.fileName
+        if (!data.containsKey(fileName)) {
+            data[fileName] = new ByteArrayOutputStream()
+        }
+        data[fileName].write(intermediateResult.data)
+        writeCount++
+    }
+
+    @Override
+    void closeSeries(String fileName) {
+        closedSeries << fileName
+    }
+
+    @Override
+    void close() {
+        closed = true
+    }
+}
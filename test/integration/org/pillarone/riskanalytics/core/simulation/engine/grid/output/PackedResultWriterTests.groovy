@@ -0,0 +1,79 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid.output
+
+import models.core.CoreModel
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.pillarone.riskanalytics.core.dataaccess.ResultAccessor
+import org.pillarone.riskanalytics.core.dataaccess.ResultContainer
+import org.pillarone.riskanalytics.core.output.AggregatedCollectingModeStrategy
+import org.pillarone.riskanalytics.core.output.CollectorMapping
+import org.pillarone.riskanalytics.core.output.FieldMapping
+import org.pillarone.riskanalytics.core.output.PathMapping
+import org.pillarone.riskanalytics.core.output.SimulationRun
+import org.pillarone.riskanalytics.core.simulation.engine.grid.GridHelper
+
+import static org.junit.Assert.*
+
+class PackedResultWriterTests {
+
+    SimulationRun run
+    PathMapping path
+    FieldMapping field
+    CollectorMapping collector
+
+    @Before
+    void setUp() {
+        ResultAccessor.clearCaches()
+        run = new SimulationRun(name: "packedResultWriter", model: CoreModel.name, periodCount: 1, iterations: 3)
+        assertNotNull run.save(flush: true)
+        path = new PathMapping(pathName: "packedResultWriterPath").save(flush: true)
+        field = new FieldMapping(fieldName: "packedResultWriterField").save(flush: true)
+        collector = CollectorMapping.findByCollectorName(AggregatedCollectingModeStrategy.IDENTIFIER)
+        if (collector == null) {
+            collector = new CollectorMapping(collectorName: AggregatedCollectingModeStrategy.IDENTIFIER).save(flush: true)
+        }
+    }
+
+    @After
+    void tearDown() {
+        File runDirectory = new File(GridHelper.getResultLocation(run.id))
+        ResultContainer.evict(runDirectory)
+        runDirectory.deleteDir()
+        ResultAccessor.clearCaches()
+    }
+
+    @Test
+    void testReadAfterMappingCacheCleared() {
+        PackedResultWriter writer = new PackedResultWriter(run.id)
+        ResultDescriptor descriptor = new ResultDescriptor(field.id, path.id, collector.id, 0)
+        writer.writeResult(new ResultTransferObject(descriptor, UUID.randomUUID(), records([1: 2d, 2: -1d]), 0))
+        writer.writeResult(new ResultTransferObject(descriptor, UUID.randomUUID(), records([3: 5d]), 0))
+        writer.close()
+
+        // the ids are resolved from the mapping tables again and the container is reopened
+        File runDirectory = new File(GridHelper.getResultLocation(run.id))
+        ResultAccessor.clearCaches()
+        ResultContainer.evict(runDirectory)
+
+        assertEquals([2d, -1d, 5d], ResultAccessor.getValues(run, 0, path.pathName, collector.collectorName, field.fieldName) as List)
+
+        Properties manifest = ResultContainer.readManifest(runDirectory)
+        assertEquals ResultContainer.VERSION.toString(), manifest.getProperty(ResultContainer.MANIFEST_VERSION)
+        assertEquals path.pathName, manifest.getProperty(ResultContainer.MANIFEST_PATH_PREFIX + path.id)
+        assertEquals field.fieldName, manifest.getProperty(ResultContainer.MANIFEST_FIELD_PREFIX + field.id)
+        assertEquals collector.collectorName, manifest.getProperty(ResultContainer.MANIFEST_COLLECTOR_PREFIX + collector.id)
+    }
+
+    private static byte[] records(Map<Integer, Double> values) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream()
+        DataOutputStream dos = new DataOutputStream(bos)
+        for (Map.Entry<Integer, Double> entry in values.entrySet()) {
+            dos.writeInt(entry.key)
+            dos.writeInt(1)
+            dos.writeDouble(entry.value)
+            dos.writeLong(0)
+        }
+        return bos.toByteArray()
+    }
+}
@@ -0,0 +1,135 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+import org.joda.time.DateTime
+import org.joda.time.format.DateTimeFormat
+
+import java.util.zip.GZIPInputStream
+
+class CsvResultExporterTests extends GroovyTestCase {
+
+    File directory
+    List<CsvResultExporter.Series> series = []
+    String expected
+
+    protected void setUp() {
+        super.setUp()
+        directory = new File(System.getProperty("java.io.tmpdir"), "csvResultExporterTests")
+        directory.deleteDir()
+        directory.mkdirs()
+
+        long date = new DateTime(2012, 1, 1, 0, 0, 0, 0).millis
+        StringBuilder lines = new StringBuilder()
+        for (int pathId = 0; pathId < 5; pathId++) {
+            File file = new File(directory, "${pathId}_0_1_2")
+            file.withDataOutputStream { DataOutputStream dos ->
+                for (int iteration = 0; iteration < 100; iteration++) {
+                    List<Double> values = iteration % 10 == 0 ? [] : [(double) iteration * pathId, iteration / 3d]
+                    dos.writeInt(iteration)
+                    dos.writeInt(values.size())
+                    for (double value in values) {
+                        dos.writeDouble(value)
+                        dos.writeLong(date)
+                        lines << [iteration, 0, "p\u00e4th$pathId", "ultimate", value, "SINGLE", "2012-01-01"].join(",") << "\n"
+                    }
+                }
+            }
+            series << new CsvResultExporter.Series(file, 0, "p\u00e4th$pathId", "ultimate", "SINGLE")
+        }
+        expected = lines.toString()
+    }
+
+    protected void tearDown() {
+        directory.deleteDir()
+    }
+
+    private CsvResultExporter createExporter(int threads) {
+        return new CsvResultExporter(DateTimeFormat.forPattern("yyyy-MM-dd"), threads)
+    }
+
+    void testExport() {
+        for (int threads in [1, 4]) {
+            CsvResultExporter exporter = createExporter(threads)
+            ByteArrayOutputStream out = new ByteArrayOutputStream()
+            exporter.export(series, out)
+            assertEquals expected, out.toString("UTF-8")
+            assertEquals 900, exporter.lines
+            assertEquals expected.getBytes("UTF-8").length, exporter.bytes
+        }
+    }
+
+    void testLargeRecord() {
+        File file = new File(directory, "large")
+        StringBuilder lines = new StringBuilder()
+        file.withDataOutputStream { DataOutputStream dos ->
+            // more single values than the buffers of an encoder hold
+            dos.writeInt(3)
+            dos.writeInt(1500)
+            for (int i = 0; i < 1500; i++) {
+                dos.writeDouble(i)
+                dos.writeLong(new DateTime(2012, 1, 1, 0, 0, 0, 0).millis)
+                lines << [3, 0, "large", "ultimate", (double) i, "SINGLE", "2012-01-01"].join(",") << "\n"
+            }
+        }
+        List<CsvResultExporter.Series> largeSeries = [new CsvResultExporter.Series(file, 0, "large", "ultimate", "SINGLE")] + series
+
+        CsvResultExporter exporter = createExporter(2)
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        exporter.export(largeSeries, out)
+        assertEquals lines.toString() + expected, out.toString("UTF-8")
+        assertEquals 2400, exporter.lines
+    }
+
+    void testLongSeries() {
+        // each series has more chunks than an encoder buffers ahead of the writer
+        List<CsvResultExporter.Series> longSeries = []
+        for (int pathId = 0; pathId < 3; pathId++) {
+            File file = new File(directory, "long$pathId")
+            file.withDataOutputStream { DataOutputStream dos ->
+                for (int iteration = 1; iteration <= 20000; iteration++) {
+                    dos.writeInt(iteration)
+                    dos.writeInt(1)
+                    dos.writeDouble(iteration * pathId)
+                    dos.writeLong(new DateTime(2012, 1, 1, 0, 0, 0, 0).millis)
+                }
+            }
+            longSeries << new CsvResultExporter.Series(file, 0, "long$pathId", "ultimate", "SINGLE")
+        }
+
+        CsvResultExporter exporter = createExporter(1)
+        ByteArrayOutputStream expectedOut = new ByteArrayOutputStream()
+        exporter.export(longSeries, expectedOut)
+        assertEquals 60000, exporter.lines
+
+        exporter = createExporter(2)
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        exporter.export(longSeries, out)
+        assertEquals 60000, exporter.lines
+        assertEquals expectedOut.toString("UTF-8"), out.toString("UTF-8")
+        assertTrue out.toString("UTF-8").startsWith("1,0,long0,ultimate,0.0,SINGLE,2012-01-01\n")
+    }
+
+    void testLimits() {
+        CsvResultExporter exporter = createExporter(2)
+        exporter.maxLines = 900
+        exporter.maxBytes = expected.getBytes("UTF-8").length
+        exporter.export(series, new ByteArrayOutputStream())
+
+        exporter.maxBytes = expected.getBytes("UTF-8").length - 1
+        shouldFail(IllegalStateException) {
+            exporter.export(series, new ByteArrayOutputStream())
+        }
+
+        exporter.maxLines = 899
+        shouldFail(IllegalStateException) {
+            exporter.export(series, new ByteArrayOutputStream())
+        }
+    }
+
+    void testGzip() {
+        CsvResultExporter exporter = createExporter(2)
+        exporter.gzip = true
+        File file = new File(directory, "export.csv.gz")
+        exporter.export(series, file)
+        assertEquals expected, new GZIPInputStream(new FileInputStream(file)).getText("UTF-8")
+    }
+}
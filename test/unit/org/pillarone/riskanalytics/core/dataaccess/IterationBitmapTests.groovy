@@ -0,0 +1,27 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class IterationBitmapTests extends GroovyTestCase {
+
+    void testBuilder() {
+        IterationBitmap bitmap = new IterationBitmap.Builder().add(70000).add(3).add(1).add(3).build()
+        assertEquals([1, 3, 70000], bitmap.toList())
+        assertEquals 3, bitmap.cardinality
+        assertTrue bitmap.contains(70000)
+        assertFalse bitmap.contains(2)
+        assertTrue IterationBitmap.EMPTY.isEmpty()
+    }
+
+    void testOperations() {
+        // the even iterations are stored as bitsets, the multiples of 3 below 1000 as arrays
+        IterationBitmap even = IterationBitmap.of((1..200000).findAll { it % 2 == 0 })
+        IterationBitmap multiplesOf3 = IterationBitmap.of((1..<1000).findAll { it % 3 == 0 })
+
+        assertEquals((1..<1000).findAll { it % 6 == 0 }, even.and(multiplesOf3).toList())
+        assertEquals(100000 + 167, even.or(multiplesOf3).cardinality)
+        assertEquals((1..<1000).findAll { it % 3 == 0 && it % 2 == 1 }, multiplesOf3.andNot(even).toList())
+        // iterations are counted from 1
+        assertEquals((1..10).findAll { it % 3 != 0 }, multiplesOf3.not(10).toList())
+        assertEquals((1..200000).toList(), IterationBitmap.range(200000).toList())
+        assertEquals IterationBitmap.range(200000), even.or(even.not(200000))
+    }
+}
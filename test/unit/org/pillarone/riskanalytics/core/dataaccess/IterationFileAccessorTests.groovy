@@ -0,0 +1,138 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class IterationFileAccessorTests extends GroovyTestCase {
+
+    File file
+
+    protected void setUp() {
+        super.setUp()
+        file = File.createTempFile("iterationFileAccessor", ".tmp")
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))
+        // iteration, value count, (value, date)*
+        writeRecord(dos, 0, [3d, 1d], [10L, 11L])
+        writeRecord(dos, 2, [-5d], [20L])
+        writeRecord(dos, 1, [7d, 0d], [30L, 31L])
+        dos.close()
+    }
+
+    protected void tearDown() {
+        file.delete()
+    }
+
+    private static void writeRecord(DataOutputStream dos, int iteration, List<Double> values, List<Long> dates) {
+        dos.writeInt(iteration)
+        dos.writeInt(values.size())
+        for (int i = 0; i < values.size(); i++) {
+            dos.writeDouble(values[i])
+            dos.writeLong(dates[i])
+        }
+    }
+
+    void testFetchNext() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertTrue ifa.fetchNext()
+        assertEquals 0, ifa.iteration
+        assertEquals 4d, ifa.value
+        assertEquals([10L, 11L], ifa.singleValues*.dateTime)
+        assertTrue ifa.fetchNext()
+        assertEquals 2, ifa.iteration
+        assertEquals(-5d, ifa.value)
+        assertTrue ifa.fetchNext()
+        assertEquals 1, ifa.iteration
+        assertEquals 7d, ifa.value
+        assertFalse ifa.fetchNext()
+        ifa.close()
+    }
+
+    void testMissingFile() {
+        IterationFileAccessor ifa = new IterationFileAccessor(new File(file.absolutePath + "_missing"))
+        assertFalse ifa.fetchNext()
+        assertEquals 0, ifa.countRemainingRecords()
+    }
+
+    void testReadValues() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertEquals 3, ifa.countRemainingRecords()
+        assertEquals 5, ifa.countRemainingSingleValues()
+
+        double[] values = new double[2]
+        int[] iterations = new int[2]
+        assertEquals 2, ifa.readValues(values, iterations)
+        assertEquals([4d, -5d], values as List)
+        assertEquals([0, 2], iterations as List)
+
+        assertEquals 1, ifa.readValues(values, iterations)
+        assertEquals 7d, values[0]
+        assertEquals 1, iterations[0]
+        assertEquals 0, ifa.readValues(values, iterations)
+        ifa.close()
+    }
+
+    void testReadSingleValues() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        double[] values = new double[4]
+        long[] dates = new long[4]
+        int[] iterations = new int[4]
+        // the last record does not fit completely
+        assertEquals 3, ifa.readSingleValues(values, dates, iterations)
+        assertEquals([3d, 1d, -5d], (values as List)[0..2])
+        assertEquals([10L, 11L, 20L], (dates as List)[0..2])
+        assertEquals([0, 0, 2], (iterations as List)[0..2])
+
+        assertEquals 2, ifa.readSingleValues(values, null, null)
+        assertEquals([7d, 0d], (values as List)[0..1])
+        assertEquals 0, ifa.readSingleValues(values, null, null)
+        ifa.close()
+    }
+
+    void testReadSingleValuesOfLargeRecord() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        double[] values = new double[1]
+        // the first record has two single values, nothing is read
+        assertEquals(-2, ifa.readSingleValues(values, null, null))
+        assertEquals(-2, ifa.readSingleValues(values, null, null))
+
+        values = new double[2]
+        assertEquals 2, ifa.readSingleValues(values, null, null)
+        assertEquals([3d, 1d], values as List)
+        ifa.close()
+    }
+
+    void testSummaryFooter() {
+        ResultFileSummary summary = new ResultFileSummary()
+        summary.addRecords(file.bytes)
+        file.append(summary.toByteArray())
+
+        ResultFileSummary read = ResultFileSummary.read(file)
+        assertEquals 3, read.count
+        assertEquals 6d, read.sum
+        assertEquals 16d + 25d + 49d, read.sumOfSquares
+        assertEquals(-5d, read.min)
+        assertEquals 7d, read.max
+        assertEquals 0, read.firstIteration
+        assertEquals 1, read.lastIteration
+        // two missing iterations count as 0
+        assertEquals 7d, read.getMax(5)
+        assertEquals(-5d, read.getMin(5))
+        assertEquals 1.2d, read.getMean(5)
+
+        // the footer is not read as record
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertNotNull ifa.summary
+        assertEquals 3, ifa.countRemainingRecords()
+        int count = 0
+        while (ifa.fetchNext()) {
+            count++
+        }
+        assertEquals 3, count
+        ifa.close()
+    }
+
+    void testNoSummaryFooter() {
+        assertNull ResultFileSummary.read(file)
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertNull ifa.summary
+        ifa.close()
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class IterationIndexTests extends GroovyTestCase {
+
+    File directory
+    File file
+
+    protected void setUp() {
+        super.setUp()
+        directory = new File(System.getProperty("java.io.tmpdir"), "iterationIndexTests")
+        directory.mkdirs()
+        file = new File(directory, "1_0_2_3")
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(file))
+        // blocks arrive in arbitrary order from the grid
+        for (int block in [3, 0, 2, 1]) {
+            for (int iteration = block * 250; iteration < (block + 1) * 250; iteration++) {
+                dos.writeInt(iteration)
+                dos.writeInt(1)
+                dos.writeDouble(iteration * 2)
+                dos.writeLong(0)
+            }
+        }
+        dos.close()
+    }
+
+    protected void tearDown() {
+        directory.deleteDir()
+    }
+
+    void testFetchIteration() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertTrue ifa.fetchIteration(600)
+        assertEquals 600, ifa.iteration
+        assertEquals 1200d, ifa.value
+        assertFalse ifa.fetchIteration(1000)
+        assertEquals 1000.intdiv(IterationIndex.INTERVAL) + 1, ifa.index.entryCount
+        ifa.close()
+
+        assertTrue IterationIndex.getIndexFile(file).exists()
+    }
+
+    void testReadIterationConstrainedValues() {
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        Map<Integer, Double> values = [:]
+        ifa.readIterationConstrainedValues([999, 1, 500, 4000], values)
+        assertEquals([1: 2d, 500: 1000d, 999: 1998d], values)
+        ifa.close()
+    }
+
+    void testStoredIndex() {
+        IterationIndex index = new IterationIndex()
+        index.addRecords(file.bytes, 0)
+        assertEquals file.length(), index.dataLength
+        index.write(IterationIndex.getIndexFile(file))
+
+        IterationIndex read = IterationIndex.read(IterationIndex.getIndexFile(file))
+        assertEquals index.entryCount, read.entryCount
+        for (int i = 0; i < index.entryCount; i++) {
+            assertEquals index.getOffset(i), read.getOffset(i)
+            assertEquals index.getEndOffset(i), read.getEndOffset(i)
+        }
+        assertTrue read.contains(0, 750)
+        assertFalse read.contains(0, 0)
+        assertTrue read.containsAny(0, [0, 800] as int[])
+        assertFalse read.containsAny(0, [0, 1000] as int[])
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+import org.pillarone.riskanalytics.core.dataaccess.KeyFigureCache.RunKeyFigures
+
+class KeyFigureCacheTests extends GroovyTestCase {
+
+    void testRunKeyFigures() {
+        RunKeyFigures keyFigures = new RunKeyFigures()
+        keyFigures.add(0, 1, 2, 3, 'mean', null, 5d)
+        keyFigures.add(0, 1, 2, 3, 'percentile', 99d, 10d)
+        keyFigures.add(0, 1, 2, 3, 'percentile', 99.5d, 11d)
+        for (int i = 0; i < 20; i++) {
+            keyFigures.add(1, 1, 2, 3, 'pdf', (double) i, i * 2d)
+        }
+
+        assertEquals 23, keyFigures.size()
+        assertEquals 5d, keyFigures.getResult(0, 1, 2, 3, 'mean', null)
+        assertNull keyFigures.getResult(0, 1, 2, 3, 'mean', 99d)
+        assertEquals 10d, keyFigures.getResult(0, 1, 2, 3, 'percentile', 99d)
+        assertEquals 11d, keyFigures.getResult(0, 1, 2, 3, 'percentile', 99.5d)
+        assertNull keyFigures.getResult(0, 1, 2, 3, 'percentile', null)
+        assertNull keyFigures.getResult(0, 1, 2, 3, 'stdev', null)
+        assertNull keyFigures.getResult(1, 1, 2, 3, 'mean', null)
+        assertEquals 38d, keyFigures.getResult(1, 1, 2, 3, 'pdf', 19d)
+        assertTrue keyFigures.contains(0, 1, 2, 3, 'percentile', 99d)
+        assertFalse keyFigures.contains(0, 1, 2, 4, 'percentile', 99d)
+    }
+
+    void testEvictionAndInvalidate() {
+        KeyFigureCache cache = new KeyFigureCache(2)
+        RunKeyFigures first = new RunKeyFigures()
+        cache.put(1, first)
+        cache.put(2, new RunKeyFigures())
+        assertSame first, cache.get(1)
+        cache.put(3, new RunKeyFigures())
+
+        assertNotNull cache.get(1)
+        assertNull cache.get(2)
+        assertNotNull cache.get(3)
+        assertEquals 2, cache.runCount
+
+        cache.invalidate(1)
+        assertNull cache.get(1)
+        assertEquals 1, cache.runCount
+        assertEquals 3, cache.hits
+        assertEquals 2, cache.misses
+    }
+}
@@ -0,0 +1,78 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class ResultContainerTests extends GroovyTestCase {
+
+    File directory
+
+    protected void setUp() {
+        super.setUp()
+        directory = new File(System.getProperty("java.io.tmpdir"), "resultContainerTests")
+        directory.deleteDir()
+        directory.mkdirs()
+
+        FileOutputStream segment = new FileOutputStream(new File(directory, ResultContainer.SEGMENT_FILE))
+        ResultContainer.Entry first = new ResultContainer.Entry(1, 0, 2, 3)
+        ResultContainer.Entry second = new ResultContainer.Entry(4, 1, 2, 3)
+        first.summary = new ResultFileSummary()
+        second.summary = new ResultFileSummary()
+        long offset = 0
+        // chunks of both series alternate in the segment
+        for (int chunk = 0; chunk < 3; chunk++) {
+            for (ResultContainer.Entry entry in [first, second]) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream()
+                DataOutputStream dos = new DataOutputStream(bos)
+                for (int iteration = chunk * 10; iteration < (chunk + 1) * 10; iteration++) {
+                    dos.writeInt(iteration)
+                    dos.writeInt(1)
+                    dos.writeDouble(entry.pathId * 100 + iteration)
+                    dos.writeLong(0)
+                }
+                byte[] content = bos.toByteArray()
+                segment.write(content)
+                entry.addExtent(offset, content.length)
+                entry.summary.addRecords(content)
+                offset += content.length
+            }
+        }
+        DataOutputStream dos = new DataOutputStream(segment)
+        ResultContainer.writeDirectory(dos, [first, second], offset)
+        dos.close()
+    }
+
+    protected void tearDown() {
+        ResultContainer.evict(directory)
+        directory.deleteDir()
+    }
+
+    void testDirectory() {
+        ResultContainer container = ResultContainer.open(directory)
+        assertEquals(["1_0_2_3", "4_1_2_3"], container.fileNames as List)
+        assertEquals 3, container.getEntry("1_0_2_3").extentCount
+        assertNull ResultContainer.open(new File(directory, "missing"))
+    }
+
+    void testUnclosedContainer() {
+        File running = new File(directory, "running")
+        running.mkdirs()
+        new File(running, ResultContainer.SEGMENT_FILE).bytes = new byte[100]
+        try {
+            assertTrue ResultContainer.open(running).fileNames.isEmpty()
+            assertFalse new IterationFileAccessor(new File(running, "1_0_2_3")).fetchNext()
+        } finally {
+            ResultContainer.evict(running)
+        }
+    }
+
+    void testReadSeries() {
+        IterationFileAccessor ifa = new IterationFileAccessor(new File(directory, "4_1_2_3"))
+        assertEquals 30, ifa.countRemainingRecords()
+        assertEquals 30, ifa.summary.count
+        assertTrue ifa.fetchIteration(25)
+        assertEquals 425d, ifa.value
+        ifa.close()
+
+        assertEquals 30, ResultFileSummary.read(new File(directory, "1_0_2_3")).count
+        assertFalse new IterationFileAccessor(new File(directory, "9_0_2_3")).fetchNext()
+        assertFalse IterationIndex.getIndexFile(new File(directory, "4_1_2_3")).exists()
+    }
+}
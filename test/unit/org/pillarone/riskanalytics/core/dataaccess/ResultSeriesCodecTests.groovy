@@ -0,0 +1,59 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class ResultSeriesCodecTests extends GroovyTestCase {
+
+    private static byte[] createRecords(int firstIteration, int iterations) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream()
+        DataOutputStream dos = new DataOutputStream(bos)
+        for (int iteration = firstIteration; iteration < firstIteration + iterations; iteration++) {
+            List<Double> values = iteration % 3 == 0 ? [0d, 0d] : [iteration * 1.5d, -0d, Double.NaN, iteration * 1.5d]
+            dos.writeInt(iteration)
+            dos.writeInt(values.size())
+            values.eachWithIndex { double value, int i ->
+                dos.writeDouble(value)
+                dos.writeLong(i == 1 ? 1262304000000L : 0L)
+            }
+        }
+        dos.close()
+        return bos.toByteArray()
+    }
+
+    void testRoundTrip() {
+        byte[] records = createRecords(10, 1000)
+        byte[] encoded = ResultSeriesCodec.encode(records)
+        assertTrue encoded.length * 3 < records.length
+        assertTrue Arrays.equals(records, ResultSeriesCodec.decode(encoded))
+
+        assertTrue Arrays.equals(new byte[0], ResultSeriesCodec.decode(ResultSeriesCodec.encode(new byte[0])))
+    }
+
+    void testReadEncodedFile() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "resultSeriesCodecTests")
+        directory.mkdirs()
+        File file = new File(directory, "1_0_2_3")
+        byte[] first = createRecords(500, 100)
+        byte[] second = createRecords(0, 100)
+        ResultFileSummary summary = new ResultFileSummary()
+        summary.addRecords(first)
+        summary.addRecords(second)
+        file.withOutputStream { OutputStream out ->
+            out.write(ResultSeriesCodec.getFileHeader())
+            ResultSeriesCodec.writeChunk(out, ResultSeriesCodec.encode(first))
+            ResultSeriesCodec.writeChunk(out, ResultSeriesCodec.encode(second))
+            out.write(summary.toByteArray())
+        }
+
+        IterationFileAccessor ifa = new IterationFileAccessor(file)
+        assertEquals 200, ifa.summary.count
+        assertEquals 200, ifa.countRemainingRecords()
+        assertTrue ifa.fetchNext()
+        assertEquals 500, ifa.iteration
+        assertTrue ifa.fetchIteration(3)
+        assertEquals 2, ifa.singleValues.size()
+        assertTrue ifa.fetchIteration(4)
+        assertEquals 1262304000000L, ifa.singleValues[1].dateTime
+        assertTrue Double.isNaN(ifa.value)
+        ifa.close()
+        directory.deleteDir()
+    }
+}
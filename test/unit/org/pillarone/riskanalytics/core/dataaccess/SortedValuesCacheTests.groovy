@@ -0,0 +1,44 @@
+package org.pillarone.riskanalytics.core.dataaccess
+
+class SortedValuesCacheTests extends GroovyTestCase {
+
+    void testGetAndPut() {
+        SortedValuesCache cache = new SortedValuesCache(1024 * 1024)
+        assertNull cache.get(1, 0, 2, 3, 4)
+        double[] values = [1d, 2d, 3d] as double[]
+        cache.put(1, 0, 2, 3, 4, values)
+        assertSame values, cache.get(1, 0, 2, 3, 4)
+        assertNull cache.get(1, 1, 2, 3, 4)
+        assertEquals 1, cache.hits
+        assertEquals 2, cache.misses
+        assertEquals 1, cache.entryCount
+    }
+
+    void testEviction() {
+        // room for two series of 100 values
+        SortedValuesCache cache = new SortedValuesCache(2 * (100 * 8 + 96))
+        cache.put(1, 0, 1, 1, 1, new double[100])
+        cache.put(1, 0, 2, 1, 1, new double[100])
+        assertNotNull cache.get(1, 0, 1, 1, 1)
+        cache.put(1, 0, 3, 1, 1, new double[100])
+
+        assertNotNull cache.get(1, 0, 1, 1, 1)
+        assertNull cache.get(1, 0, 2, 1, 1)
+        assertNotNull cache.get(1, 0, 3, 1, 1)
+        assertTrue cache.sizeInBytes <= cache.maxSizeInBytes
+
+        cache.put(1, 0, 4, 1, 1, new double[1000])
+        assertNull cache.get(1, 0, 4, 1, 1)
+        assertEquals 2, cache.entryCount
+    }
+
+    void testInvalidate() {
+        SortedValuesCache cache = new SortedValuesCache(1024 * 1024)
+        cache.put(1, 0, 1, 1, 1, new double[10])
+        cache.put(2, 0, 1, 1, 1, new double[10])
+        cache.invalidate(1)
+        assertNull cache.get(1, 0, 1, 1, 1)
+        assertNotNull cache.get(2, 0, 1, 1, 1)
+        assertEquals 10 * 8 + 96, cache.sizeInBytes
+    }
+}
@@ -0,0 +1,20 @@
+package org.pillarone.riskanalytics.core.output
+
+class NameIdDictionaryTests extends GroovyTestCase {
+
+    void testLookup() {
+        NameIdDictionary dictionary = new NameIdDictionary()
+        dictionary.put("model:component:outClaims", 3)
+        dictionary.put("model:component:outPremium", 4)
+
+        assertEquals 3L, dictionary.getId("model:component:outClaims")
+        assertEquals "model:component:outPremium", dictionary.getName(4)
+        assertNull dictionary.getId("model:unknown")
+        assertNull dictionary.getName(5)
+        assertEquals 2, dictionary.size()
+
+        dictionary.clear()
+        assertNull dictionary.getId("model:component:outClaims")
+        assertNull dictionary.getName(3)
+    }
+}
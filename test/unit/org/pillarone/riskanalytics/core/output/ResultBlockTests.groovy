@@ -0,0 +1,87 @@
+package org.pillarone.riskanalytics.core.output
+
+class ResultBlockTests extends GroovyTestCase {
+
+    FieldMapping ultimate = new FieldMapping(fieldName: "ultimate")
+    FieldMapping paid = new FieldMapping(fieldName: "paid")
+    CollectorMapping single = new CollectorMapping(collectorName: SingleValueCollectingModeStrategy.IDENTIFIER)
+    CollectorMapping aggregated = new CollectorMapping(collectorName: AggregatedWithSingleAvailableCollectingModeStrategy.IDENTIFIER)
+    PathMapping path = new PathMapping(pathName: "path")
+
+    void testGroupBySeries() {
+        ResultBlock block = new ResultBlock(2)
+        // the block is reused for every iteration
+        for (int iteration = 0; iteration < 2; iteration++) {
+            block.reset(iteration, path)
+            block.add(0, 0, ultimate, single, 1, 100)
+            block.add(0, 0, paid, single, 2, 100)
+            block.add(0, 1, ultimate, single, 3, 200)
+            block.add(1, 0, ultimate, single, 4, 300)
+            block.add(0, 0, ultimate, aggregated, 5, 100)
+            block.add(0, 1, paid, single, 6, 200)
+
+            assertEquals 6, block.size
+            assertEquals 4, block.groupBySeries()
+            assertEquals([[1d, 3d], [2d, 6d], [4d], [5d]], getSeries(block))
+        }
+    }
+
+    void testSeriesIdsOfAllIterations() {
+        ResultBlock block = new ResultBlock()
+        block.reset(1, path)
+        block.add(0, 0, ultimate, single, 1, 100)
+        block.add(0, 0, paid, single, 2, 100)
+        assertEquals 2, block.groupBySeries()
+        assertEquals 0, block.getSeriesId(0)
+        assertEquals 1, block.getSeriesId(1)
+
+        // other order and a new series
+        block.reset(2, path)
+        block.add(1, 0, ultimate, single, 3, 100)
+        block.add(0, 0, paid, single, 4, 100)
+        block.add(0, 0, ultimate, single, 5, 100)
+        assertEquals 3, block.groupBySeries()
+        assertEquals 2, block.getSeriesId(0)
+        assertEquals 1, block.getSeriesId(1)
+        assertEquals 0, block.getSeriesId(2)
+        assertEquals 3, block.knownSeriesCount
+
+        block.reset(3, path)
+        block.add(0, 0, paid, single, 6, 100)
+        assertEquals 1, block.groupBySeries()
+        assertEquals 1, block.getSeriesId(0)
+        assertEquals 3, block.knownSeriesCount
+    }
+
+    void testToSingleValueResults() {
+        ResultBlock block = new ResultBlock()
+        block.reset(3, path)
+        block.add(1, 2, paid, single, 5, 1000)
+        block.add(0, 0, ultimate, aggregated, 6, ResultBlock.NO_DATE)
+
+        List<SingleValueResultPOJO> results = block.toSingleValueResults()
+        assertEquals 2, results.size()
+        SingleValueResultPOJO result = results[0]
+        assertEquals 3, result.iteration
+        assertEquals 1, result.period
+        assertEquals 2, result.valueIndex
+        assertSame path, result.path
+        assertSame paid, result.field
+        assertSame single, result.collector
+        assertEquals 5d, result.value
+        assertEquals 1000, result.date.millis
+        assertNull results[1].date
+    }
+
+    private static List<List<Double>> getSeries(ResultBlock block) {
+        List<List<Double>> series = []
+        for (int s = 0; s < block.groupBySeries(); s++) {
+            List<Double> values = []
+            for (int position = block.getSeriesStart(s); position < block.getSeriesStart(s + 1); position++) {
+                values << block.getValue(block.getSeriesResult(position))
+            }
+            series << values
+        }
+        return series
+    }
+}
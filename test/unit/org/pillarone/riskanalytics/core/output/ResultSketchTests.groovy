@@ -0,0 +1,96 @@
+package org.pillarone.riskanalytics.core.output
+
+import org.pillarone.riskanalytics.core.util.RiskMeasures
+
+class ResultSketchTests extends GroovyTestCase {
+
+    void testExactKeyFigures() {
+        Random random = new Random(42)
+        double[] severities = [0, 1, 10, 50, 90, 99, 99.5]
+        for (int size in [1, 2, 17, 200]) {
+            int iterations = size + 20
+            double[] values = new double[iterations]
+            ResultSketch sketch = new ResultSketch()
+            ResultSketch other = new ResultSketch()
+            for (int i = 0; i < size; i++) {
+                values[i] = random.nextGaussian() * 100
+                (i % 2 == 0 ? sketch : other).add(values[i])
+            }
+            sketch.merge(other)
+            sketch.addMissingIterations(iterations)
+            Arrays.sort(values)
+            RiskMeasures measures = new RiskMeasures(values)
+
+            assertTrue sketch.exact
+            assertEquals iterations, sketch.count
+            assertEquals measures.mean, sketch.mean, 1E-10
+            assertEquals measures.stdDev, sketch.stdDev, 1E-10
+            assertEquals measures.min, sketch.min
+            assertEquals measures.max, sketch.max
+            for (QuantilePerspective perspective in QuantilePerspective.values()) {
+                for (double severity in severities) {
+                    assertEquals measures.getPercentile(severity, perspective), sketch.getPercentile(severity, perspective)
+                    assertEquals measures.getVar(severity, perspective), sketch.getVar(severity, perspective), 1E-10
+                    assertEquals measures.getTvar(severity, perspective), sketch.getTvar(severity, perspective), 1E-10
+                }
+            }
+        }
+    }
+
+    void testApproximateKeyFigures() {
+        Random random = new Random(42)
+        int iterations = 200000
+        double[] values = new double[iterations]
+        ResultSketch sketch = new ResultSketch()
+        for (int i = 0; i < iterations; i++) {
+            // every fifth iteration has no result
+            if (i % 5 != 0) {
+                values[i] = Math.exp(random.nextGaussian()) * 1000
+                sketch.add(values[i])
+            }
+        }
+        sketch.addMissingIterations(iterations)
+        Arrays.sort(values)
+        RiskMeasures measures = new RiskMeasures(values)
+
+        assertFalse sketch.exact
+        assertEquals measures.mean, sketch.mean, measures.mean * 1E-10
+        assertEquals measures.stdDev, sketch.stdDev, measures.stdDev * 1E-8
+        assertEquals 0d, sketch.min
+        assertEquals measures.max, sketch.max
+        for (double severity in [50d, 90d, 99d, 99.5d]) {
+            double percentile = measures.getPercentile(severity, QuantilePerspective.LOSS)
+            assertEquals percentile, sketch.getPercentile(severity, QuantilePerspective.LOSS), percentile * 0.02
+            double tvar = measures.getTvar(severity, QuantilePerspective.LOSS)
+            assertEquals tvar, sketch.getTvar(severity, QuantilePerspective.LOSS), tvar * 0.02
+        }
+    }
+
+    void testNoMissingIterations() {
+        ResultSketch sketch = new ResultSketch()
+        sketch.add(5)
+        sketch.add(7)
+        sketch.addMissingIterations(2)
+        assertEquals 2, sketch.count
+        assertEquals 5d, sketch.min
+        assertEquals 6d, sketch.mean
+    }
+
+    void testCopyInProgress() {
+        ResultSketch sketch = new ResultSketch()
+        for (int i = 1; i <= 100; i++) {
+            sketch.add(i)
+        }
+        ResultSketch inProgress = sketch.copy()
+        inProgress.addMissingIterations(200)
+        sketch.add(1000)
+
+        assertEquals 200, inProgress.count
+        assertEquals 0d, inProgress.min
+        assertEquals 100d, inProgress.max
+        assertEquals 25.25d, inProgress.mean, 1e-10
+        assertEquals 101, sketch.count
+        assertEquals 1d, sketch.min
+        assertEquals 1000d, sketch.max
+    }
+}
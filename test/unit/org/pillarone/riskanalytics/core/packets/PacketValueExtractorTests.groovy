@@ -0,0 +1,62 @@
+package org.pillarone.riskanalytics.core.packets
+
+import org.pillarone.riskanalytics.core.output.aggregation.SumAggregator
+
+class PacketValueExtractorTests extends GroovyTestCase {
+
+    void testExtract() {
+        TestMultiValuePacketDerivedTwice packet = new TestMultiValuePacketDerivedTwice()
+        packet.firstLevelField = 1
+        packet.secondLevelField = 2
+
+        PacketValueExtractor extractor = PacketValueExtractor.getDefaultExtractor(packet)
+        assertSame extractor, PacketValueExtractor.getExtractor(TestMultiValuePacketDerivedTwice)
+        assertEquals 2, extractor.fieldCount
+        assertEquals(['firstLevelField', 'secondLevelField'] as Set, extractor.fieldNames as Set)
+        assertEquals extractor.fieldNames as List, packet.fieldNames
+
+        double[] values = new double[2]
+        extractor.extract(packet, values)
+        Map<String, Number> valuesToSave = packet.valuesToSave
+        for (int i = 0; i < extractor.fieldCount; i++) {
+            assertEquals valuesToSave[extractor.getFieldName(i)], values[i]
+        }
+    }
+
+    void testOverriddenValuesToSave() {
+        assertNull PacketValueExtractor.getDefaultExtractor(new TestUnderwritingInfo())
+        assertFalse PacketValueExtractor.getExtractor(TestUnderwritingInfo).hasDefaultValuesToSave()
+        assertNull PacketValueExtractor.getDefaultExtractor(new Packet())
+    }
+
+    void testSumAggregator() {
+        List<Packet> packets = []
+        for (int i = 1; i <= 3; i++) {
+            packets << new TestCommissionsPaid(total: i, acquisition: i * 10, portfolio: -i)
+        }
+        TestCommissionsPaid sum = (TestCommissionsPaid) new SumAggregator().aggregate(packets)
+        assertEquals 6d, sum.total
+        assertEquals 60d, sum.acquisition
+        assertEquals(-6d, sum.portfolio)
+        assertEquals 0d, sum.nominalClawback
+
+        PacketValueExtractor extractor = PacketValueExtractor.getExtractor(TestCommissionsPaid)
+        double[] sums = new double[extractor.fieldCount]
+        sums[0] = 42
+        assertTrue SumAggregator.sumFields(packets, extractor, sums)
+        double[] values = new double[extractor.fieldCount]
+        extractor.extract(sum, values)
+        assertTrue Arrays.equals(values, sums)
+    }
+
+    void testSumAggregatorMixedClasses() {
+        List<Packet> packets = [new TestMultiValuePacketDerivedTwice(firstLevelField: 1, secondLevelField: 2),
+                new TestMultiValuePacketDerivedOnce(firstLevelField: 3)]
+        PacketValueExtractor extractor = PacketValueExtractor.getExtractor(TestMultiValuePacketDerivedTwice)
+        assertFalse SumAggregator.sumFields(packets, extractor, new double[extractor.fieldCount])
+
+        TestMultiValuePacketDerivedTwice sum = (TestMultiValuePacketDerivedTwice) new SumAggregator().aggregate(packets)
+        assertEquals 4d, sum.firstLevelField
+        assertEquals 2d, sum.secondLevelField
+    }
+}
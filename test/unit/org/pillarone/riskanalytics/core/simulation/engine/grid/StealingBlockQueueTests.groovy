@@ -0,0 +1,89 @@
+package org.pillarone.riskanalytics.core.simulation.engine.grid
+
+class StealingBlockQueueTests extends GroovyTestCase {
+
+    void testStealFromTail() {
+        UUID task = UUID.randomUUID()
+        List<SimulationBlock> blocks = SimulationTask.generateBlocks(1000, 5500)
+        StealingBlockQueue first = StealingBlockQueue.create(task, blocks[0..3])
+        StealingBlockQueue second = StealingBlockQueue.create(task, blocks[4..5])
+        StealingBlockQueue otherTask = StealingBlockQueue.create(UUID.randomUUID(), [])
+
+        assertSame blocks[0], first.nextBlock()
+        assertSame blocks[4], second.nextBlock()
+        assertSame blocks[5], second.nextBlock()
+        // own blocks are taken, continue with the last unstarted block of the busiest job
+        assertSame blocks[3], second.nextBlock()
+        assertSame blocks[2], second.nextBlock()
+        assertSame blocks[1], first.nextBlock()
+        assertNull first.nextBlock()
+        assertNull second.nextBlock()
+        assertNull otherTask.nextBlock()
+        assertEquals 2, second.stolenBlocks
+        assertEquals 0, first.stolenBlocks
+
+        first.unregister()
+        second.unregister()
+        otherTask.unregister()
+    }
+
+    void testUnregisteredBlocksAreNotStolen() {
+        UUID task = UUID.randomUUID()
+        List<SimulationBlock> blocks = SimulationTask.generateBlocks(1000, 3000)
+        StealingBlockQueue first = StealingBlockQueue.create(task, blocks)
+        StealingBlockQueue second = StealingBlockQueue.create(task, [])
+        assertSame blocks[0], first.nextBlock()
+        first.unregister()
+
+        assertNull second.nextBlock()
+        assertEquals 2, first.size()
+        second.unregister()
+    }
+
+    void testQueueEmptiedByStealing() {
+        UUID task = UUID.randomUUID()
+        List<SimulationBlock> blocks = SimulationTask.generateBlocks(1000, 4000)
+        StealingBlockQueue slow = StealingBlockQueue.create(task, blocks[0..2])
+        StealingBlockQueue fast = StealingBlockQueue.create(task, blocks[3..3])
+
+        // the slow job is still initializing its model, its blocks can't be stolen yet
+        assertSame blocks[3], fast.nextBlock()
+        assertNull fast.nextBlock()
+        assertEquals 3, slow.size()
+
+        // the other blocks of the slow job are stolen as soon as it has taken its first one
+        assertSame blocks[0], slow.nextBlock()
+        assertSame blocks[2], fast.nextBlock()
+        assertSame blocks[1], fast.nextBlock()
+        assertNull slow.nextBlock()
+        assertEquals 0, slow.stolenBlocks
+        assertEquals 2, fast.stolenBlocks
+
+        slow.unregister()
+        fast.unregister()
+    }
+
+    void testConcurrentJobsSimulateEveryBlockOnce() {
+        UUID task = UUID.randomUUID()
+        List<SimulationBlock> blocks = SimulationTask.generateBlocks(10, 10000)
+        List<StealingBlockQueue> queues = []
+        // all blocks assigned to the first job, the others only steal
+        queues << StealingBlockQueue.create(task, blocks)
+        3.times { queues << StealingBlockQueue.create(task, []) }
+
+        List<SimulationBlock> simulated = Collections.synchronizedList([])
+        List<Thread> threads = queues.collect { StealingBlockQueue queue ->
+            Thread.start {
+                SimulationBlock block
+                while ((block = queue.nextBlock()) != null) {
+                    simulated << block
+                }
+            }
+        }
+        threads*.join()
+        queues*.unregister()
+
+        assertEquals blocks.size(), simulated.size()
+        assertEquals blocks as Set, simulated as Set
+    }
+}
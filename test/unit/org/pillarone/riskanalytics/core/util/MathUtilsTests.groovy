@@ -19,6 +19,11 @@ void testPercentile() {
         assertEquals 20, MathUtils.calculatePercentile((double[]) [0, 10, 20], 100, QuantilePerspective.LOSS)
         assertEquals 18.33333333, MathUtils.calculatePercentile((double[]) [0, 10, 20], 75, QuantilePerspective.LOSS), 1E-8
         assertEquals 20, MathUtils.calculatePercentile((double[]) [0, 10, 20], 90, QuantilePerspective.LOSS)
+
+        // the values are sorted in place
+        double[] values = [20, 0, 10]
+        assertEquals 10, MathUtils.calculatePercentile(values, 50, QuantilePerspective.LOSS)
+        assertEquals([0d, 10d, 20d], values as List)
     }
 
     void testVar() {
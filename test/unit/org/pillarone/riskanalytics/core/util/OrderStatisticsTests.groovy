@@ -0,0 +1,48 @@
+package org.pillarone.riskanalytics.core.util
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective
+
+class OrderStatisticsTests extends GroovyTestCase {
+
+    void testIdenticalToSortedValues() {
+        Random random = new Random(42)
+        for (int round = 0; round < 200; round++) {
+            int size = 1 + random.nextInt(round % 10 == 0 ? 5000 : 50)
+            double[] values = new double[size]
+            for (int i = 0; i < size; i++) {
+                // many zeroes as in series with iterations without a record
+                values[i] = random.nextInt(3) == 0 ? 0d : random.nextGaussian() * 1e6
+            }
+            double[] sortedValues = values.clone()
+            Arrays.sort(sortedValues)
+            double mean = MathUtils.calculateMean(sortedValues)
+            OrderStatistics statistics = new OrderStatistics(values.clone())
+            for (int i = 0; i < 4; i++) {
+                double severity = random.nextDouble() * 100
+                QuantilePerspective perspective = random.nextBoolean() ? QuantilePerspective.LOSS : QuantilePerspective.PROFIT
+                assertEquals MathUtils.calculatePercentileOfSortedValues(sortedValues, severity, perspective), statistics.getPercentile(severity, perspective)
+                assertEquals MathUtils.calculateVarOfSortedValues(sortedValues, severity, mean, perspective), statistics.getVar(severity, mean, perspective)
+                assertEquals MathUtils.calculateTvarOfSortedValues(sortedValues, severity, mean, perspective), statistics.getTvar(severity, mean, perspective)
+            }
+        }
+    }
+
+    void testManyQuantiles() {
+        double[] values = (1..1000).collect { (double) ((it * 7919) % 1000) } as double[]
+        double[] severities = [1, 5, 10, 25, 50, 75, 90, 95, 99]
+        assertTrue severities.length > OrderStatistics.selectionLimit(values.length)
+        double[] percentiles = new OrderStatistics(values).getPercentiles(severities, QuantilePerspective.LOSS)
+        double[] sortedValues = values.clone()
+        Arrays.sort(sortedValues)
+        assertEquals sortedValues.toList(), values.toList()
+        severities.eachWithIndex { double severity, int i ->
+            assertEquals MathUtils.calculatePercentileOfSortedValues(sortedValues, severity, QuantilePerspective.LOSS), percentiles[i]
+        }
+    }
+
+    void testSelectionLimit() {
+        assertEquals 1, OrderStatistics.selectionLimit(1)
+        assertEquals 2, OrderStatistics.selectionLimit(1000)
+        assertEquals 5, OrderStatistics.selectionLimit(10000000)
+    }
+}
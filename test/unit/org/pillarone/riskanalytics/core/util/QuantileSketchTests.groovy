@@ -0,0 +1,73 @@
+package org.pillarone.riskanalytics.core.util
+
+class QuantileSketchTests extends GroovyTestCase {
+
+    void testExactForFewValues() {
+        Random random = new Random(42)
+        QuantileSketch sketch = new QuantileSketch()
+        double[] values = new double[500]
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(100) * 10
+            sketch.add(values[i])
+        }
+        Arrays.sort(values)
+        assertTrue sketch.exact
+        assertEquals 500, sketch.count
+        for (int i = 0; i < values.length; i++) {
+            assertEquals values[i], sketch.getValueAtRank(i)
+        }
+        assertEquals values[400..499].sum(), sketch.getSum(400, 500, false), 1E-8
+        assertEquals values[0..99].sum(), sketch.getSum(0, 100, true), 1E-8
+    }
+
+    void testEqualValuesStayExact() {
+        QuantileSketch sketch = new QuantileSketch()
+        for (int i = 0; i < 10000; i++) {
+            sketch.add(i % 3)
+        }
+        sketch.add(0, 1000000)
+        assertTrue sketch.exact
+        assertEquals 1010000, sketch.count
+        assertEquals 0, sketch.getValueAtRank(1003333)
+        assertEquals 1, sketch.getValueAtRank(1003334)
+        assertEquals 2, sketch.getValueAtRank(1009999)
+    }
+
+    void testAccuracy() {
+        Random random = new Random(42)
+        int n = 100000
+        double[] values = new double[n]
+        QuantileSketch sketch = new QuantileSketch()
+        QuantileSketch other = new QuantileSketch()
+        for (int i = 0; i < n; i++) {
+            values[i] = -Math.log(random.nextDouble()) * 1000
+            (i % 2 == 0 ? sketch : other).add(values[i])
+        }
+        sketch.merge(other)
+        Arrays.sort(values)
+        assertFalse sketch.exact
+        assertEquals n, sketch.count
+        assertTrue sketch.size < 1000
+        assertEquals values[0], sketch.getValueAtRank(0)
+        assertEquals values[n - 1], sketch.getValueAtRank(n - 1)
+        for (double quantile in [0.01d, 0.5d, 0.9d, 0.99d, 0.999d]) {
+            long rank = (long) (quantile * n)
+            int position = Arrays.binarySearch(values, sketch.getValueAtRank(rank))
+            position = position < 0 ? -position - 1 : position
+            assertEquals "rank of $quantile", quantile, position / (double) n, 0.002
+        }
+        double tail = 0
+        for (int i = 99000; i < n; i++) {
+            tail += values[i]
+        }
+        assertEquals tail, sketch.getSum(99000, n, false), tail * 0.01
+    }
+
+    void testInvalidArguments() {
+        QuantileSketch sketch = new QuantileSketch()
+        sketch.add(1)
+        shouldFail(IllegalArgumentException) { sketch.getValueAtRank(1) }
+        shouldFail(IllegalArgumentException) { sketch.add(1, -1) }
+        shouldFail(IllegalArgumentException) { new QuantileSketch(5) }
+    }
+}
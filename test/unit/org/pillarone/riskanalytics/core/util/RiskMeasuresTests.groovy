@@ -0,0 +1,47 @@
+package org.pillarone.riskanalytics.core.util
+
+import org.pillarone.riskanalytics.core.output.QuantilePerspective
+
+class RiskMeasuresTests extends GroovyTestCase {
+
+    void testEqualToMathUtils() {
+        Random random = new Random(42)
+        double[] severities = [0, 0.5, 1, 10, 50, 75, 90, 99, 99.5]
+        for (int size in [1, 2, 3, 17, 1000]) {
+            double[] values = new double[size]
+            for (int i = 0; i < size; i++) {
+                values[i] = random.nextGaussian() * 1e6 + 1e5
+            }
+            Arrays.sort(values)
+            RiskMeasures measures = new RiskMeasures(values)
+            // the tail sums add the values in another order
+            double tvarTolerance = 1e-12 * Math.max(Math.abs(values[0]), Math.abs(values[-1]))
+            assertEquals MathUtils.calculateMean(values), measures.mean
+            assertEquals MathUtils.calculateStandardDeviation(values), measures.stdDev
+            assertEquals values[0], measures.min
+            assertEquals values[-1], measures.max
+            for (QuantilePerspective perspective in QuantilePerspective.values()) {
+                double[] percentiles = measures.getPercentiles(severities, perspective)
+                double[] vars = measures.getVars(severities, perspective)
+                double[] tvars = measures.getTvars(severities, perspective)
+                severities.eachWithIndex { double severity, int i ->
+                    assertEquals MathUtils.calculatePercentileOfSortedValues(values, severity, perspective), percentiles[i]
+                    assertEquals MathUtils.calculateVar(values.clone(), severity, perspective), vars[i]
+                    assertEquals MathUtils.calculateTvar(values.clone(), severity, perspective), tvars[i], tvarTolerance
+                    assertEquals tvars[i], measures.getTvar(severity, perspective)
+                }
+            }
+        }
+    }
+
+    void testTvar() {
+        RiskMeasures measures = new RiskMeasures((double[]) [0, 10, 20])
+        assertEquals 10, measures.getTvar(50, QuantilePerspective.LOSS)
+        assertEquals 20 / 0.3 - 10, measures.getTvar(90, QuantilePerspective.LOSS), 1E-8
+        shouldFail(IllegalArgumentException) { measures.getTvar(100, QuantilePerspective.LOSS) }
+    }
+
+    void testNoValues() {
+        shouldFail(IllegalArgumentException) { new RiskMeasures(new double[0]) }
+    }
+}